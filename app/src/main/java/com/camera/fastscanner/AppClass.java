@@ -2,10 +2,68 @@ package com.camera.fastscanner;
 
 import android.app.Application;
 
+import androidx.annotation.Nullable;
+import androidx.camera.lifecycle.ProcessCameraProvider;
+
+import com.camera.fastscanner.objects.ScannerPool;
+import com.camera.fastscanner.viewmodel.ScanViewModel;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class AppClass extends Application {
 
+    private static long launchNanos;
+    private boolean prewarmed;
+    private ListenableFuture<ProcessCameraProvider> cameraProviderFuture;
+
     @Override
     public void onCreate() {
         super.onCreate();
+        launchNanos = System.nanoTime();
+
+        if (getResources().getBoolean(R.bool.prewarm_scanner)) {
+            prewarm();
+        }
+    }
+
+    /**
+     * Camera provider and decoder are both slow to initialise. Start them side by side so the
+     * first scan does not wait for them one after the other. The provider initialises on the
+     * CameraX executors by itself, the decoder is warmed up on a background thread.
+     */
+    private void prewarm() {
+        prewarmed = true;
+        synchronized (this) {
+            cameraProviderFuture = ProcessCameraProvider.getInstance(this);
+        }
+        ExecutorService warmUpExecutor = Executors.newSingleThreadExecutor();
+        int formats = ScanViewModel.scanFormats(this);
+        warmUpExecutor.execute(() -> ScannerPool.warmUp(ScanViewModel.scannerOptions(formats)));
+        // The thread goes away once the warm-up is done
+        warmUpExecutor.shutdown();
+    }
+
+    /**
+     * The camera provider future started at launch, handed out once. Afterwards (or without
+     * prewarm) null is returned and the caller requests the provider itself.
+     */
+    @Nullable
+    public synchronized ListenableFuture<ProcessCameraProvider> takeCameraProviderFuture() {
+        ListenableFuture<ProcessCameraProvider> future = cameraProviderFuture;
+        cameraProviderFuture = null;
+        return future;
+    }
+
+    public boolean isPrewarmed() {
+        return prewarmed;
+    }
+
+    /**
+     * {@link System#nanoTime()} when the application was created.
+     */
+    public static long getLaunchNanos() {
+        return launchNanos;
     }
 }
@@ -0,0 +1,9 @@
+package com.camera.fastscanner.callbacks;
+
+/**
+ * Lets frames through to the analyser or turns them away, without touching the bound use cases.
+ */
+@FunctionalInterface
+public interface AnalysisGate {
+    void setPaused(boolean paused);
+}
@@ -0,0 +1,20 @@
+package com.camera.fastscanner.callbacks;
+
+/**
+ * Where the codes of each decoded frame are, for drawing them. Reported from the thread the
+ * decoder finished on, also for frames without codes.
+ */
+@FunctionalInterface
+public interface BoxListener {
+    /**
+     * Coordinates are in the buffer as delivered by the camera, before rotation. The arrays are
+     * reused, they are only valid during the call.
+     *
+     * @param rotation rotation in degrees needed to display the buffer upright
+     * @param boxes    left, top, right, bottom of each code
+     * @param corners  x and y of the four corners of each code, or -1 for codes whose corners are
+     *                 not known
+     * @param count    number of codes
+     */
+    void boxesFound(int imageWidth, int imageHeight, int rotation, int[] boxes, int[] corners, int count);
+}
@@ -0,0 +1,15 @@
+package com.camera.fastscanner.callbacks;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Where codes were found in each decoded frame, reported from the thread the decoder finished on.
+ */
+@FunctionalInterface
+public interface DetectionListener {
+    /**
+     * @param smallest left, top, right, bottom of the smallest code found, as fractions of the
+     *                 frame. Null if nothing was found. Only valid during the call.
+     */
+    void frameDecoded(@Nullable float[] smallest, long nowMillis);
+}
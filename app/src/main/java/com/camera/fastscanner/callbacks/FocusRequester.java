@@ -0,0 +1,16 @@
+package com.camera.fastscanner.callbacks;
+
+/**
+ * Asks the camera to focus and meter on part of the analysis frame.
+ */
+public interface FocusRequester {
+    /**
+     * Focus and meter on a rectangle, in buffer coordinates of an analysis frame of the given size.
+     */
+    void focusOn(int bufferWidth, int bufferHeight, int left, int top, int right, int bottom);
+
+    /**
+     * Back to the camera's own continuous focus and metering.
+     */
+    void cancelFocus();
+}
@@ -0,0 +1,13 @@
+package com.camera.fastscanner.callbacks;
+
+/**
+ * Brightness of the analysed frames, reported from the analysis thread.
+ */
+@FunctionalInterface
+public interface LightListener {
+    /**
+     * @param mean   average luminance, 0-255
+     * @param bright luminance of the brightest five percent
+     */
+    void lightMeasured(int mean, int bright, long nowMillis);
+}
@@ -0,0 +1,13 @@
+package com.camera.fastscanner.callbacks;
+
+/**
+ * Asks the camera for another analysis resolution.
+ */
+@FunctionalInterface
+public interface ResolutionRequester {
+    /**
+     * @param tier index into {@link com.camera.fastscanner.objects.ResolutionPolicy#TIERS}. Called
+     *             from the thread the decoder finished on.
+     */
+    void requestTier(int tier);
+}
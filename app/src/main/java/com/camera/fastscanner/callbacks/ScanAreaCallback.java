@@ -0,0 +1,9 @@
+package com.camera.fastscanner.callbacks;
+
+/**
+ * Callback for the scan window of the overlay, in view pixels.
+ */
+@FunctionalInterface
+public interface ScanAreaCallback {
+    void scanAreaChanged(int viewWidth, int viewHeight, int left, int top, int right, int bottom);
+}
@@ -0,0 +1,193 @@
+package com.camera.fastscanner.decoder;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.camera.fastscanner.objects.ScannerPool;
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.barcode.common.Barcode;
+import com.google.mlkit.vision.common.InputImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Decodes stored images, e.g. a folder of photographed delivery notes, with the same ML Kit
+ * client as the live scanner.
+ * <p>
+ * One worker per core takes the next image, decodes it downsampled into the bitmap it kept from
+ * its previous image and runs it through the detector. Memory stays at one bitmap per worker
+ * however many images there are. Results, progress and the end of the job are posted to the
+ * main thread as they happen.
+ */
+public class BatchDecoder {
+
+    // Long side of the decoded bitmap, enough for a code filling a tenth of an A4 photo
+    private static final int MAX_DIMENSION = 2048;
+
+    private final ContentResolver mResolver;
+    private final ScannerPool mScannerPool;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public BatchDecoder(@NonNull ContentResolver resolver, @NonNull ScannerPool scannerPool) {
+        mResolver = resolver;
+        mScannerPool = scannerPool;
+    }
+
+    /**
+     * Decode every JPEG and PNG directly inside a folder, in name order.
+     */
+    @NonNull
+    public Job decodeDirectory(@NonNull File directory, @NonNull Listener listener) {
+        File[] files = directory.listFiles();
+        List<Uri> images = new ArrayList<>();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName().toLowerCase(Locale.US);
+                if (file.isFile() && (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png"))) {
+                    images.add(Uri.fromFile(file));
+                }
+            }
+        }
+        return decode(images, listener);
+    }
+
+    /**
+     * Decode a list of file or content URIs.
+     */
+    @NonNull
+    public Job decode(@NonNull List<Uri> images, @NonNull Listener listener) {
+        Job job = new Job(images, listener);
+        job.start();
+        return job;
+    }
+
+    /**
+     * Decode a stream downsampled so its long side is at most {@link #MAX_DIMENSION}, into
+     * {@code reuse} if it is big enough.
+     */
+    @Nullable
+    private Bitmap load(Uri uri, @Nullable Bitmap reuse) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = open(uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (Math.max(options.outWidth, options.outHeight) / sampleSize > MAX_DIMENSION) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = reuse;
+        try (InputStream in = open(uri)) {
+            return BitmapFactory.decodeStream(in, null, options);
+        } catch (IllegalArgumentException e) {
+            // Reused bitmap too small for this image, take a fresh one
+            options.inBitmap = null;
+            try (InputStream in = open(uri)) {
+                return BitmapFactory.decodeStream(in, null, options);
+            }
+        }
+    }
+
+    private InputStream open(Uri uri) throws IOException {
+        InputStream in = mResolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        return in;
+    }
+
+    /**
+     * One run over a list of images.
+     */
+    public class Job {
+
+        private final BatchRun<Uri> mRun;
+        private final int mWorkers;
+
+        private Job(List<Uri> images, Listener listener) {
+            mRun = new BatchRun<>(images, ImageWorker::new, listener, mMainHandler::post);
+            mWorkers = Runtime.getRuntime().availableProcessors();
+        }
+
+        private void start() {
+            mRun.start(mWorkers);
+        }
+
+        /**
+         * Stop after the images being worked on, {@link Listener#finished(boolean)} still follows.
+         * Call on the main thread, nothing else is reported afterwards.
+         */
+        public void cancel() {
+            mRun.cancel();
+        }
+
+        public boolean isCancelled() {
+            return mRun.isCancelled();
+        }
+
+        /**
+         * Keeps the bitmap of its previous image to decode the next one into.
+         */
+        private class ImageWorker implements BatchRun.Worker<Uri> {
+
+            private Bitmap mBitmap;
+
+            @NonNull
+            @Override
+            public List<DecodedBarcode> decode(@NonNull Uri image) throws IOException, ExecutionException, InterruptedException {
+                mBitmap = load(image, mBitmap);
+                return mBitmap == null ? Collections.emptyList() : scan(mBitmap);
+            }
+
+            private List<DecodedBarcode> scan(Bitmap bitmap) throws ExecutionException, InterruptedException {
+                BarcodeScanner scanner = mScannerPool.acquire();
+                if (scanner == null) {
+                    // Owner went away
+                    cancel();
+                    return Collections.emptyList();
+                }
+                // The bitmap is reused for the next image, so wait for the detector to be done with it
+                List<Barcode> barcodes = Tasks.await(scanner.process(InputImage.fromBitmap(bitmap, 0)));
+                return MlKitDecoderEngine.convert(barcodes);
+            }
+
+            @Override
+            public void close() {
+                if (mBitmap != null) {
+                    mBitmap.recycle();
+                }
+            }
+        }
+    }
+
+    /**
+     * Called on the main thread.
+     */
+    public interface Listener extends BatchRun.Listener<Uri> {
+    }
+}
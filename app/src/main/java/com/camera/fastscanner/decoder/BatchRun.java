@@ -0,0 +1,136 @@
+package com.camera.fastscanner.decoder;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes a list of items on a few threads of its own. Results, failures, progress and the end of
+ * the run are reported through the callback executor, the main thread in the app.
+ * <p>
+ * An item that cannot be decoded, whatever the reason, fails only itself. Nothing but
+ * {@link Listener#finished(boolean)} is reported once {@link #cancel()} has been called on the
+ * callback thread, and that always comes exactly once.
+ *
+ * @param <T> what is decoded, e.g. the URI of an image
+ */
+public class BatchRun<T> {
+
+    /**
+     * Decodes items one after the other on one thread, so it can keep buffers from item to item.
+     */
+    public interface Worker<T> {
+        @NonNull
+        List<DecodedBarcode> decode(@NonNull T item) throws Exception;
+
+        /**
+         * Release what the worker holds, it is not used afterwards.
+         */
+        void close();
+    }
+
+    public interface WorkerFactory<T> {
+        @NonNull
+        Worker<T> create();
+    }
+
+    /**
+     * Called through the callback executor.
+     */
+    public interface Listener<T> {
+        void imageDecoded(@NonNull T image, @NonNull ScanBatch batch);
+
+        void imageFailed(@NonNull T image, @NonNull Exception e);
+
+        void progress(int done, int total);
+
+        void finished(boolean cancelled);
+    }
+
+    private final List<T> mItems;
+    private final WorkerFactory<T> mWorkerFactory;
+    private final Listener<T> mListener;
+    private final Executor mCallbackExecutor;
+    private final AtomicInteger mNext = new AtomicInteger();
+    private final AtomicInteger mDone = new AtomicInteger();
+    private final AtomicInteger mRunning = new AtomicInteger();
+    private final AtomicBoolean mCancelled = new AtomicBoolean();
+
+    public BatchRun(@NonNull List<T> items, @NonNull WorkerFactory<T> workerFactory,
+                    @NonNull Listener<T> listener, @NonNull Executor callbackExecutor) {
+        mItems = items;
+        mWorkerFactory = workerFactory;
+        mListener = listener;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Start decoding on up to the given number of threads, fewer if there are fewer items.
+     */
+    public void start(int workers) {
+        workers = Math.max(1, Math.min(workers, mItems.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        mRunning.set(workers);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::work);
+        }
+        executor.shutdown();
+    }
+
+    private void work() {
+        try {
+            Worker<T> worker = mWorkerFactory.create();
+            try {
+                int index;
+                while (!mCancelled.get() && (index = mNext.getAndIncrement()) < mItems.size()) {
+                    T item = mItems.get(index);
+                    try {
+                        ScanBatch batch = new ScanBatch(System.nanoTime(), worker.decode(item));
+                        report(() -> mListener.imageDecoded(item, batch));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    } catch (Exception e) {
+                        // Unreadable file, detector error or a bug, the other items go on
+                        report(() -> mListener.imageFailed(item, e));
+                    }
+                    int done = mDone.incrementAndGet();
+                    report(() -> mListener.progress(done, mItems.size()));
+                }
+            } finally {
+                worker.close();
+            }
+        } finally {
+            if (mRunning.decrementAndGet() == 0) {
+                mCallbackExecutor.execute(() -> mListener.finished(mCancelled.get()));
+            }
+        }
+    }
+
+    /**
+     * Pass a result on, unless the run was cancelled by the time it gets to the callback thread.
+     */
+    private void report(Runnable callback) {
+        mCallbackExecutor.execute(() -> {
+            if (!mCancelled.get()) {
+                callback.run();
+            }
+        });
+    }
+
+    /**
+     * Stop after the items being worked on, their results are dropped.
+     */
+    public void cancel() {
+        mCancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return mCancelled.get();
+    }
+}
@@ -0,0 +1,91 @@
+package com.camera.fastscanner.decoder;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A code found by a {@link DecoderEngine}, independent of the engine that found it.
+ * <p>
+ * Formats use the ML Kit constants ({@code Barcode.FORMAT_*}) whatever the engine. The bounding
+ * box and corner points are in pixels of the upright frame that was decoded.
+ */
+public class DecodedBarcode {
+
+    private final int format;
+    private final String rawValue;
+    private final String displayValue;
+    private final byte[] rawBytes;
+    private final int left;
+    private final int top;
+    private final int right;
+    private final int bottom;
+    private final int[] corners;
+
+    public DecodedBarcode(int format, @Nullable String rawValue, @Nullable String displayValue,
+                          @Nullable byte[] rawBytes, int left, int top, int right, int bottom) {
+        this(format, rawValue, displayValue, rawBytes, left, top, right, bottom, null);
+    }
+
+    /**
+     * @param corners x and y of the four corners, clockwise from the top left corner of the code
+     *                as it is printed. Null if the engine does not give them.
+     */
+    public DecodedBarcode(int format, @Nullable String rawValue, @Nullable String displayValue,
+                          @Nullable byte[] rawBytes, int left, int top, int right, int bottom,
+                          @Nullable int[] corners) {
+        this.format = format;
+        this.rawValue = rawValue;
+        this.displayValue = displayValue;
+        this.rawBytes = rawBytes;
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        this.corners = corners;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    @Nullable
+    public String getRawValue() {
+        return rawValue;
+    }
+
+    /**
+     * The value in a form fit for showing to the operator.
+     */
+    @Nullable
+    public String getDisplayValue() {
+        return displayValue;
+    }
+
+    @Nullable
+    public byte[] getRawBytes() {
+        return rawBytes;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    /**
+     * x and y of the four corners, see the constructor. Null if not known.
+     */
+    @Nullable
+    public int[] getCorners() {
+        return corners;
+    }
+}
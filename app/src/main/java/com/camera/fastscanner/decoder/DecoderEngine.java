@@ -0,0 +1,35 @@
+package com.camera.fastscanner.decoder;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Turns a luminance frame into barcodes.
+ * <p>
+ * Engines may finish synchronously or later on another thread, but the callback is always
+ * invoked exactly once per frame. The frame data may be reused as soon as the callback has run.
+ */
+public interface DecoderEngine {
+
+    void decode(@NonNull LumaFrame frame, @NonNull Callback callback);
+
+    /**
+     * Release whatever the engine holds. It is not used afterwards.
+     */
+    void close();
+
+    /**
+     * Makes engines for the analysis workers, each worker decodes with its own.
+     */
+    interface Factory {
+        @NonNull
+        DecoderEngine create();
+    }
+
+    interface Callback {
+        void decoded(@NonNull List<DecodedBarcode> barcodes);
+
+        void failed(@NonNull Exception e);
+    }
+}
@@ -0,0 +1,133 @@
+package com.camera.fastscanner.decoder;
+
+/**
+ * Helps decoders with dim and flat frames by working on the luminance of a {@link LumaFrame} in
+ * place.
+ * <p>
+ * {@link #stretch(LumaFrame)} spreads the range between the darkest and brightest percent of the
+ * frame, which is what a code under poor warehouse lighting needs to get its bars and gaps apart
+ * again. The gain is limited by the noise measured in the frame, so flat areas stay flat.
+ * {@link #invert(LumaFrame)} turns light-on-dark codes the right way round.
+ * <p>
+ * Histogram and lookup table are kept between frames, nothing is allocated per frame. Not
+ * thread-safe, one instance per analysis thread.
+ */
+public class LumaEnhancer {
+
+    // Frames with at least this range between their 1st and 99th percentile are left alone
+    private static final int MIN_RANGE = 160;
+    // Darkest and brightest share of pixels that is clipped
+    private static final int CLIP_PERCENT = 1;
+    // Sensor noise in flat areas is kept below this range after stretching, otherwise binarizers
+    // take the speckle for modules (ZXing ignores blocks with a range of 24 or less)
+    private static final float NOISE_BUDGET = 20F;
+    // Range of flat noise over a binarizer block, per unit of median neighbour difference
+    private static final float NOISE_FACTOR = 3.4F;
+    // Every SAMPLE_STEP-th pixel of every SAMPLE_STEP-th row goes into the histogram
+    private static final int SAMPLE_STEP = 4;
+
+    private final int[] histogram = new int[256];
+    private final int[] differences = new int[256];
+    private final byte[] lut = new byte[256];
+    private int lutLow = -1;
+    private int lutHigh = -1;
+    private int lutGain = -1;
+    private long stretchedFrames;
+
+    /**
+     * Stretch the contrast of the frame if it needs it.
+     *
+     * @return true if the frame was changed.
+     */
+    public boolean stretch(LumaFrame frame) {
+        byte[] data = frame.getData();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int stride = frame.getRowStride();
+
+        int samples = 0;
+        for (int i = 0; i < 256; i++) {
+            histogram[i] = 0;
+            differences[i] = 0;
+        }
+        for (int y = 0; y < height; y += SAMPLE_STEP) {
+            int offset = y * stride;
+            for (int x = 0; x < width - 1; x += SAMPLE_STEP) {
+                int value = data[offset + x] & 0xff;
+                histogram[value]++;
+                differences[Math.abs(value - (data[offset + x + 1] & 0xff))]++;
+                samples++;
+            }
+        }
+        if (samples == 0) {
+            return false;
+        }
+
+        int clip = samples * CLIP_PERCENT / 100;
+        int low = 0;
+        for (int seen = histogram[0]; seen <= clip && low < 255; seen += histogram[++low]) {
+            // Walk up to the 1st percentile
+        }
+        int high = 255;
+        for (int seen = histogram[255]; seen <= clip && high > 0; seen += histogram[--high]) {
+            // Walk down to the 99th percentile
+        }
+        if (high - low >= MIN_RANGE || high <= low) {
+            // Contrasty enough already, or a flat frame with nothing to find
+            return false;
+        }
+
+        // Most neighbouring pixels lie in flat areas, their median difference is a measure of noise
+        int noise = 0;
+        for (int seen = differences[0]; seen <= samples / 2 && noise < 255; seen += differences[++noise]) {
+            // Walk up to the median
+        }
+        float gain = Math.min(255F / (high - low), NOISE_BUDGET / (NOISE_FACTOR * Math.max(noise, 0.5F)));
+        if (gain <= 1) {
+            return false;
+        }
+
+        // In sixteenths, so small changes of the estimate do not rebuild the table
+        int gain16 = (int) (gain * 16);
+        if (low != lutLow || high != lutHigh || gain16 != lutGain) {
+            // The black point stays where it is, moving it makes flat dark areas look like light ones
+            for (int i = 0; i < 256; i++) {
+                int value = low + (i - low) * gain16 / 16;
+                lut[i] = (byte) Math.max(0, Math.min(255, value));
+            }
+            lutLow = low;
+            lutHigh = high;
+            lutGain = gain16;
+        }
+        for (int y = 0; y < height; y++) {
+            int offset = y * stride;
+            for (int x = offset; x < offset + width; x++) {
+                data[x] = lut[data[x] & 0xff];
+            }
+        }
+        stretchedFrames++;
+        return true;
+    }
+
+    /**
+     * Invert the luminance, calling it twice restores the frame.
+     */
+    public void invert(LumaFrame frame) {
+        byte[] data = frame.getData();
+        int width = frame.getWidth();
+        int stride = frame.getRowStride();
+        for (int y = 0; y < frame.getHeight(); y++) {
+            int offset = y * stride;
+            for (int x = offset; x < offset + width; x++) {
+                data[x] = (byte) ~data[x];
+            }
+        }
+    }
+
+    /**
+     * Frames whose contrast was stretched so far.
+     */
+    public long getStretchedFrames() {
+        return stretchedFrames;
+    }
+}
@@ -0,0 +1,63 @@
+package com.camera.fastscanner.decoder;
+
+/**
+ * A frame as handed to a {@link DecoderEngine}: 8 bit luminance, row by row.
+ * <p>
+ * When {@link #hasChroma()} is set the luminance is followed by interleaved VU samples, i.e. the
+ * data is NV21 and can be passed on to decoders that want a full image.
+ * <p>
+ * Instances are reused from frame to frame, engines must not hold on to them after decoding.
+ */
+public class LumaFrame {
+
+    private byte[] data;
+    private int width;
+    private int height;
+    private int rowStride;
+    private int rotation;
+    private long timestamp;
+    private boolean chroma;
+
+    /**
+     * @param rotation  degrees the frame has to be rotated clockwise to be upright
+     * @param timestamp capture time of the frame, in nanoseconds
+     */
+    public LumaFrame set(byte[] data, int width, int height, int rowStride, int rotation, long timestamp, boolean chroma) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.rotation = rotation;
+        this.timestamp = timestamp;
+        this.chroma = chroma;
+        return this;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRowStride() {
+        return rowStride;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean hasChroma() {
+        return chroma;
+    }
+}
@@ -0,0 +1,112 @@
+package com.camera.fastscanner.decoder;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Presents a {@link LumaFrame} to ZXing upright, the frame rotation is applied while reading
+ * so the frame itself is never rotated in memory.
+ */
+class LumaFrameSource extends LuminanceSource {
+
+    private final LumaFrame frame;
+    private final byte[] matrix;
+    // Top left corner of this source in the upright frame, non zero after cropping
+    private final int left;
+    private final int top;
+
+    /**
+     * @param matrix scratch space of at least width x height bytes, used when the frame has to be
+     *               rotated, is cropped or has padding at the end of its rows.
+     */
+    LumaFrameSource(LumaFrame frame, byte[] matrix) {
+        this(frame, matrix, 0, 0, uprightWidth(frame), uprightHeight(frame));
+    }
+
+    private LumaFrameSource(LumaFrame frame, byte[] matrix, int left, int top, int width, int height) {
+        super(width, height);
+        this.frame = frame;
+        this.matrix = matrix;
+        this.left = left;
+        this.top = top;
+    }
+
+    static int uprightWidth(LumaFrame frame) {
+        return isSwapped(frame) ? frame.getHeight() : frame.getWidth();
+    }
+
+    static int uprightHeight(LumaFrame frame) {
+        return isSwapped(frame) ? frame.getWidth() : frame.getHeight();
+    }
+
+    private static boolean isSwapped(LumaFrame frame) {
+        return frame.getRotation() == 90 || frame.getRotation() == 270;
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        return new LumaFrameSource(frame, matrix, this.left + left, this.top + top, width, height);
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (row == null || row.length < getWidth()) {
+            row = new byte[getWidth()];
+        }
+        copyRow(y, row, 0);
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        int width = getWidth();
+        if (frame.getRotation() == 0 && frame.getRowStride() == width && left == 0 && top == 0
+                && getHeight() == frame.getHeight()) {
+            // Already laid out the way ZXing wants it
+            return frame.getData();
+        }
+        for (int y = 0; y < getHeight(); y++) {
+            copyRow(y, matrix, y * width);
+        }
+        return matrix;
+    }
+
+    /**
+     * Copy row y of this source, i.e. upright row (top + y) from column left on.
+     */
+    private void copyRow(int y, byte[] out, int start) {
+        int width = getWidth();
+        byte[] data = frame.getData();
+        int stride = frame.getRowStride();
+        int row = top + y;
+        int offset;
+        int step;
+        switch (frame.getRotation()) {
+            case 90:
+                // Upright rows are buffer columns, read bottom to top
+                offset = (frame.getHeight() - 1 - left) * stride + row;
+                step = -stride;
+                break;
+            case 180:
+                offset = (frame.getHeight() - 1 - row) * stride + frame.getWidth() - 1 - left;
+                step = -1;
+                break;
+            case 270:
+                // Upright rows are buffer columns, read top to bottom
+                offset = left * stride + frame.getWidth() - 1 - row;
+                step = stride;
+                break;
+            default:
+                System.arraycopy(data, row * stride + left, out, start, width);
+                return;
+        }
+        for (int x = 0; x < width; x++) {
+            out[start + x] = data[offset];
+            offset += step;
+        }
+    }
+}
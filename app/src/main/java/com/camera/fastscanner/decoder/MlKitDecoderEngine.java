@@ -0,0 +1,115 @@
+package com.camera.fastscanner.decoder;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+
+import com.camera.fastscanner.objects.ScannerPool;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.barcode.common.Barcode;
+import com.google.mlkit.vision.common.InputImage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Decodes with the ML Kit client held by a {@link ScannerPool}. Results are reported on the given
+ * executor, ML Kit would otherwise report them on the main thread.
+ */
+public class MlKitDecoderEngine implements DecoderEngine {
+
+    // Chroma value for "no colour"
+    private static final byte NEUTRAL_CHROMA = (byte) 128;
+
+    private final ScannerPool mScannerPool;
+    private final Executor mCallbackExecutor;
+    private byte[] mNv21 = new byte[0];
+
+    /**
+     * @param callbackExecutor runs the {@link Callback}, must not be the main thread
+     */
+    public MlKitDecoderEngine(@NonNull ScannerPool scannerPool, @NonNull Executor callbackExecutor) {
+        mScannerPool = scannerPool;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    @Override
+    public void decode(@NonNull LumaFrame frame, @NonNull Callback callback) {
+        BarcodeScanner barcodeScanner = mScannerPool.acquire();
+        if (barcodeScanner == null) {
+            // Pool already closed, the owner is going away.
+            callback.decoded(Collections.emptyList());
+            return;
+        }
+
+        barcodeScanner.process(toInputImage(frame))
+                .addOnSuccessListener(mCallbackExecutor, barcodes -> callback.decoded(convert(barcodes)))
+                .addOnFailureListener(mCallbackExecutor, callback::failed)
+                .addOnCanceledListener(mCallbackExecutor, () -> callback.decoded(Collections.emptyList()));
+    }
+
+    /**
+     * Wraps the frame for ML Kit, the per-frame work before detection starts. The image shares the
+     * frame's buffer or the engine's, it is only good until the next call.
+     */
+    @NonNull
+    public InputImage toInputImage(@NonNull LumaFrame frame) {
+        return InputImage.fromByteArray(toNv21(frame), frame.getWidth(), frame.getHeight(),
+                frame.getRotation(), InputImage.IMAGE_FORMAT_NV21);
+    }
+
+    /**
+     * ML Kit wants a full NV21 image. Frames that already are one are passed as they are, otherwise
+     * the luminance is packed into a reused buffer with neutral chroma.
+     */
+    private byte[] toNv21(LumaFrame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (frame.hasChroma() && frame.getRowStride() == width) {
+            return frame.getData();
+        }
+        int ySize = width * height;
+        if (mNv21.length != ySize + ySize / 2) {
+            mNv21 = new byte[ySize + ySize / 2];
+            Arrays.fill(mNv21, ySize, mNv21.length, NEUTRAL_CHROMA);
+        }
+        byte[] data = frame.getData();
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(data, row * frame.getRowStride(), mNv21, row * width, width);
+        }
+        return mNv21;
+    }
+
+    static List<DecodedBarcode> convert(List<Barcode> barcodes) {
+        if (barcodes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<DecodedBarcode> decoded = new ArrayList<>(barcodes.size());
+        for (Barcode barcode : barcodes) {
+            Rect box = barcode.getBoundingBox();
+            Point[] points = barcode.getCornerPoints();
+            int[] corners = null;
+            if (points != null && points.length == 4) {
+                corners = new int[8];
+                for (int i = 0; i < 4; i++) {
+                    corners[i * 2] = points[i].x;
+                    corners[i * 2 + 1] = points[i].y;
+                }
+            }
+            decoded.add(new DecodedBarcode(barcode.getFormat(), barcode.getRawValue(),
+                    barcode.getDisplayValue(), barcode.getRawBytes(),
+                    box != null ? box.left : 0, box != null ? box.top : 0,
+                    box != null ? box.right : 0, box != null ? box.bottom : 0, corners));
+        }
+        return decoded;
+    }
+
+    @Override
+    public void close() {
+        // The client belongs to the pool, its owner closes it.
+    }
+}
@@ -0,0 +1,127 @@
+package com.camera.fastscanner.decoder;
+
+/**
+ * Tells in a fraction of a millisecond whether a {@link LumaFrame} could contain a code, so that
+ * frames of a blank wall or an empty bench need not go through the decoder.
+ * <p>
+ * The frame is looked at in blocks of a sparse grid. For every sample the gradient is taken over
+ * neighbouring pixels at full resolution, so fine bars are not averaged away. A block looks like a
+ * code when it has enough gradient energy and its gradients line up: all in one direction for bars
+ * (doubled angle coherence), or in two directions at right angles for the modules of a 2D code
+ * (quadrupled angle coherence). Soft shading fails the first, sensor noise and most textures the
+ * second. A frame needs two such blocks. Printed text passes, it is close enough to a code to be
+ * worth decoding.
+ * <p>
+ * Works in the buffer's orientation, the measures do not depend on it. Nothing is allocated. Not
+ * thread-safe, one instance per analysis thread.
+ */
+public class PresenceFilter {
+
+    // The grid is at most this many samples across and down, the step grows with the frame
+    private static final int MAX_SAMPLES = 160;
+    private static final int MIN_STEP = 2;
+    // Samples per block side
+    private static final int BLOCK = 8;
+    // Mean squared gradient of a block, below it the block is flat, about 20 grey levels rms
+    private static final long MIN_ENERGY = 400;
+    // Squared coherence a block needs for bars, 0.5
+    private static final double MIN_BARS = 0.25;
+    // Squared coherence a block needs for modules, 0.45
+    private static final double MIN_MODULES = 0.2;
+    // Code-like blocks a frame needs. Strong noise passes for a single block now and then, any
+    // code big enough to decode covers several.
+    private static final int MIN_BLOCKS = 2;
+
+    private long checked;
+    private long present;
+
+    /**
+     * @return true if the frame may contain a code and should be decoded.
+     */
+    public boolean check(LumaFrame frame) {
+        byte[] data = frame.getData();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int stride = frame.getRowStride();
+        checked++;
+
+        int step = Math.max(MIN_STEP, (Math.max(width, height) + MAX_SAMPLES - 1) / MAX_SAMPLES);
+        int blockSize = step * BLOCK;
+        int blocks = 0;
+        // Samples stay one pixel off the edges for their neighbours, rows are shifted by up to a step
+        for (int top = 1; top + blockSize <= height - 1; top += blockSize) {
+            for (int left = 1; left + blockSize + step <= width - 1; left += blockSize) {
+                if (codeLike(data, stride, left, top, step) && ++blocks == MIN_BLOCKS) {
+                    present++;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean codeLike(byte[] data, int stride, int left, int top, int step) {
+        // Sums of |g|^2 and g^2 with g = gx + i gy as a complex number
+        long energy = 0;
+        long re2 = 0;
+        long im2 = 0;
+        for (int row = 0; row < BLOCK; row++) {
+            int offset = sampleOffset(stride, left, top, step, row);
+            for (int col = 0; col < BLOCK; col++, offset += step) {
+                int gx = (data[offset + 1] & 0xff) - (data[offset - 1] & 0xff);
+                int gy = (data[offset + stride] & 0xff) - (data[offset - stride] & 0xff);
+                energy += gx * gx + gy * gy;
+                re2 += gx * gx - gy * gy;
+                im2 += 2 * gx * gy;
+            }
+        }
+        if (energy < MIN_ENERGY * BLOCK * BLOCK) {
+            return false;
+        }
+        // One direction: |sum g^2| close to sum |g|^2
+        double energySquared = (double) energy * energy;
+        if ((double) re2 * re2 + (double) im2 * im2 >= MIN_BARS * energySquared) {
+            return true;
+        }
+
+        // Two directions at right angles: sum of g^4 / |g|^2, weighted like the above so a few
+        // strong noise samples cannot dominate
+        double re4 = 0;
+        double im4 = 0;
+        for (int row = 0; row < BLOCK; row++) {
+            int offset = sampleOffset(stride, left, top, step, row);
+            for (int col = 0; col < BLOCK; col++, offset += step) {
+                int gx = (data[offset + 1] & 0xff) - (data[offset - 1] & 0xff);
+                int gy = (data[offset + stride] & 0xff) - (data[offset - stride] & 0xff);
+                int magnitude = gx * gx + gy * gy;
+                if (magnitude > 0) {
+                    double a = gx * gx - gy * gy;
+                    double b = 2 * gx * gy;
+                    re4 += (a * a - b * b) / magnitude;
+                    im4 += 2 * a * b / magnitude;
+                }
+            }
+        }
+        return re4 * re4 + im4 * im4 >= MIN_MODULES * energySquared;
+    }
+
+    // Each row of a block is shifted differently, so samples do not all land inside modules as
+    // wide as the step and miss their edges
+    private static int sampleOffset(int stride, int left, int top, int step, int row) {
+        return (top + row * step) * stride + left + (row * 3) % step;
+    }
+
+    /**
+     * Frames checked so far.
+     */
+    public long getChecked() {
+        return checked;
+    }
+
+    /**
+     * Frames that may contain a code.
+     */
+    public long getPresent() {
+        return present;
+    }
+}
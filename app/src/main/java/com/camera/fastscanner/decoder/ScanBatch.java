@@ -0,0 +1,40 @@
+package com.camera.fastscanner.decoder;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every code found in one frame, or collected over several frames, delivered as one update.
+ */
+public class ScanBatch {
+
+    private final long timestamp;
+    private final List<DecodedBarcode> barcodes;
+
+    /**
+     * @param timestamp capture time of the (last) frame, in nanoseconds
+     */
+    public ScanBatch(long timestamp, @NonNull List<DecodedBarcode> barcodes) {
+        this.timestamp = timestamp;
+        this.barcodes = Collections.unmodifiableList(barcodes);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @NonNull
+    public List<DecodedBarcode> getBarcodes() {
+        return barcodes;
+    }
+
+    public int size() {
+        return barcodes.size();
+    }
+
+    public boolean isEmpty() {
+        return barcodes.isEmpty();
+    }
+}
@@ -0,0 +1,140 @@
+package com.camera.fastscanner.decoder;
+
+import androidx.annotation.NonNull;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pure Java engine on top of ZXing. Decodes synchronously on the calling thread and does not need
+ * a device, so the decode path can be measured and regression tested on the JVM.
+ */
+public class ZxingDecoderEngine implements DecoderEngine {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // 1D results only mark the scan line, boxes get at least this fraction of their length as height
+    private static final int MIN_THICKNESS_DIVISOR = 4;
+
+    // ML Kit format constant and its ZXing counterpart
+    private static final int[] MLKIT_FORMATS = {
+            Barcode.FORMAT_CODE_128, Barcode.FORMAT_CODE_39, Barcode.FORMAT_CODE_93, Barcode.FORMAT_CODABAR,
+            Barcode.FORMAT_DATA_MATRIX, Barcode.FORMAT_EAN_13, Barcode.FORMAT_EAN_8, Barcode.FORMAT_ITF,
+            Barcode.FORMAT_QR_CODE, Barcode.FORMAT_UPC_A, Barcode.FORMAT_UPC_E, Barcode.FORMAT_PDF417,
+            Barcode.FORMAT_AZTEC
+    };
+    private static final BarcodeFormat[] ZXING_FORMATS = {
+            BarcodeFormat.CODE_128, BarcodeFormat.CODE_39, BarcodeFormat.CODE_93, BarcodeFormat.CODABAR,
+            BarcodeFormat.DATA_MATRIX, BarcodeFormat.EAN_13, BarcodeFormat.EAN_8, BarcodeFormat.ITF,
+            BarcodeFormat.QR_CODE, BarcodeFormat.UPC_A, BarcodeFormat.UPC_E, BarcodeFormat.PDF_417,
+            BarcodeFormat.AZTEC
+    };
+
+    private final MultiFormatReader mReader = new MultiFormatReader();
+    // Finds every code in the frame, not just the first
+    private final GenericMultipleBarcodeReader mMultiReader = new GenericMultipleBarcodeReader(mReader);
+    private final Map<DecodeHintType, Object> mHints = new EnumMap<>(DecodeHintType.class);
+    private byte[] mMatrix = new byte[0];
+
+    /**
+     * @param formats ML Kit format flags ({@code Barcode.FORMAT_*}) to look for.
+     */
+    public ZxingDecoderEngine(int formats) {
+        List<BarcodeFormat> possible = new ArrayList<>();
+        for (int i = 0; i < MLKIT_FORMATS.length; i++) {
+            if ((formats & MLKIT_FORMATS[i]) != 0) {
+                possible.add(ZXING_FORMATS[i]);
+            }
+        }
+        mHints.put(DecodeHintType.POSSIBLE_FORMATS, possible);
+        mReader.setHints(mHints);
+    }
+
+    @Override
+    public void decode(@NonNull LumaFrame frame, @NonNull Callback callback) {
+        int size = frame.getWidth() * frame.getHeight();
+        if (mMatrix.length < size) {
+            mMatrix = new byte[size];
+        }
+        Result[] results;
+        try {
+            results = mMultiReader.decodeMultiple(
+                    new BinaryBitmap(new HybridBinarizer(new LumaFrameSource(frame, mMatrix))), mHints);
+        } catch (ReaderException e) {
+            // Nothing found, or found but not readable
+            callback.decoded(Collections.emptyList());
+            return;
+        } catch (RuntimeException e) {
+            // A frame ZXing trips over, e.g. an unexpected size
+            callback.failed(e);
+            return;
+        } finally {
+            mReader.reset();
+        }
+        List<DecodedBarcode> decoded = new ArrayList<>(results.length);
+        for (Result result : results) {
+            decoded.add(convert(result, LumaFrameSource.uprightWidth(frame), LumaFrameSource.uprightHeight(frame)));
+        }
+        callback.decoded(decoded);
+    }
+
+    private static DecodedBarcode convert(Result result, int width, int height) {
+        int format = Barcode.FORMAT_UNKNOWN;
+        for (int i = 0; i < ZXING_FORMATS.length; i++) {
+            if (ZXING_FORMATS[i] == result.getBarcodeFormat()) {
+                format = MLKIT_FORMATS[i];
+                break;
+            }
+        }
+
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = 0;
+        int bottom = 0;
+        ResultPoint[] points = result.getResultPoints();
+        if (points == null || points.length == 0) {
+            left = 0;
+            top = 0;
+        } else {
+            for (ResultPoint point : points) {
+                left = Math.min(left, (int) point.getX());
+                top = Math.min(top, (int) point.getY());
+                right = Math.max(right, (int) Math.ceil(point.getX()));
+                bottom = Math.max(bottom, (int) Math.ceil(point.getY()));
+            }
+            // Found across the frame, or along it when ZXing tried the frame rotated
+            int thickness = Math.max(right - left, bottom - top) / MIN_THICKNESS_DIVISOR;
+            if (bottom - top < thickness) {
+                int centre = (top + bottom) / 2;
+                top = Math.max(0, centre - thickness / 2);
+                bottom = Math.min(height, centre + thickness / 2);
+            } else if (right - left < thickness) {
+                int centre = (left + right) / 2;
+                left = Math.max(0, centre - thickness / 2);
+                right = Math.min(width, centre + thickness / 2);
+            }
+        }
+
+        String text = result.getText();
+        return new DecodedBarcode(format, text, text, text.getBytes(UTF_8), left, top, right, bottom);
+    }
+
+    @Override
+    public void close() {
+        // Nothing held
+    }
+}
@@ -6,58 +6,382 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 
 import androidx.annotation.Nullable;
 
+import com.camera.fastscanner.callbacks.BoxListener;
+import com.camera.fastscanner.callbacks.ScanAreaCallback;
+import com.camera.fastscanner.objects.ScanMetrics;
+import com.camera.fastscanner.objects.ScanWindow;
 
+/**
+ * Shades the view outside the scan window and draws the codes the analyser finds, live.
+ * <p>
+ * Boxes arrive on the analysis thread through {@link #getBoxListener()}, are mapped into view
+ * pixels there and handed over under a lock. Only the area of the old and the new boxes is
+ * invalidated, and only when they moved, so frames without codes cost nothing. The shade and the
+ * mapping from the camera buffer are worked out on layout changes, drawing allocates nothing.
+ */
 public class OverlayView extends View {
 
+    // More codes than this are found, but not drawn
+    private static final int MAX_BOXES = 16;
+    // Boxes that moved less than this, in view pixels, are not redrawn
+    private static final float MIN_MOVE = 1F;
+    // Boxes go away when nothing was reported for this long, e.g. while analysis is paused
+    private static final long BOX_TIMEOUT_MS = 500;
+
     private final Paint paint = new Paint();
+    private final Paint boxPaint = new Paint();
+    private final Paint cornerPaint = new Paint();
     private int alpha = 85;
     private final RectArea rectArea = new RectArea();
+    private boolean customArea = false;
+    private ScanAreaCallback scanAreaCallback;
+    private ScanMetrics scanMetrics;
+    // Left, top, right, bottom of the four shaded rects around the window
+    private final float[] shade = new float[16];
+
+    // Written by the analysis thread, read by onDraw, guarded by lock
+    private final Object lock = new Object();
+    private int viewWidth;
+    private int viewHeight;
+    private int scaleType = ScanWindow.SCALE_FILL;
+    private int imageWidth;
+    private int imageHeight;
+    private int rotation = -1;
+    // Buffer to view: x' = a * x + b * y + tx, y' = c * x + d * y + ty
+    private float a, b, c, d, tx, ty;
+    private final float[] pendingBoxes = new float[MAX_BOXES * 4];
+    private final float[] pendingCorners = new float[MAX_BOXES * 8];
+    private int pendingCount;
+    private int pendingCornerCount;
+    private final float[] pendingBounds = new float[4];
+    private final float[] mapped = new float[MAX_BOXES * 4];
+    private final float[] mappedCorners = new float[MAX_BOXES * 8];
+
+    // Owned by the UI thread
+    private final float[] drawBoxes = new float[MAX_BOXES * 4];
+    private final float[] drawCorners = new float[MAX_BOXES * 8];
+    private final Runnable clearStale = this::clearBoxes;
+
+    private final BoxListener boxListener = this::boxesFound;
 
     public OverlayView(Context context, @Nullable AttributeSet attrs) {
         super(context, attrs);
         paint.setColor(Color.BLACK);
         paint.setAlpha(alpha);
+        float density = getResources().getDisplayMetrics().density;
+        boxPaint.setColor(Color.GREEN);
+        boxPaint.setStyle(Paint.Style.STROKE);
+        boxPaint.setStrokeWidth(2 * density);
+        cornerPaint.setColor(Color.YELLOW);
+        cornerPaint.setStrokeWidth(6 * density);
+        cornerPaint.setStrokeCap(Paint.Cap.ROUND);
+        cornerPaint.setAntiAlias(true);
     }
 
 
     public void setAlpha(int alpha) {
         this.alpha = alpha;
         paint.setAlpha(alpha);
+        invalidate();
+    }
+
+    /**
+     * Set the scan window at runtime, as half its width and height around the centre of the view.
+     */
+    public void setRectArea(int halfWidth, int halfHeight) {
+        rectArea.width = halfWidth;
+        rectArea.height = halfHeight;
+        customArea = true;
+        updateShade();
+        notifyScanArea();
+        invalidate();
+    }
+
+    public void setScanAreaCallback(@Nullable ScanAreaCallback callback) {
+        scanAreaCallback = callback;
+        notifyScanArea();
+    }
+
+    /**
+     * How the preview is scaled into the view, one of {@link ScanWindow#SCALE_FILL} and
+     * {@link ScanWindow#SCALE_FIT}. Boxes are placed to match.
+     */
+    public void setScaleType(int scaleType) {
+        synchronized (lock) {
+            this.scaleType = scaleType;
+            rotation = -1;
+        }
+    }
+
+    /**
+     * Draw times go here, null to stop.
+     */
+    public void setScanMetrics(@Nullable ScanMetrics scanMetrics) {
+        this.scanMetrics = scanMetrics;
+    }
+
+    /**
+     * Hand to {@link com.camera.fastscanner.objects.CodeAnalyser#setBoxListener(BoxListener)}.
+     */
+    public BoxListener getBoxListener() {
+        return boxListener;
     }
 
     @Override
-    protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
-        //Draw 4 rects
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (!customArea) {
+            rectArea.width = w;
+            rectArea.height = h;
+        }
+        synchronized (lock) {
+            viewWidth = w;
+            viewHeight = h;
+            // Mapping is worked out again with the next boxes
+            rotation = -1;
+            pendingCount = 0;
+            pendingCornerCount = 0;
+        }
+        updateShade();
+        notifyScanArea();
+    }
+
+    private void notifyScanArea() {
+        int width = getWidth();
+        int height = getHeight();
+        if (scanAreaCallback != null && width > 0 && height > 0) {
+            scanAreaCallback.scanAreaChanged(width, height,
+                    width / 2 - rectArea.width, height / 2 - rectArea.height,
+                    width / 2 + rectArea.width, height / 2 + rectArea.height);
+        }
+    }
+
+    private void updateShade() {
         float width = getWidth();
         float height = getHeight();
+        // Above, below, left and right of the window
+        setRect(0, 0, 0, width, height / 2 - rectArea.height);
+        setRect(1, 0, rectArea.height + (height / 2), width, height);
+        setRect(2, 0, height / 2 - rectArea.height, width / 2 - rectArea.width, height / 2 + rectArea.height);
+        setRect(3, width / 2 + rectArea.width, height / 2 - rectArea.height, width, height / 2 + rectArea.height);
+    }
+
+    private void setRect(int index, float left, float top, float right, float bottom) {
+        shade[index * 4] = left;
+        shade[index * 4 + 1] = top;
+        shade[index * 4 + 2] = right;
+        shade[index * 4 + 3] = bottom;
+    }
 
+    /**
+     * Analysis thread: map the boxes into the view and invalidate where they were and are.
+     */
+    private void boxesFound(int imageWidth, int imageHeight, int rotation, int[] boxes, int[] corners, int count) {
+        count = Math.min(count, MAX_BOXES);
+        float dirtyLeft, dirtyTop, dirtyRight, dirtyBottom;
+        synchronized (lock) {
+            if (viewWidth <= 0 || viewHeight <= 0) {
+                return;
+            }
+            if (imageWidth != this.imageWidth || imageHeight != this.imageHeight || rotation != this.rotation) {
+                updateMapping(imageWidth, imageHeight, rotation);
+            }
 
-        if (getWidth() < getHeight()) {
-            // Portrait
-            rectArea.width = (getRight() - getLeft());
-            rectArea.height = (getBottom() - getTop());
-        } else {
-            // Landscape
-            rectArea.width = (getRight() - getLeft());
-            rectArea.height = (getBottom() - getTop());
+            int cornerCount = 0;
+            for (int i = 0; i < count * 4; i += 4) {
+                float x0 = a * boxes[i] + b * boxes[i + 1] + tx;
+                float y0 = c * boxes[i] + d * boxes[i + 1] + ty;
+                float x1 = a * boxes[i + 2] + b * boxes[i + 3] + tx;
+                float y1 = c * boxes[i + 2] + d * boxes[i + 3] + ty;
+                mapped[i] = Math.min(x0, x1);
+                mapped[i + 1] = Math.min(y0, y1);
+                mapped[i + 2] = Math.max(x0, x1);
+                mapped[i + 3] = Math.max(y0, y1);
+                int k = i * 2;
+                if (corners[k] < 0) {
+                    continue;
+                }
+                for (int j = k; j < k + 8; j += 2) {
+                    mappedCorners[cornerCount++] = a * corners[j] + b * corners[j + 1] + tx;
+                    mappedCorners[cornerCount++] = c * corners[j] + d * corners[j + 1] + ty;
+                }
+            }
 
+            if (count == pendingCount && cornerCount == pendingCornerCount
+                    && !moved(mapped, pendingBoxes, count * 4) && !moved(mappedCorners, pendingCorners, cornerCount)) {
+                // Nothing to redraw, which includes frames without codes after frames without codes
+                if (count > 0) {
+                    keepBoxes();
+                }
+                return;
+            }
+
+            // What is on screen now has to go as well
+            dirtyLeft = pendingCount > 0 ? pendingBounds[0] : Float.MAX_VALUE;
+            dirtyTop = pendingCount > 0 ? pendingBounds[1] : Float.MAX_VALUE;
+            dirtyRight = pendingCount > 0 ? pendingBounds[2] : -Float.MAX_VALUE;
+            dirtyBottom = pendingCount > 0 ? pendingBounds[3] : -Float.MAX_VALUE;
+
+            System.arraycopy(mapped, 0, pendingBoxes, 0, count * 4);
+            System.arraycopy(mappedCorners, 0, pendingCorners, 0, cornerCount);
+            pendingCount = count;
+            pendingCornerCount = cornerCount;
+            if (count > 0) {
+                pendingBounds[0] = Float.MAX_VALUE;
+                pendingBounds[1] = Float.MAX_VALUE;
+                pendingBounds[2] = -Float.MAX_VALUE;
+                pendingBounds[3] = -Float.MAX_VALUE;
+                for (int i = 0; i < count * 4; i += 4) {
+                    pendingBounds[0] = Math.min(pendingBounds[0], mapped[i]);
+                    pendingBounds[1] = Math.min(pendingBounds[1], mapped[i + 1]);
+                    pendingBounds[2] = Math.max(pendingBounds[2], mapped[i + 2]);
+                    pendingBounds[3] = Math.max(pendingBounds[3], mapped[i + 3]);
+                }
+                for (int i = 0; i < cornerCount; i += 2) {
+                    pendingBounds[0] = Math.min(pendingBounds[0], mappedCorners[i]);
+                    pendingBounds[1] = Math.min(pendingBounds[1], mappedCorners[i + 1]);
+                    pendingBounds[2] = Math.max(pendingBounds[2], mappedCorners[i]);
+                    pendingBounds[3] = Math.max(pendingBounds[3], mappedCorners[i + 1]);
+                }
+                dirtyLeft = Math.min(dirtyLeft, pendingBounds[0]);
+                dirtyTop = Math.min(dirtyTop, pendingBounds[1]);
+                dirtyRight = Math.max(dirtyRight, pendingBounds[2]);
+                dirtyBottom = Math.max(dirtyBottom, pendingBounds[3]);
+            }
+        }
+        if (count > 0) {
+            keepBoxes();
+        }
+        // Strokes and corner dots reach a little outside the boxes
+        float inset = cornerPaint.getStrokeWidth();
+        postInvalidateOnAnimation((int) (dirtyLeft - inset), (int) (dirtyTop - inset),
+                (int) Math.ceil(dirtyRight + inset), (int) Math.ceil(dirtyBottom + inset));
+    }
+
+    /**
+     * Buffer to view mapping, the inverse of {@link ScanWindow#mapToImage}. Called with the lock
+     * held.
+     */
+    private void updateMapping(int imageWidth, int imageHeight, int rotation) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.rotation = rotation;
+
+        boolean swapped = rotation == 90 || rotation == 270;
+        float uprightWidth = swapped ? imageHeight : imageWidth;
+        float uprightHeight = swapped ? imageWidth : imageHeight;
+        float scale = scaleType == ScanWindow.SCALE_FIT
+                ? Math.min(viewWidth / uprightWidth, viewHeight / uprightHeight)
+                : Math.max(viewWidth / uprightWidth, viewHeight / uprightHeight);
+        float dx = (viewWidth - uprightWidth * scale) / 2F;
+        float dy = (viewHeight - uprightHeight * scale) / 2F;
+
+        switch (rotation) {
+            case 90:
+                a = 0;
+                b = -scale;
+                tx = imageHeight * scale + dx;
+                c = scale;
+                d = 0;
+                ty = dy;
+                break;
+            case 180:
+                a = -scale;
+                b = 0;
+                tx = imageWidth * scale + dx;
+                c = 0;
+                d = -scale;
+                ty = imageHeight * scale + dy;
+                break;
+            case 270:
+                a = 0;
+                b = scale;
+                tx = dx;
+                c = -scale;
+                d = 0;
+                ty = imageWidth * scale + dy;
+                break;
+            default:
+                a = scale;
+                b = 0;
+                tx = dx;
+                c = 0;
+                d = scale;
+                ty = dy;
+                break;
         }
-        Log.i("OverlayView", "onDraw: " + rectArea.width + "?" + rectArea.height);
+    }
 
+    private static boolean moved(float[] now, float[] before, int length) {
+        for (int i = 0; i < length; i++) {
+            if (Math.abs(now[i] - before[i]) >= MIN_MOVE) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        // Draw around the rect.
-        canvas.drawRect(0, 0, width, height / 2 - rectArea.height, paint);
-        canvas.drawRect(0, rectArea.height + (height / 2), width, height, paint);
-        canvas.drawRect(0, height / 2 - rectArea.height, width / 2 - rectArea.width, height / 2 + rectArea.height, paint);
-        canvas.drawRect(width / 2 + rectArea.width, height / 2 - rectArea.height, width, height / 2 + rectArea.height, paint);
+    /**
+     * Push back the timeout that clears the boxes.
+     */
+    private void keepBoxes() {
+        removeCallbacks(clearStale);
+        postDelayed(clearStale, BOX_TIMEOUT_MS);
+    }
 
+    /**
+     * Remove the boxes, e.g. when the camera stops. Can be called from any thread.
+     */
+    public void clearBoxes() {
+        removeCallbacks(clearStale);
+        int inset = (int) Math.ceil(cornerPaint.getStrokeWidth());
+        synchronized (lock) {
+            if (pendingCount == 0) {
+                return;
+            }
+            pendingCount = 0;
+            pendingCornerCount = 0;
+            postInvalidateOnAnimation((int) pendingBounds[0] - inset, (int) pendingBounds[1] - inset,
+                    (int) Math.ceil(pendingBounds[2]) + inset, (int) Math.ceil(pendingBounds[3]) + inset);
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < shade.length; i += 4) {
+            if (shade[i + 2] > shade[i] && shade[i + 3] > shade[i + 1]) {
+                canvas.drawRect(shade[i], shade[i + 1], shade[i + 2], shade[i + 3], paint);
+            }
+        }
+
+        int count;
+        int cornerCount;
+        synchronized (lock) {
+            count = pendingCount;
+            cornerCount = pendingCornerCount;
+            System.arraycopy(pendingBoxes, 0, drawBoxes, 0, count * 4);
+            System.arraycopy(pendingCorners, 0, drawCorners, 0, cornerCount);
+        }
+        for (int i = 0; i < count * 4; i += 4) {
+            canvas.drawRect(drawBoxes[i], drawBoxes[i + 1], drawBoxes[i + 2], drawBoxes[i + 3], boxPaint);
+        }
+        if (cornerCount > 0) {
+            canvas.drawPoints(drawCorners, 0, cornerCount, cornerPaint);
+        }
+
+        ScanMetrics metrics = scanMetrics;
+        if (metrics != null) {
+            long end = System.nanoTime();
+            metrics.overlayDrawn(end - start, end);
+        }
     }
 
     @SuppressLint("ClickableViewAccessibility")
@@ -1,7 +1,6 @@
 package com.camera.fastscanner.fragment;
 
 import android.Manifest;
-import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
@@ -9,44 +8,39 @@ import android.os.Build;
 import android.os.Bundle;
 import android.provider.Settings;
 import android.util.Log;
+import android.view.Display;
 import android.view.LayoutInflater;
+import android.view.Surface;
 import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
-import androidx.camera.core.ImageAnalysis;
-import androidx.camera.core.Preview;
-import androidx.camera.core.UseCase;
+import androidx.camera.view.PreviewView;
 import androidx.coordinatorlayout.widget.CoordinatorLayout;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
 
 import com.camera.fastscanner.R;
 import com.camera.fastscanner.callbacks.CameraFailureCallback;
-import com.camera.fastscanner.callbacks.CameraShutdownCallback;
-import com.camera.fastscanner.callbacks.SetTouchListenerCallback;
-import com.camera.fastscanner.callbacks.UseCaseCreator;
 import com.camera.fastscanner.databinding.FragmentScannerBinding;
 import com.camera.fastscanner.exception.NoCameraException;
 import com.camera.fastscanner.exception.ReferenceInvalidException;
 import com.camera.fastscanner.objects.CamAccess;
+import com.camera.fastscanner.objects.CameraSession;
+import com.camera.fastscanner.objects.ScanWindow;
 import com.camera.fastscanner.viewmodel.ScanViewModel;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.snackbar.BaseTransientBottomBar;
 import com.google.android.material.snackbar.Snackbar;
 
-import java.lang.ref.WeakReference;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 public class ScannerFragment extends Fragment {
 
     private final String cameraPermission = Manifest.permission.CAMERA;
+    // Kept by the ViewModel, survives this fragment's views
+    private CameraSession cameraSession;
     private CamAccess camAccessObj;
-    private CameraShutdownCallback cameraShutdownCallback;
-    private ExecutorService camExecutor;
     private final static String TAG = "ScannerFragment";
     private ScanViewModel vm;
     private static final int CAMERA_REQUEST_CODE = 1000;
@@ -67,32 +61,6 @@ public class ScannerFragment extends Fragment {
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         binding = FragmentScannerBinding.inflate(getLayoutInflater());
-
-        // Camera Use Cases:
-        UseCaseCreator useCaseCreator = () -> {
-
-            // Use Case 1: Preview
-            Preview preview = new Preview.Builder().build();
-            if (binding != null && binding.previewView != null) {
-                preview.setSurfaceProvider(binding.previewView.getSurfaceProvider());
-            }
-
-            // Use case 2: Barcode analysis
-            ImageAnalysis imageAnalysis = new ImageAnalysis.Builder()
-                    .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
-                    .build();
-
-            imageAnalysis.setAnalyzer(camExecutor, vm.getCodeAnalyser());
-
-            return new UseCase[]{preview, imageAnalysis};
-        };
-
-        try {
-            camAccessObj = new CamAccess(new WeakReference<>(getContext()), useCaseCreator);
-        } catch (NoCameraException e) {
-            noCamera();
-        }
-
         return binding.getRoot();
     }
 
@@ -101,16 +69,65 @@ public class ScannerFragment extends Fragment {
         super.onViewCreated(view, savedInstanceState);
 
         // Initialise ViewModel
-        vm = new ViewModelProvider.AndroidViewModelFactory(requireActivity().getApplication()).create(ScanViewModel.class);
+        // Obtained through the provider so the ViewModel is lifecycle-scoped and onCleared() runs.
+        vm = new ViewModelProvider(this,
+                ViewModelProvider.AndroidViewModelFactory.getInstance(requireActivity().getApplication()))
+                .get(ScanViewModel.class);
 
-        camExecutor = Executors.newSingleThreadExecutor();
+        try {
+            cameraSession = vm.openCameraSession(getResources().getBoolean(R.bool.analysis_block_producer),
+                    getResources().getInteger(R.integer.analysis_queue_depth));
+            camAccessObj = cameraSession.getCamAccess();
+        } catch (NoCameraException e) {
+            noCamera();
+        }
+        vm.setAnalysisWorkers(getResources().getInteger(R.integer.analysis_workers));
+        vm.setPresenceFilter(getResources().getBoolean(R.bool.presence_filter));
+        vm.setReadConsensus(getResources().getBoolean(R.bool.read_consensus),
+                getResources().getInteger(R.integer.consensus_reads));
+
+        // Only the part of the frame inside the overlay window is decoded
+        ScanWindow scanWindow = vm.getScanWindow();
+        PreviewView.ScaleType scaleType = binding.previewView.getScaleType();
+        int windowScale = scaleType == PreviewView.ScaleType.FIT_CENTER
+                || scaleType == PreviewView.ScaleType.FIT_START
+                || scaleType == PreviewView.ScaleType.FIT_END
+                ? ScanWindow.SCALE_FIT : ScanWindow.SCALE_FILL;
+        scanWindow.setScaleType(windowScale);
+        binding.overlayView.setScanAreaCallback(scanWindow::setViewWindow);
+
+        // Live boxes of what the analyser finds
+        binding.overlayView.setScaleType(windowScale);
+        binding.overlayView.setScanMetrics(vm.getScanMetrics());
+        vm.getCodeAnalyser().setBoxListener(binding.overlayView.getBoxListener());
+
+        if (camAccessObj != null) {
+            camAccessObj.setAnalysisGate(vm.getCodeAnalyser());
+            vm.getCodeAnalyser().setLightListener(camAccessObj.getLightListener());
+            vm.getCodeAnalyser().setFocusRequester(camAccessObj.getFocusRequester());
+            camAccessObj.setAutoTorch(getResources().getBoolean(R.bool.auto_torch));
+            vm.getCodeAnalyser().setDetectionListener(camAccessObj.getDetectionListener());
+            camAccessObj.setAutoZoom(getResources().getBoolean(R.bool.auto_zoom));
+            camAccessObj.setAutoLens(getResources().getBoolean(R.bool.auto_lens));
+            if (getResources().getBoolean(R.bool.adaptive_resolution)) {
+                // Camera side of it lives in the session, nothing to clear with the view
+                vm.getCodeAnalyser().setResolutionRequester(cameraSession.getResolutionRequester());
+            }
+        }
 
-        vm.getScanResult().observe(getViewLifecycleOwner(), result -> {
+        vm.getScanResult().observe(getViewLifecycleOwner(), event -> {
+            String result = event.getContentIfNotHandled();
+            if (result == null) {
+                // Shown before the view was recreated
+                return;
+            }
             Snackbar.make(view, result, Snackbar.LENGTH_LONG).show();
-            cameraShutdownCallback.shutdown();
-            Log.d("CAMERAX", "SHUTDOWN:: ");
-            startCamera();
-            Log.d("CAMERAX", "START:: ");
+            if (vm.isContinuousMode()) {
+                // Camera stays bound, the next code can be read straight away.
+                return;
+            }
+            restartCamera();
+            Log.d("CAMERAX", "RESTART:: ");
         });
 
         vm.getModelDownloaded().observe(getViewLifecycleOwner(), downloaded -> {
@@ -136,18 +153,40 @@ public class ScannerFragment extends Fragment {
 
     }
 
-    @SuppressLint("ClickableViewAccessibility")
     public void startCamera() {
+        if (cameraSession == null || binding == null) {
+            return;
+        }
         CameraFailureCallback cameraFailureCallback = cameraFailureDialog();
-        SetTouchListenerCallback touchListenerCallback = listener -> binding.previewView.setOnTouchListener(listener);
 
         try {
-            cameraShutdownCallback = camAccessObj.startCamera(getViewLifecycleOwner(), cameraFailureCallback, touchListenerCallback);
+            if (!cameraSession.isBound()) {
+                vm.cameraStarted();
+            }
+            // Binds the camera the first time, a recreated view only takes over the preview
+            cameraSession.attach(getViewLifecycleOwner(), binding.previewView, displayRotation(),
+                    cameraFailureCallback);
+
+        } catch (ReferenceInvalidException e) {
+            Log.e(TAG, "Context invalid.");
+        }
+
+    }
 
+    private void restartCamera() {
+        try {
+            vm.cameraStarted();
+            cameraSession.restart(cameraFailureDialog());
         } catch (ReferenceInvalidException e) {
             Log.e(TAG, "Context invalid.");
         }
+    }
 
+    private int displayRotation() {
+        Display display = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? requireActivity().getDisplay()
+                : requireActivity().getWindowManager().getDefaultDisplay();
+        return display != null ? display.getRotation() : Surface.ROTATION_0;
     }
 
     @NonNull
@@ -208,18 +247,14 @@ public class ScannerFragment extends Fragment {
 
 
         binding = null;
-        if (cameraShutdownCallback != null) {
-            // Shutdown the camera if there is a callback, if not, most likely the camera is not even open anyway.
-            cameraShutdownCallback.shutdown();
-        }
-    }
-
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        if (camExecutor != null) {
-            camExecutor.shutdown();
+        if (vm != null) {
+            vm.getCodeAnalyser().setBoxListener(null);
+            // The analyser outlives this view, do not let it hold on to the camera.
+            vm.getCodeAnalyser().setLightListener(null);
+            vm.getCodeAnalyser().setFocusRequester(null);
+            vm.getCodeAnalyser().setDetectionListener(null);
         }
+        // The camera stays open for the next view, the ViewModel closes it when it is cleared.
     }
 
     private static class DisableSwipeBehavior extends BaseTransientBottomBar.Behavior {
@@ -0,0 +1,680 @@
+package com.camera.fastscanner.history;
+
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Scan results kept on disk, in an append-only log file.
+ * <p>
+ * {@link #append(String, int)} only puts the record in a queue and never waits, a full queue drops
+ * the record. A background thread writes whatever is queued in one go and syncs the file to disk
+ * at most once per sync interval. After a crash the records of the last interval may be lost, a
+ * torn record at the end of the file is cut off when it is opened again.
+ * <p>
+ * Every record gets a sequence number when it is written, records are read back in that order.
+ * Timestamps are wall clock time and may go backwards, reads do not rely on their order: a sparse
+ * index keeps the lowest and highest timestamp of every {@link #INDEX_EVERY} records, reads map
+ * the file into memory and only look at the blocks that can hold the requested times. Paging goes
+ * by sequence number, so no record is skipped or returned twice, not even across a compaction.
+ * <p>
+ * File layout: magic and version, then per record its length, timestamp, sequence number,
+ * session, format, the value in UTF-8 and a CRC32 over everything but the length. Files of
+ * version 1, without sequence numbers, are converted when opened.
+ */
+public class ScanHistory {
+
+    private static final int MAGIC = 0x53434e48;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    // Timestamp, sequence, session, format and CRC, following the length
+    private static final int RECORD_FIELDS = 8 + 8 + 8 + 4 + 4;
+    // Version 1 had no sequence
+    private static final int RECORD_FIELDS_V1 = 8 + 8 + 4 + 4;
+    private static final int QUEUE_SIZE = 4096;
+    // Every this many records an index entry is kept
+    private static final int INDEX_EVERY = 256;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Longest the writer sleeps, bounds how late it notices close() or compact()
+    private static final long MAX_WAIT_MS = 500;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final long mSession;
+    private final long mSyncIntervalMillis;
+    private final ArrayBlockingQueue<ScanRecord> mPending = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final CountDownLatch mOpened = new CountDownLatch(1);
+    private final CountDownLatch mStopped = new CountDownLatch(1);
+    private final AtomicLong mCompactBefore = new AtomicLong(-1);
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mFailedCompactions = new AtomicLong();
+    private volatile boolean mClosed;
+
+    // Shared with readers, guarded by this
+    private long mSize;
+    private long mRecords;
+    // Of those, the ones readers can see
+    private long mReadableRecords;
+    // Per block of INDEX_EVERY records: where it starts, its first sequence and its time range
+    private long[] mIndexOffsets = new long[64];
+    private long[] mIndexSequences = new long[64];
+    private long[] mIndexMinTimes = new long[64];
+    private long[] mIndexMaxTimes = new long[64];
+    private int mIndexSize;
+    private MappedByteBuffer mMapped;
+    private long mMappedSize;
+    private int mGeneration;
+
+    // Writer thread only
+    private FileChannel mChannel;
+    private long mEnd;
+    private long mNextSequence;
+    private ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32 mCrc = new CRC32();
+    private final List<ScanRecord> mBatch = new ArrayList<>();
+
+    /**
+     * Opens (or creates) the log on a background thread, records can be appended straight away.
+     *
+     * @param session            stored with every record appended through {@link #append(String, int)}
+     * @param syncIntervalMillis longest time written records may stay unsynced, 0 syncs every batch
+     */
+    public ScanHistory(@NonNull File file, long session, long syncIntervalMillis) {
+        mFile = file;
+        mSession = session;
+        mSyncIntervalMillis = syncIntervalMillis;
+        Thread writer = new Thread(this::run, "ScanHistory");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Record a scan of this session, stamped with the current time. Never blocks.
+     *
+     * @return false if the record was dropped because the writer is behind or closed.
+     */
+    public boolean append(@NonNull String value, int format) {
+        return append(new ScanRecord(value, format, System.currentTimeMillis(), mSession));
+    }
+
+    public boolean append(@NonNull ScanRecord record) {
+        if (mClosed || !mPending.offer(record)) {
+            mRejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drop all records older than the given time. Runs on the writer thread, appends wait in the
+     * queue meanwhile.
+     */
+    public void compact(long keepFromMillis) {
+        mCompactBefore.set(keepFromMillis);
+    }
+
+    /**
+     * Write and sync what is queued, then stop. Does not wait for it.
+     */
+    public void close() {
+        mClosed = true;
+    }
+
+    /**
+     * Wait until {@link #close()} has written and synced everything and the file is closed.
+     *
+     * @return false if that did not happen in time.
+     */
+    @WorkerThread
+    public boolean awaitClosed(long timeoutMillis) throws InterruptedException {
+        return mStopped.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records dropped by {@link #append(ScanRecord)}.
+     */
+    public long getRejectedCount() {
+        return mRejected.get();
+    }
+
+    /**
+     * Compactions that failed, the records were kept and writing went on in the old file.
+     */
+    public long getFailedCompactions() {
+        return mFailedCompactions.get();
+    }
+
+    /**
+     * Records written to the file, including those of earlier sessions.
+     */
+    public synchronized long getRecordCount() {
+        return mReadableRecords;
+    }
+
+    /**
+     * First page of records with fromMillis <= timestamp < toMillis, in the order they were
+     * recorded.
+     */
+    @WorkerThread
+    @NonNull
+    public Page read(long fromMillis, long toMillis, int limit) throws IOException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive.");
+        }
+        awaitOpened();
+        synchronized (this) {
+            return readFrom(seek(fromMillis), -1, fromMillis, toMillis, limit);
+        }
+    }
+
+    /**
+     * The page after the given one, empty when there is none.
+     */
+    @WorkerThread
+    @NonNull
+    public Page readNext(@NonNull Page page) throws IOException {
+        awaitOpened();
+        synchronized (this) {
+            if (page.mNextOffset < 0) {
+                return new Page(Collections.emptyList(), -1, page.mLastSequence,
+                        page.mFromMillis, page.mToMillis, page.mLimit, mGeneration);
+            }
+            if (page.mGeneration != mGeneration) {
+                // Compacted since, offsets moved. Continue after the last record returned.
+                long offset = Math.max(seekSequence(page.mLastSequence + 1), seek(page.mFromMillis));
+                return readFrom(offset, page.mLastSequence, page.mFromMillis, page.mToMillis, page.mLimit);
+            }
+            return readFrom(page.mNextOffset, page.mLastSequence, page.mFromMillis, page.mToMillis, page.mLimit);
+        }
+    }
+
+    private void awaitOpened() throws IOException {
+        try {
+            mOpened.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while opening " + mFile);
+        }
+        if (mChannel == null) {
+            throw new IOException("Could not open " + mFile);
+        }
+    }
+
+    /**
+     * Offset to start looking for fromMillis, the first block holding a record that late.
+     */
+    private long seek(long fromMillis) {
+        for (int i = 0; i < mIndexSize; i++) {
+            if (mIndexMaxTimes[i] >= fromMillis) {
+                return mIndexOffsets[i];
+            }
+        }
+        return mSize;
+    }
+
+    /**
+     * Offset of the block holding the given sequence, or the first one after it.
+     */
+    private long seekSequence(long sequence) {
+        int low = 0;
+        int high = mIndexSize - 1;
+        long offset = HEADER_SIZE;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mIndexSequences[mid] <= sequence) {
+                offset = mIndexOffsets[mid];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Offset after the last block holding a record earlier than toMillis.
+     */
+    private long seekEnd(long toMillis) {
+        for (int i = mIndexSize - 1; i >= 0; i--) {
+            if (mIndexMinTimes[i] < toMillis) {
+                return i + 1 < mIndexSize ? mIndexOffsets[i + 1] : mSize;
+            }
+        }
+        return HEADER_SIZE;
+    }
+
+    /**
+     * Records from offset on in the time range with a sequence after afterSequence.
+     */
+    private Page readFrom(long offset, long afterSequence, long fromMillis, long toMillis, int limit)
+            throws IOException {
+        if (mMapped == null || mMappedSize != mSize) {
+            try (RandomAccessFile file = new RandomAccessFile(mFile, "r")) {
+                // The mapping stays valid after the file is closed
+                mMapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mSize);
+                mMappedSize = mSize;
+            }
+        }
+        ByteBuffer buffer = mMapped.duplicate();
+        List<ScanRecord> records = new ArrayList<>(Math.min(limit, 256));
+        long lastSequence = afterSequence;
+        int position = (int) offset;
+        int end = (int) Math.min(seekEnd(toMillis), mMappedSize);
+        while (position < end) {
+            int length = buffer.getInt(position);
+            long timestamp = buffer.getLong(position + 4);
+            long sequence = buffer.getLong(position + 12);
+            if (timestamp >= fromMillis && timestamp < toMillis && sequence > afterSequence) {
+                if (records.size() == limit) {
+                    return new Page(records, position, lastSequence, fromMillis, toMillis, limit, mGeneration);
+                }
+                long session = buffer.getLong(position + 20);
+                int format = buffer.getInt(position + 28);
+                byte[] value = new byte[length - RECORD_FIELDS];
+                buffer.position(position + 32);
+                buffer.get(value);
+                records.add(new ScanRecord(new String(value, UTF_8), format, timestamp, session));
+                lastSequence = sequence;
+            }
+            position += 4 + length;
+        }
+        return new Page(records, -1, lastSequence, fromMillis, toMillis, limit, mGeneration);
+    }
+
+    private void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            open();
+        } catch (IOException e) {
+            e.printStackTrace();
+            mClosed = true;
+            mChannel = null;
+            mOpened.countDown();
+            mStopped.countDown();
+            return;
+        }
+        mOpened.countDown();
+
+        long lastSync = now();
+        boolean dirty = false;
+        try {
+            while (true) {
+                long wait = dirty ? lastSync + mSyncIntervalMillis - now() : MAX_WAIT_MS;
+                ScanRecord first = mPending.poll(Math.max(0, Math.min(wait, MAX_WAIT_MS)), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    // Whatever piled up goes out with it
+                    mBatch.add(first);
+                    mPending.drainTo(mBatch);
+                    write(mBatch);
+                    mBatch.clear();
+                    dirty = true;
+                }
+
+                long now = now();
+                boolean closing = mClosed && mPending.isEmpty();
+                if (dirty && (closing || now - lastSync >= mSyncIntervalMillis)) {
+                    mChannel.force(false);
+                    lastSync = now;
+                    dirty = false;
+                }
+                long compactBefore = mCompactBefore.getAndSet(-1);
+                if (compactBefore >= 0) {
+                    try {
+                        compactNow(compactBefore);
+                    } catch (IOException e) {
+                        if (!mChannel.isOpen()) {
+                            throw e;
+                        }
+                        // Still on the old file, lose nothing and try again next time
+                        e.printStackTrace();
+                        mFailedCompactions.incrementAndGet();
+                    }
+                }
+                if (closing) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mClosed = true;
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mStopped.countDown();
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Open the file, check it, build the index and cut off a torn record at the end.
+     */
+    private void open() throws IOException {
+        // Left over from a compaction that did not finish, the log itself is intact
+        File compacted = compactedFile();
+        if (compacted.exists() && mFile.exists()) {
+            compacted.delete();
+        }
+        mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+        long size = mChannel.size();
+        if (size < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            mChannel.truncate(0);
+            mChannel.write(header, 0);
+            mChannel.force(true);
+            size = HEADER_SIZE;
+        }
+        MappedByteBuffer mapped = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (mapped.getInt(0) != MAGIC || (mapped.getInt(4) != VERSION && mapped.getInt(4) != 1)) {
+            throw new IOException(mFile + " is not a scan history");
+        }
+        if (mapped.getInt(4) == 1) {
+            upgrade(mapped, size);
+            return;
+        }
+
+        long end = HEADER_SIZE;
+        long records = 0;
+        synchronized (this) {
+            mIndexSize = 0;
+            int length;
+            while ((length = validLength(mapped, (int) end, (int) size, RECORD_FIELDS)) > 0) {
+                long sequence = mapped.getLong((int) end + 12);
+                addIndex(records, mapped.getLong((int) end + 4), sequence, end);
+                mNextSequence = Math.max(mNextSequence, sequence + 1);
+                records++;
+                end += 4 + length;
+            }
+            mRecords = records;
+            mReadableRecords = records;
+            mSize = end;
+            mMapped = null;
+        }
+        if (end < size) {
+            // Written when the process died
+            mChannel.truncate(end);
+        }
+        mChannel.position(end);
+        mEnd = end;
+    }
+
+    /**
+     * @return length of the record at position, or -1 if it is incomplete or damaged.
+     */
+    private int validLength(ByteBuffer buffer, int position, int limit, int minLength) {
+        if (position + 4 > limit) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length < minLength || length > limit - position - 4) {
+            return -1;
+        }
+        byte[] fields = new byte[length - 4];
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + 4);
+        record.get(fields);
+        mCrc.reset();
+        mCrc.update(fields, 0, fields.length);
+        return record.getInt() == (int) mCrc.getValue() ? length : -1;
+    }
+
+    private void write(List<ScanRecord> batch) throws IOException {
+        for (ScanRecord record : batch) {
+            byte[] value = record.getValue().getBytes(UTF_8);
+            int length = RECORD_FIELDS + value.length;
+            if (mBuffer.remaining() < 4 + length) {
+                flush();
+                if (mBuffer.capacity() < 4 + length) {
+                    mBuffer = ByteBuffer.allocate(4 + length);
+                }
+            }
+            int start = mBuffer.position();
+            long sequence = mNextSequence++;
+            mBuffer.putInt(length)
+                    .putLong(record.getTimestampMillis())
+                    .putLong(sequence)
+                    .putLong(record.getSession())
+                    .putInt(record.getFormat())
+                    .put(value);
+            mCrc.reset();
+            mCrc.update(mBuffer.array(), start + 4, length - 4);
+            mBuffer.putInt((int) mCrc.getValue());
+
+            synchronized (this) {
+                addIndex(mRecords, record.getTimestampMillis(), sequence, mEnd + start);
+                mRecords++;
+            }
+        }
+        flush();
+    }
+
+    private void flush() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mEnd += mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+        synchronized (this) {
+            // Readers see the records from here on
+            mSize = mEnd;
+            mReadableRecords = mRecords;
+        }
+    }
+
+    /**
+     * Account for the record-th record of the file in the index, it starts a new block every
+     * {@link #INDEX_EVERY} records.
+     */
+    private void addIndex(long record, long timestamp, long sequence, long offset) {
+        if (record % INDEX_EVERY != 0) {
+            int last = mIndexSize - 1;
+            mIndexMinTimes[last] = Math.min(mIndexMinTimes[last], timestamp);
+            mIndexMaxTimes[last] = Math.max(mIndexMaxTimes[last], timestamp);
+            return;
+        }
+        if (mIndexSize == mIndexOffsets.length) {
+            mIndexOffsets = Arrays.copyOf(mIndexOffsets, mIndexSize * 2);
+            mIndexSequences = Arrays.copyOf(mIndexSequences, mIndexSize * 2);
+            mIndexMinTimes = Arrays.copyOf(mIndexMinTimes, mIndexSize * 2);
+            mIndexMaxTimes = Arrays.copyOf(mIndexMaxTimes, mIndexSize * 2);
+        }
+        mIndexOffsets[mIndexSize] = offset;
+        mIndexSequences[mIndexSize] = sequence;
+        mIndexMinTimes[mIndexSize] = timestamp;
+        mIndexMaxTimes[mIndexSize] = timestamp;
+        mIndexSize++;
+    }
+
+    /**
+     * Copy the records to keep into a new file and swap it in. Kept records are copied in runs,
+     * usually one run for everything after the cut-off.
+     */
+    private void compactNow(long keepFromMillis) throws IOException {
+        boolean old = false;
+        synchronized (this) {
+            for (int i = 0; i < mIndexSize && !old; i++) {
+                old = mIndexMinTimes[i] < keepFromMillis;
+            }
+        }
+        if (!old) {
+            // Nothing old enough to drop
+            return;
+        }
+        File compacted = compactedFile();
+        MappedByteBuffer source = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, mEnd);
+        try (RandomAccessFile file = new RandomAccessFile(compacted, "rw")) {
+            FileChannel out = file.getChannel();
+            out.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            out.write(header);
+
+            int position = HEADER_SIZE;
+            int runStart = -1;
+            while (position < mEnd) {
+                int length = source.getInt(position);
+                boolean keep = source.getLong(position + 4) >= keepFromMillis;
+                if (keep && runStart < 0) {
+                    runStart = position;
+                } else if (!keep && runStart >= 0) {
+                    copy(source, runStart, position, out);
+                    runStart = -1;
+                }
+                position += 4 + length;
+            }
+            if (runStart >= 0) {
+                copy(source, runStart, position, out);
+            }
+            out.force(true);
+        } catch (IOException e) {
+            compacted.delete();
+            throw e;
+        }
+
+        boolean replaced;
+        synchronized (this) {
+            // Readers must not map the new file before the index matches it
+            mChannel.close();
+            replaced = compacted.renameTo(mFile);
+            if (replaced) {
+                mGeneration++;
+            } else {
+                compacted.delete();
+            }
+            // The compacted file, or the old one again
+            open();
+        }
+        if (!replaced) {
+            throw new IOException("Could not replace " + mFile);
+        }
+    }
+
+    /**
+     * Rewrite a version 1 file with sequence numbers, in the order of its records.
+     */
+    private void upgrade(MappedByteBuffer source, long size) throws IOException {
+        File upgraded = compactedFile();
+        try (RandomAccessFile file = new RandomAccessFile(upgraded, "rw")) {
+            FileChannel out = file.getChannel();
+            out.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            out.write(header);
+
+            int position = HEADER_SIZE;
+            int length;
+            while ((length = validLength(source, position, (int) size, RECORD_FIELDS_V1)) > 0) {
+                byte[] value = new byte[length - RECORD_FIELDS_V1];
+                ByteBuffer record = source.duplicate();
+                record.position(position + 24);
+                record.get(value);
+                if (mBuffer.remaining() < 4 + RECORD_FIELDS + value.length) {
+                    mBuffer.flip();
+                    while (mBuffer.hasRemaining()) {
+                        out.write(mBuffer);
+                    }
+                    mBuffer.clear();
+                    if (mBuffer.capacity() < 4 + RECORD_FIELDS + value.length) {
+                        mBuffer = ByteBuffer.allocate(4 + RECORD_FIELDS + value.length);
+                    }
+                }
+                int start = mBuffer.position();
+                mBuffer.putInt(RECORD_FIELDS + value.length)
+                        .putLong(source.getLong(position + 4))
+                        .putLong(mNextSequence++)
+                        .putLong(source.getLong(position + 12))
+                        .putInt(source.getInt(position + 20))
+                        .put(value);
+                mCrc.reset();
+                mCrc.update(mBuffer.array(), start + 4, RECORD_FIELDS + value.length - 4);
+                mBuffer.putInt((int) mCrc.getValue());
+                position += 4 + length;
+            }
+            mBuffer.flip();
+            while (mBuffer.hasRemaining()) {
+                out.write(mBuffer);
+            }
+            mBuffer.clear();
+            out.force(true);
+        }
+        mChannel.close();
+        if (!upgraded.renameTo(mFile)) {
+            throw new IOException("Could not replace " + mFile);
+        }
+        open();
+    }
+
+    private File compactedFile() {
+        return new File(mFile.getPath() + ".compact");
+    }
+
+    private static void copy(ByteBuffer source, int from, int to, FileChannel out) throws IOException {
+        ByteBuffer run = source.duplicate();
+        run.position(from);
+        run.limit(to);
+        while (run.hasRemaining()) {
+            out.write(run);
+        }
+    }
+
+    /**
+     * A page of records, pass it to {@link #readNext(Page)} for the following one.
+     */
+    public static class Page {
+
+        private final List<ScanRecord> mRecords;
+        private final long mNextOffset;
+        // Sequence of the last record returned so far, where the next page continues
+        private final long mLastSequence;
+        private final long mFromMillis;
+        private final long mToMillis;
+        private final int mLimit;
+        private final int mGeneration;
+
+        Page(List<ScanRecord> records, long nextOffset, long lastSequence, long fromMillis, long toMillis, int limit,
+             int generation) {
+            mRecords = Collections.unmodifiableList(records);
+            mNextOffset = nextOffset;
+            mLastSequence = lastSequence;
+            mFromMillis = fromMillis;
+            mToMillis = toMillis;
+            mLimit = limit;
+            mGeneration = generation;
+        }
+
+        @NonNull
+        public List<ScanRecord> getRecords() {
+            return mRecords;
+        }
+
+        public boolean hasNext() {
+            return mNextOffset >= 0;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.camera.fastscanner.history;
+
+import androidx.annotation.NonNull;
+
+/**
+ * One published scan result as kept in the {@link ScanHistory}.
+ */
+public class ScanRecord {
+
+    private final String value;
+    private final int format;
+    private final long timestampMillis;
+    private final long session;
+
+    /**
+     * @param format          ML Kit format constant
+     * @param timestampMillis wall clock time of the scan
+     * @param session         the run of the app the scan belongs to
+     */
+    public ScanRecord(@NonNull String value, int format, long timestampMillis, long session) {
+        this.value = value;
+        this.format = format;
+        this.timestampMillis = timestampMillis;
+        this.session = session;
+    }
+
+    @NonNull
+    public String getValue() {
+        return value;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public long getSession() {
+        return session;
+    }
+}
@@ -0,0 +1,66 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Time to acquire a code: from the first decoded frame without a code to the next one with a
+ * code. It covers the operator moving to the next code, the camera focusing on it and the decode.
+ */
+public class AcquireMetrics {
+
+    // Searches longer than this are taken as nobody pointing the camera at a code
+    private static final long MAX_SEARCH_NANOS = 10_000_000_000L;
+
+    private final LatencyHistogram acquireTimes = new LatencyHistogram();
+    private long searchStartNanos = -1;
+
+    public synchronized void frameSearched(boolean found, long nowNanos) {
+        if (!found) {
+            if (searchStartNanos < 0) {
+                searchStartNanos = nowNanos;
+            }
+            return;
+        }
+        if (searchStartNanos >= 0 && nowNanos - searchStartNanos <= MAX_SEARCH_NANOS) {
+            acquireTimes.recordNanos(nowNanos - searchStartNanos);
+        }
+        searchStartNanos = -1;
+    }
+
+    /**
+     * A search does not go on over a camera restart.
+     */
+    public synchronized void cameraStarted() {
+        searchStartNanos = -1;
+    }
+
+    public synchronized void reset() {
+        acquireTimes.clear();
+        searchStartNanos = -1;
+    }
+
+    @NonNull
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(acquireTimes.getTotal(), acquireTimes.percentileMicros(0.5),
+                acquireTimes.percentileMicros(0.9));
+    }
+
+    public static class Snapshot {
+        // Searches that ended with a code
+        public final long acquisitions;
+        public final long acquireP50Micros;
+        public final long acquireP90Micros;
+
+        Snapshot(long acquisitions, long acquireP50Micros, long acquireP90Micros) {
+            this.acquisitions = acquisitions;
+            this.acquireP50Micros = acquireP50Micros;
+            this.acquireP90Micros = acquireP90Micros;
+        }
+
+        public void writeJson(@NonNull MetricsJson json) {
+            json.put("acquisitions", acquisitions)
+                    .put("acquireP50Us", acquireP50Micros)
+                    .put("acquireP90Us", acquireP90Micros);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.camera.fastscanner.objects;
+
+/**
+ * Decides when the torch should be on, from the brightness of the analysed frames.
+ * <p>
+ * Auto exposure pulls most scenes to a similar average, so a dark average means the sensor has run
+ * out of exposure and the torch is needed. Once the torch is on the frames no longer tell how dark
+ * the room is, so the torch is switched off again when the scene stays well lit for a long time
+ * (the room may have brightened, if not it comes back on), or straight away on glare.
+ * <p>
+ * Every condition has to hold for a while before it counts, and a switch is never followed by
+ * another one within {@link #MIN_SWITCH_INTERVAL_MS}, so the torch does not flicker.
+ */
+public class AutoTorch {
+
+    // Average below which the scene is too dark to scan
+    private static final int DARK_MEAN = 50;
+    // Average above which the scene counts as well lit with the torch on
+    private static final int LIT_MEAN = 110;
+    // Bright end at which labels start to reflect the torch back
+    private static final int GLARE = 250;
+
+    private static final long DARK_HOLD_MS = 500;
+    private static final long LIT_HOLD_MS = 10_000;
+    private static final long GLARE_HOLD_MS = 1000;
+    private static final long MIN_SWITCH_INTERVAL_MS = 2000;
+    // After glare the torch stays off at least this long
+    private static final long GLARE_BACKOFF_MS = 10_000;
+
+    private boolean torchOn;
+    private long lastSwitch = Long.MIN_VALUE / 2;
+    private long blockedUntil;
+    private long darkSince = -1;
+    private long litSince = -1;
+    private long glareSince = -1;
+
+    private int lastMean = -1;
+    private int lastBright = -1;
+    private long switchedOn;
+    private long switchedOff;
+    private long glareOffs;
+
+    /**
+     * Feed a measurement.
+     *
+     * @return true if the torch should be switched, to the state given by {@link #isTorchOn()}.
+     */
+    public synchronized boolean update(int mean, int bright, long nowMillis) {
+        lastMean = mean;
+        lastBright = bright;
+        darkSince = since(darkSince, mean < DARK_MEAN, nowMillis);
+        litSince = since(litSince, mean > LIT_MEAN, nowMillis);
+        glareSince = since(glareSince, bright >= GLARE, nowMillis);
+
+        if (nowMillis - lastSwitch < MIN_SWITCH_INTERVAL_MS) {
+            return false;
+        }
+        if (!torchOn) {
+            if (darkSince >= 0 && nowMillis - darkSince >= DARK_HOLD_MS && nowMillis >= blockedUntil) {
+                switchedOn++;
+                return change(true, nowMillis);
+            }
+        } else if (glareSince >= 0 && nowMillis - glareSince >= GLARE_HOLD_MS) {
+            glareOffs++;
+            switchedOff++;
+            blockedUntil = nowMillis + GLARE_BACKOFF_MS;
+            return change(false, nowMillis);
+        } else if (litSince >= 0 && nowMillis - litSince >= LIT_HOLD_MS) {
+            switchedOff++;
+            return change(false, nowMillis);
+        }
+        return false;
+    }
+
+    private boolean change(boolean on, long nowMillis) {
+        torchOn = on;
+        lastSwitch = nowMillis;
+        // The scene changes with the torch, start measuring afresh
+        darkSince = -1;
+        litSince = -1;
+        glareSince = -1;
+        return true;
+    }
+
+    private static long since(long since, boolean holds, long nowMillis) {
+        if (!holds) {
+            return -1;
+        }
+        return since < 0 ? nowMillis : since;
+    }
+
+    /**
+     * Torch was switched by hand, carry on from that state.
+     */
+    public synchronized void torchSet(boolean on, long nowMillis) {
+        if (on != torchOn) {
+            change(on, nowMillis);
+        }
+    }
+
+    public synchronized boolean isTorchOn() {
+        return torchOn;
+    }
+
+    public synchronized int getLastMean() {
+        return lastMean;
+    }
+
+    public synchronized int getLastBright() {
+        return lastBright;
+    }
+
+    public synchronized long getSwitchedOn() {
+        return switchedOn;
+    }
+
+    public synchronized long getSwitchedOff() {
+        return switchedOff;
+    }
+
+    /**
+     * Of {@link #getSwitchedOff()}, the times it was because of glare.
+     */
+    public synchronized long getGlareOffs() {
+        return glareOffs;
+    }
+}
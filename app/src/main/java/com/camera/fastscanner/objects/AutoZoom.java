@@ -0,0 +1,144 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Decides the zoom ratio for codes that are too small to decode reliably, e.g. labels on high
+ * racking.
+ * <p>
+ * When the smallest code of a frame is small, the zoom is ramped up until it would be a
+ * comfortable size, but never so far that the code leaves the picture (zoom is about the centre).
+ * Once a code has been read at a good size for a moment, or nothing has been read for a while, the
+ * zoom ramps back to where it started. A manual zoom wins, automatic zooming pauses for a while
+ * after every pinch.
+ * <p>
+ * Box sizes are the larger side of a code as a fraction of the frame.
+ */
+public class AutoZoom {
+
+    // Codes smaller than this are zoomed in on
+    private static final float SMALL = 0.12F;
+    // Size the zoom aims for
+    private static final float TARGET = 0.25F;
+    // Zoomed in codes at least this size count as read well
+    private static final float GOOD = 0.2F;
+    // Highest ratio chosen automatically, beyond it hand shake makes things worse
+    private static final float MAX_AUTO_RATIO = 4F;
+    // Part of the visible frame the code may take up towards the edge after zooming
+    private static final float EDGE_MARGIN = 0.9F;
+
+    // Ramp: ratio changes by at most this factor per step
+    private static final float STEP = 1.25F;
+    private static final long STEP_MS = 100;
+    // Zoomed in, and a code read well this long ago
+    private static final long READ_HOLD_MS = 1000;
+    // Zoomed in without anything read well for this long
+    private static final long TIMEOUT_MS = 4000;
+    // No zooming in for this long after zooming back out
+    private static final long SUPPRESS_MS = 3000;
+    // No automatic zoom for this long after a pinch
+    private static final long MANUAL_MS = 10_000;
+
+    private boolean zoomed;
+    private float baseRatio;
+    private float targetRatio;
+    private float appliedRatio = -1;
+    private long lastStep;
+    private long progressAt;
+    private long readAt = -1;
+    private long suppressUntil;
+
+    private long zoomIns;
+    private long zoomOuts;
+
+    /**
+     * Feed the outcome of a decoded frame.
+     *
+     * @param smallest left, top, right, bottom of the smallest code found, as fractions of the frame,
+     *                 or null if nothing was found
+     * @param ratio    zoom ratio the camera reports
+     * @return the zoom ratio to set, or -1 to leave it.
+     */
+    public synchronized float update(@Nullable float[] smallest, float ratio, float minRatio, float maxRatio,
+                                     long nowMillis) {
+        // What was last set is more current than what the camera reports
+        float current = zoomed && appliedRatio > 0 ? appliedRatio : ratio;
+
+        if (smallest != null) {
+            float width = smallest[2] - smallest[0];
+            float height = smallest[3] - smallest[1];
+            float size = Math.max(width, height);
+            if (zoomed && size >= GOOD && readAt < 0) {
+                readAt = nowMillis;
+            }
+            if (size > 0 && size < SMALL && nowMillis >= suppressUntil) {
+                // Keep the whole code inside the part of the frame that stays visible
+                float reach = Math.max(Math.abs((smallest[0] + smallest[2]) / 2 - 0.5F) + width / 2,
+                        Math.abs((smallest[1] + smallest[3]) / 2 - 0.5F) + height / 2);
+                float wanted = current * Math.min(TARGET / size, EDGE_MARGIN * 0.5F / Math.max(reach, 0.01F));
+                wanted = Math.min(wanted, Math.min(maxRatio, MAX_AUTO_RATIO));
+                if (wanted > current * 1.05F && wanted > (zoomed ? targetRatio : 0)) {
+                    if (!zoomed) {
+                        zoomed = true;
+                        baseRatio = ratio;
+                        appliedRatio = ratio;
+                        readAt = -1;
+                        zoomIns++;
+                    }
+                    targetRatio = wanted;
+                    progressAt = nowMillis;
+                }
+            }
+        }
+
+        if (zoomed && ((readAt >= 0 && nowMillis - readAt >= READ_HOLD_MS)
+                || (readAt < 0 && nowMillis - progressAt >= TIMEOUT_MS))) {
+            zoomed = false;
+            targetRatio = baseRatio;
+            suppressUntil = nowMillis + SUPPRESS_MS;
+            zoomOuts++;
+        }
+
+        if (appliedRatio < 0 || nowMillis - lastStep < STEP_MS) {
+            return -1;
+        }
+        float step;
+        if (appliedRatio < targetRatio * 0.99F) {
+            step = Math.min(targetRatio, appliedRatio * STEP);
+        } else if (appliedRatio > targetRatio * 1.01F) {
+            step = Math.max(targetRatio, appliedRatio / STEP);
+        } else {
+            if (!zoomed) {
+                // Back where it started
+                appliedRatio = -1;
+            }
+            return -1;
+        }
+        step = Math.max(minRatio, Math.min(maxRatio, step));
+        appliedRatio = step;
+        lastStep = nowMillis;
+        return step;
+    }
+
+    /**
+     * The operator zoomed by hand: drop the automatic zoom where it is and stay out of the way
+     * for a while.
+     */
+    public synchronized void manualZoom(long nowMillis) {
+        zoomed = false;
+        appliedRatio = -1;
+        suppressUntil = nowMillis + MANUAL_MS;
+    }
+
+    public synchronized boolean isZoomed() {
+        return zoomed;
+    }
+
+    public synchronized long getZoomIns() {
+        return zoomIns;
+    }
+
+    public synchronized long getZoomOuts() {
+        return zoomOuts;
+    }
+}
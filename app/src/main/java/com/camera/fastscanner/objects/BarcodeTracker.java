@@ -0,0 +1,208 @@
+package com.camera.fastscanner.objects;
+
+/**
+ * Follows the codes found in earlier frames so the next frame only has to be searched around
+ * where they are expected to be.
+ * <p>
+ * Every result box becomes a track with a position and a velocity. For a new frame the tracks are
+ * moved ahead by their velocity, and the union of the predicted boxes, enlarged by a margin, is
+ * the region to decode. The whole search area is decoded instead when there are no tracks, when a
+ * track was lost on the previous frame, and every {@link #FULL_SEARCH_INTERVAL} frames so codes
+ * that newly came into view are picked up.
+ * <p>
+ * All coordinates are buffer pixels of the camera frame, as used by {@link FrameCropper}. Plain
+ * Java and no allocation after construction. Thread safe: with several analysis workers the next
+ * region is asked for on the camera thread while results of older frames come in on the workers,
+ * in capture order (see {@link FrameReorderer}). A region may therefore be predicted from results
+ * a few frames old, the velocity covers the gap.
+ */
+public class BarcodeTracker {
+
+    public static final int FULL_SEARCH_INTERVAL = 10;
+
+    private static final int MAX_TRACKS = 8;
+    // Box grows by this fraction of its size on every side, on top of the predicted motion
+    private static final float MARGIN = 0.5F;
+    // Region sizes are rounded up to this, so the crop buffer is not reallocated for every jitter
+    private static final int ALIGN = 64;
+    // Boxes further apart than this many box sizes are different codes
+    private static final float MATCH_DISTANCE = 1.5F;
+    // Weight of the newest measurement in the velocity
+    private static final float VELOCITY_WEIGHT = 0.5F;
+
+    private final float[] centerX = new float[MAX_TRACKS];
+    private final float[] centerY = new float[MAX_TRACKS];
+    private final float[] halfWidth = new float[MAX_TRACKS];
+    private final float[] halfHeight = new float[MAX_TRACKS];
+    // Pixels per nanosecond
+    private final float[] velocityX = new float[MAX_TRACKS];
+    private final float[] velocityY = new float[MAX_TRACKS];
+    private final long[] seenAt = new long[MAX_TRACKS];
+    private final boolean[] matched = new boolean[MAX_TRACKS];
+    private int tracks;
+
+    private boolean lostTrack;
+    private int sinceFullSearch;
+    private long frames;
+    private long trackedFrames;
+
+    /**
+     * Decide what to decode of the next frame.
+     *
+     * @param timestamp frame timestamp in nanoseconds
+     * @param bounds    left, top, right, bottom of the full search area
+     * @param out       receives the region to decode when tracking, even aligned and inside bounds
+     * @return true if only {@code out} needs decoding, false for a full search of {@code bounds}.
+     */
+    public synchronized boolean nextRegion(long timestamp, int[] bounds, int[] out) {
+        frames++;
+        if (tracks == 0 || lostTrack || ++sinceFullSearch >= FULL_SEARCH_INTERVAL) {
+            sinceFullSearch = 0;
+            return false;
+        }
+
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < tracks; i++) {
+            long elapsed = timestamp - seenAt[i];
+            float x = centerX[i] + velocityX[i] * elapsed;
+            float y = centerY[i] + velocityY[i] * elapsed;
+            float w = halfWidth[i] * (1 + 2 * MARGIN);
+            float h = halfHeight[i] * (1 + 2 * MARGIN);
+            left = Math.min(left, x - w);
+            top = Math.min(top, y - h);
+            right = Math.max(right, x + w);
+            bottom = Math.max(bottom, y + h);
+        }
+
+        if (!fit(left, right, bounds[0], bounds[2], out, 0)
+                || !fit(top, bottom, bounds[1], bounds[3], out, 1)) {
+            // Predicted out of the search area
+            sinceFullSearch = 0;
+            return false;
+        }
+        trackedFrames++;
+        return true;
+    }
+
+    /**
+     * Place [from, to) rounded up to {@link #ALIGN} inside [min, max), into out[index] and
+     * out[index + 2].
+     */
+    private static boolean fit(float from, float to, int min, int max, int[] out, int index) {
+        if (to <= min || from >= max) {
+            return false;
+        }
+        int size = Math.min((int) Math.ceil((to - from) / ALIGN) * ALIGN, (max - min) & ~1);
+        int start = ((int) Math.floor((from + to - size) / 2)) & ~1;
+        start = Math.max(min, Math.min(start, max - size)) & ~1;
+        out[index] = start;
+        out[index + 2] = start + size;
+        return true;
+    }
+
+    /**
+     * Feed the result of a decode.
+     *
+     * @param timestamp timestamp of the decoded frame in nanoseconds
+     * @param boxes     left, top, right, bottom of each code found, in buffer coordinates
+     * @param count     number of boxes
+     */
+    public synchronized void update(long timestamp, int[] boxes, int count) {
+        for (int i = 0; i < tracks; i++) {
+            matched[i] = false;
+        }
+
+        for (int b = 0; b < count; b++) {
+            float x = (boxes[b * 4] + boxes[b * 4 + 2]) / 2F;
+            float y = (boxes[b * 4 + 1] + boxes[b * 4 + 3]) / 2F;
+            float w = (boxes[b * 4 + 2] - boxes[b * 4]) / 2F;
+            float h = (boxes[b * 4 + 3] - boxes[b * 4 + 1]) / 2F;
+
+            int track = nearest(timestamp, x, y, w, h);
+            if (track < 0) {
+                if (tracks == MAX_TRACKS) {
+                    continue;
+                }
+                track = tracks++;
+                velocityX[track] = 0;
+                velocityY[track] = 0;
+            } else {
+                long elapsed = timestamp - seenAt[track];
+                if (elapsed > 0) {
+                    velocityX[track] += VELOCITY_WEIGHT * ((x - centerX[track]) / elapsed - velocityX[track]);
+                    velocityY[track] += VELOCITY_WEIGHT * ((y - centerY[track]) / elapsed - velocityY[track]);
+                }
+            }
+            centerX[track] = x;
+            centerY[track] = y;
+            halfWidth[track] = w;
+            halfHeight[track] = h;
+            seenAt[track] = timestamp;
+            matched[track] = true;
+        }
+
+        // Whatever was not seen again is gone
+        lostTrack = false;
+        int kept = 0;
+        for (int i = 0; i < tracks; i++) {
+            if (!matched[i]) {
+                lostTrack = true;
+                continue;
+            }
+            if (kept != i) {
+                centerX[kept] = centerX[i];
+                centerY[kept] = centerY[i];
+                halfWidth[kept] = halfWidth[i];
+                halfHeight[kept] = halfHeight[i];
+                velocityX[kept] = velocityX[i];
+                velocityY[kept] = velocityY[i];
+                seenAt[kept] = seenAt[i];
+            }
+            kept++;
+        }
+        tracks = kept;
+    }
+
+    private int nearest(long timestamp, float x, float y, float w, float h) {
+        int best = -1;
+        float bestDistance = Float.MAX_VALUE;
+        for (int i = 0; i < tracks; i++) {
+            if (matched[i]) {
+                continue;
+            }
+            long elapsed = timestamp - seenAt[i];
+            float dx = x - (centerX[i] + velocityX[i] * elapsed);
+            float dy = y - (centerY[i] + velocityY[i] * elapsed);
+            float size = Math.max(Math.max(w, h), Math.max(halfWidth[i], halfHeight[i])) * 2;
+            float distance = dx * dx + dy * dy;
+            if (distance < bestDistance && distance <= MATCH_DISTANCE * MATCH_DISTANCE * size * size) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Forget all tracks, the next frame gets a full search.
+     */
+    public synchronized void reset() {
+        tracks = 0;
+        lostTrack = false;
+        sinceFullSearch = 0;
+    }
+
+    public synchronized int getTrackCount() {
+        return tracks;
+    }
+
+    /**
+     * Fraction of frames that were only decoded around the tracks.
+     */
+    public synchronized double getTrackedFraction() {
+        return frames == 0 ? 0 : (double) trackedFrames / frames;
+    }
+}
@@ -2,21 +2,45 @@ package com.camera.fastscanner.objects;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Size;
+import android.util.SizeF;
 import android.view.ScaleGestureDetector;
+import android.view.View;
 
+import androidx.annotation.OptIn;
+import androidx.camera.camera2.interop.Camera2CameraInfo;
+import androidx.camera.camera2.interop.ExperimentalCamera2Interop;
 import androidx.camera.core.Camera;
 import androidx.camera.core.CameraControl;
+import androidx.camera.core.CameraInfo;
 import androidx.camera.core.CameraSelector;
+import androidx.camera.core.FocusMeteringAction;
+import androidx.camera.core.FocusMeteringResult;
+import androidx.camera.core.MeteringPoint;
+import androidx.camera.core.MeteringPointFactory;
+import androidx.camera.core.SurfaceOrientedMeteringPointFactory;
 import androidx.camera.core.UseCase;
+import androidx.camera.core.ZoomState;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.core.content.ContextCompat;
 import androidx.lifecycle.LifecycleOwner;
 
+import com.camera.fastscanner.AppClass;
 import com.camera.fastscanner.Utility.Utils;
+import com.camera.fastscanner.callbacks.AnalysisGate;
 import com.camera.fastscanner.callbacks.Availability;
 import com.camera.fastscanner.callbacks.CameraFailureCallback;
 import com.camera.fastscanner.callbacks.CameraShutdownCallback;
+import com.camera.fastscanner.callbacks.DetectionListener;
+import com.camera.fastscanner.callbacks.FocusRequester;
+import com.camera.fastscanner.callbacks.LightListener;
 import com.camera.fastscanner.callbacks.SetTouchListenerCallback;
 import com.camera.fastscanner.callbacks.UseCaseCreator;
 import com.camera.fastscanner.exception.NoCameraException;
@@ -24,15 +48,38 @@ import com.camera.fastscanner.exception.ReferenceInvalidException;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 public class CamAccess {
-    private @Availability
+    private static final String LENS_PREFERENCES = "lens";
+    private volatile @Availability
     int mFlash;
     private final WeakReference<Context> wctx;
     private final boolean mHasCamera;
     private final UseCaseCreator mUseCaseCreator;
-    private CameraControl cameraControl;
+    private volatile CameraControl cameraControl;
+    private volatile UseCase mAnalysisUseCase;
+    private volatile Camera mCamera;
+    private final AutoZoom mAutoZoom = new AutoZoom();
+    private volatile boolean mAutoZoomEnabled = false;
+    private AnalysisGate mAnalysisGate;
+    private boolean mAnalysisPaused = false;
+    private final AutoTorch mAutoTorch = new AutoTorch();
+    private volatile boolean mAutoTorchEnabled = false;
+    // Last value passed to setAutoTorch(), the operator may have switched it off since
+    private boolean mAutoTorchSetting = false;
+    private final LensSelector mLensSelector = new LensSelector();
+    private volatile boolean mAutoLensEnabled = false;
+    private ProcessCameraProvider mProvider;
+    private LifecycleOwner mLifecycleOwner;
+    private UseCase[] mUseCases;
+    private CameraSelector mSelector;
+    private CameraFailureCallback mCameraFailureCallback;
+    // Pinch to zoom, and the view it is set on. The view may change while the camera stays bound.
+    private View.OnTouchListener mTouchListener;
+    private SetTouchListenerCallback mTouchTarget;
 
     public CamAccess(final WeakReference<Context> wctx, final UseCaseCreator useCaseCreator) throws NoCameraException {
 
@@ -64,7 +111,11 @@ public class CamAccess {
         if (wctx.get() == null) {
             throw new ReferenceInvalidException("Weak reference to context is null.");
         }
-        final ListenableFuture<ProcessCameraProvider> cpf = ProcessCameraProvider.getInstance(wctx.get().getApplicationContext());
+        if (setTouchListenerCallback != null) {
+            // Null keeps the view that has it now
+            mTouchTarget = setTouchListenerCallback;
+        }
+        final ListenableFuture<ProcessCameraProvider> cpf = cameraProviderFuture(wctx.get().getApplicationContext());
 
 
         cpf.addListener(() -> {
@@ -81,7 +132,6 @@ public class CamAccess {
 
             // Create the CameraX use cases with the supplied function
             UseCase[] useCases = mUseCaseCreator.create();
-            CameraSelector cs = CameraSelector.DEFAULT_BACK_CAMERA;
 
 
             try {
@@ -89,21 +139,36 @@ public class CamAccess {
                     throw new NullPointerException("Camera Provider Unavailable");
                 }
 
+                String lensId = mAutoLensEnabled ? chooseLens(cp) : null;
+                CameraSelector cs = lensId != null ? lensSelector(lensId) : CameraSelector.DEFAULT_BACK_CAMERA;
+
                 cp.unbindAll();
                 Camera camera = cp.bindToLifecycle(lifecycleOwner, cs, useCases[0], useCases[1]);
                 cameraControl = camera.getCameraControl();
+                mAnalysisUseCase = useCases[1];
+                mCamera = camera;
+                // Kept for switching lenses later
+                mProvider = cp;
+                mLifecycleOwner = lifecycleOwner;
+                mUseCases = useCases;
+                mSelector = cs;
+                mCameraFailureCallback = cameraFailureCallback;
 
 
                 ScaleGestureDetector.SimpleOnScaleGestureListener listener = new ScaleGestureDetector.SimpleOnScaleGestureListener() {
                     @Override
                     public boolean onScale(ScaleGestureDetector detector) {
+                        // The lens may have been switched since
+                        Camera bound = mCamera;
                         float currentZoomRatio;
-                        if (camera.getCameraInfo().getZoomState().getValue() != null) {
-                            currentZoomRatio = camera.getCameraInfo().getZoomState().getValue().getZoomRatio();
+                        if (bound.getCameraInfo().getZoomState().getValue() != null) {
+                            currentZoomRatio = bound.getCameraInfo().getZoomState().getValue().getZoomRatio();
                         } else {
                             currentZoomRatio = 0F;
                         }
                         float delta = detector.getScaleFactor();
+                        // Operator takes over from the auto zoom
+                        mAutoZoom.manualZoom(SystemClock.elapsedRealtime());
 
                         cameraControl.setZoomRatio(currentZoomRatio * delta);
 
@@ -116,10 +181,13 @@ public class CamAccess {
 
 
                 // Set touch listener for pre‌‍‌‌‍‍‌‌‍‍‌‌‍‍‌‌‍‍‌‍‍‌‌‌‍‍‌‌‍‍‌‌‌‍‌‌‍‍‌‌‍‌‌‌‍‍‌‌‌‍‌‍‍‌‌‍‌‌‌‍‍‌‌‌‌‍‌‍‍‌‌‌‌‍‌‍‍‌‌‌‍‍‌‌‍‍‌‍‍‌‌‌‍‍‌‌‍‌‌‌‍‍‌‌‌‍‌‍‍‌‌‍‌‌‌‍‍‌‌‌‌‍‌‌‍‍‍‌‌‌‌‌‍‍‌‍‌‌‌‍‍‌‌‌‍‌‌‌‍‍‌‌‌‍‌‍‍‌‌‌‌‍‌‌‍‍‌‍‌‌‌‍‍‌‌‍‍‌‌‌‍‍‌‌‍‍‌‌‍‍‌‌‌‍‌‌‍‍‍‌‌‍‌‌‍‍‌‌‌‌‌‌‍‍‌‍‌‍‌‌‍‍‌‍‍‌‌‍‍‌‌‌‍‍‌‌‍‍‌‌‍‍‌‌‍‍‌‍‍‌‌‍‍‌‌‍‍‌‌‌‍‍‌‍‍‍‌‌‍‍‍‌‌‌‌‌‍‍‌‌‌‍‌‌‍‍‌‌‌‌‌‌‍‍‍‌‌‍‌‌‍‍‌‍‍‌‌‍‍‌‌‌‌‍‌‌‍‍‌‌‍‍‌‍‍‌‌‌‍‌‌‍‍‌‌‍‍‌‌‌‍‍‌‌‍‍‌‌‍‍‍‌‌‍‌‌‍‍‌‍‌‍‌‍‍‌‌‌‍‌‌‌‍‍‌‌‌‌‌‌‍‍‌‍‍‌‌‌‍‍‌‍‍‌‌‌‍‍‌‌‍‍‌‌‍‍‌‌‌‌‌‍‍‌‌‌‍‌‌‌‍‍‌‍‌‌‌‌‍‍‌‍‍‍‌‍‍‌‌‌‍‌‌‌‍‍‍‌‌‌‌‌‍‍‌‍‌‍‌‌‍‍‌‍‌‍‌‍‍‌‌‌‍‌‌‍‍‌‌‍‌‍‌‌‍‍‌‌‌‍‌‍‍‌‌‍‌‌‌‌‍‍‌‌‌‍‌‌‍‍‍‌‌‍view view to accept zoom.
-                setTouchListenerCallback.setTouchListener((view, motionEvent) -> {
+                mTouchListener = (view, motionEvent) -> {
                     scaleGestureDetector.onTouchEvent(motionEvent);
                     return true;
-                });
+                };
+                if (mTouchTarget != null) {
+                    mTouchTarget.setTouchListener(mTouchListener);
+                }
 
 
             } catch (Exception e) {
@@ -148,17 +216,364 @@ public class CamAccess {
 
     }
 
+    /**
+     * Move pinch to zoom over to another view, e.g. after the old one was recreated while the
+     * camera stayed bound. Null only forgets the old view. Main thread.
+     */
+    public void setTouchTarget(SetTouchListenerCallback setTouchListenerCallback) {
+        mTouchTarget = setTouchListenerCallback;
+        if (mTouchTarget != null && mTouchListener != null) {
+            mTouchTarget.setTouchListener(mTouchListener);
+        }
+    }
+
+    /**
+     * Use the provider future started at launch if there is one, otherwise request it now.
+     */
+    private static ListenableFuture<ProcessCameraProvider> cameraProviderFuture(Context appContext) {
+        if (appContext instanceof AppClass) {
+            ListenableFuture<ProcessCameraProvider> prewarmed = ((AppClass) appContext).takeCameraProviderFuture();
+            if (prewarmed != null) {
+                return prewarmed;
+            }
+        }
+        return ProcessCameraProvider.getInstance(appContext);
+    }
+
+    /**
+     * Set the gate used by {@link #pauseAnalysis()} and {@link #resumeAnalysis()}.
+     */
+    public void setAnalysisGate(AnalysisGate analysisGate) {
+        mAnalysisGate = analysisGate;
+        if (mAnalysisGate != null) {
+            mAnalysisGate.setPaused(mAnalysisPaused);
+        }
+    }
+
+    /**
+     * Stop analysing frames while keeping the camera bound, so resuming costs nothing.
+     */
+    public void pauseAnalysis() {
+        mAnalysisPaused = true;
+        if (mAnalysisGate != null) {
+            mAnalysisGate.setPaused(true);
+        }
+    }
+
+    public void resumeAnalysis() {
+        mAnalysisPaused = false;
+        if (mAnalysisGate != null) {
+            mAnalysisGate.setPaused(false);
+        }
+    }
+
+    public boolean isAnalysisPaused() {
+        return mAnalysisPaused;
+    }
+
     public void toggleFlash(@Availability int state) {
         if (state == Availability.UNAVAILABLE) {
             throw new RuntimeException("This must be an error in the code. Please do not set flash state to unavailable. Contact the app developers immediately if you see this message.");
         } else {
             if (cameraControl != null) {
+                // The operator knows better, stop switching by ourselves.
+                mAutoTorchEnabled = false;
                 mFlash = state;
                 cameraControl.enableTorch(Utils.availabilityToBoolean(state));
+                mAutoTorch.torchSet(Utils.availabilityToBoolean(state), SystemClock.elapsedRealtime());
             }
         }
     }
 
+    /**
+     * Switch the torch by itself depending on how dark the frames are, see {@link AutoTorch}.
+     * Frames are measured once the returned listener is handed to the analyser. Switching the
+     * torch by hand turns this off again. Passing the same setting again changes nothing, so it can
+     * be applied whenever the view is created without undoing the operator's choice.
+     *
+     * @return false if the device has no torch.
+     */
+    public boolean setAutoTorch(boolean enabled) {
+        if (mFlash == Availability.UNAVAILABLE) {
+            return false;
+        }
+        if (enabled == mAutoTorchSetting) {
+            return true;
+        }
+        mAutoTorchSetting = enabled;
+        mAutoTorchEnabled = enabled;
+        return true;
+    }
+
+    public boolean isAutoTorch() {
+        return mAutoTorchEnabled;
+    }
+
+    /**
+     * Receives frame brightness from the analyser and drives the auto torch.
+     */
+    public LightListener getLightListener() {
+        return this::lightMeasured;
+    }
+
+    private void lightMeasured(int mean, int bright, long nowMillis) {
+        if (!mAutoTorchEnabled || mFlash == Availability.UNAVAILABLE) {
+            return;
+        }
+        CameraControl control = cameraControl;
+        if (control != null && mAutoTorch.update(mean, bright, nowMillis)) {
+            boolean on = mAutoTorch.isTorchOn();
+            mFlash = on ? Availability.ON : Availability.OFF;
+            // Camera control can be used from any thread
+            control.enableTorch(on);
+        }
+    }
+
+    /**
+     * Zoom in on codes that are too small to read reliably and back out after, see
+     * {@link AutoZoom}. Takes effect once the returned listener is handed to the analyser. Pinch
+     * zoom always wins.
+     */
+    public void setAutoZoom(boolean enabled) {
+        mAutoZoomEnabled = enabled;
+    }
+
+    public boolean isAutoZoom() {
+        return mAutoZoomEnabled;
+    }
+
+    /**
+     * Receives code positions from the analyser and drives the auto zoom.
+     */
+    public DetectionListener getDetectionListener() {
+        return this::frameDecoded;
+    }
+
+    private void frameDecoded(float[] smallest, long nowMillis) {
+        Camera camera = mCamera;
+        if ((!mAutoZoomEnabled && !mAutoLensEnabled) || camera == null) {
+            return;
+        }
+        ZoomState zoomState = camera.getCameraInfo().getZoomState().getValue();
+        if (zoomState == null) {
+            return;
+        }
+        if (mAutoLensEnabled) {
+            String lensId = mLensSelector.frameDecoded(smallest != null, zoomState.getZoomRatio(), nowMillis);
+            if (lensId != null && wctx.get() != null) {
+                // Binding has to happen on the main thread
+                ContextCompat.getMainExecutor(wctx.get()).execute(() -> switchLens(lensId));
+            }
+        }
+        if (!mAutoZoomEnabled) {
+            return;
+        }
+        float ratio = mAutoZoom.update(smallest, zoomState.getZoomRatio(),
+                zoomState.getMinZoomRatio(), zoomState.getMaxZoomRatio(), nowMillis);
+        if (ratio > 0) {
+            camera.getCameraControl().setZoomRatio(ratio);
+        }
+    }
+
+    /**
+     * Bind the back camera that focuses closest, see {@link LensSelector}, instead of the default
+     * one, and switch to another lens when the bound one cannot focus on a code. The choice is
+     * remembered per device model. Set before the camera is started.
+     */
+    public void setAutoLens(boolean enabled) {
+        mAutoLensEnabled = enabled;
+    }
+
+    public boolean isAutoLens() {
+        return mAutoLensEnabled;
+    }
+
+    /**
+     * Rank the back cameras and pick one, or reuse the choice made for this model before.
+     *
+     * @return camera id, null for the default camera.
+     */
+    private String chooseLens(ProcessCameraProvider cp) {
+        List<LensSelector.Lens> ranked = LensSelector.rank(backLenses(cp));
+        if (ranked.isEmpty()) {
+            return null;
+        }
+        // Keyed by model, backups restore preferences onto other phones
+        SharedPreferences preferences = wctx.get().getSharedPreferences(LENS_PREFERENCES, Context.MODE_PRIVATE);
+        String key = Build.MANUFACTURER + "/" + Build.MODEL;
+        String cached = preferences.getString(key, null);
+        mLensSelector.setLenses(ranked, cached);
+        String chosen = mLensSelector.getPreferredId();
+        if (!chosen.equals(cached)) {
+            preferences.edit().putString(key, chosen).apply();
+        }
+        return chosen;
+    }
+
+    /**
+     * What the back cameras CameraX can bind are capable of.
+     */
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    private static List<LensSelector.Lens> backLenses(ProcessCameraProvider cp) {
+        List<LensSelector.Lens> lenses = new ArrayList<>();
+        for (CameraInfo info : cp.getAvailableCameraInfos()) {
+            Camera2CameraInfo camera2Info = Camera2CameraInfo.from(info);
+            Integer facing = camera2Info.getCameraCharacteristic(CameraCharacteristics.LENS_FACING);
+            if (facing == null || facing != CameraCharacteristics.LENS_FACING_BACK) {
+                continue;
+            }
+            Float minFocus = camera2Info.getCameraCharacteristic(CameraCharacteristics.LENS_INFO_MINIMUM_FOCUS_DISTANCE);
+            float[] focalLengths = camera2Info.getCameraCharacteristic(CameraCharacteristics.LENS_INFO_AVAILABLE_FOCAL_LENGTHS);
+            SizeF sensor = camera2Info.getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_PHYSICAL_SIZE);
+            float fieldOfView = 0;
+            if (focalLengths != null && focalLengths.length > 0 && sensor != null) {
+                fieldOfView = (float) Math.toDegrees(2 * Math.atan(sensor.getWidth() / (2 * focalLengths[0])));
+            }
+            long pixels = 0;
+            StreamConfigurationMap map = camera2Info.getCameraCharacteristic(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            Size[] sizes = map != null ? map.getOutputSizes(ImageFormat.YUV_420_888) : null;
+            if (sizes != null) {
+                for (Size size : sizes) {
+                    pixels = Math.max(pixels, (long) size.getWidth() * size.getHeight());
+                }
+            }
+            lenses.add(new LensSelector.Lens(camera2Info.getCameraId(), minFocus != null ? minFocus : 0,
+                    fieldOfView, pixels));
+        }
+        return lenses;
+    }
+
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    private static CameraSelector lensSelector(String lensId) {
+        return new CameraSelector.Builder()
+                .requireLensFacing(CameraSelector.LENS_FACING_BACK)
+                .addCameraFilter(infos -> {
+                    List<CameraInfo> matching = new ArrayList<>();
+                    for (CameraInfo info : infos) {
+                        if (lensId.equals(Camera2CameraInfo.from(info).getCameraId())) {
+                            matching.add(info);
+                        }
+                    }
+                    return matching;
+                })
+                .build();
+    }
+
+    /**
+     * Bind the use cases to another lens. Main thread.
+     */
+    private void switchLens(String lensId) {
+        ProcessCameraProvider cp = mProvider;
+        if (cp == null || lensId.equals(mLensSelector.getCurrentId())) {
+            return;
+        }
+        try {
+            cp.unbindAll();
+            CameraSelector cs = lensSelector(lensId);
+            Camera camera = cp.bindToLifecycle(mLifecycleOwner, cs, mUseCases[0], mUseCases[1]);
+            cameraControl = camera.getCameraControl();
+            mCamera = camera;
+            mSelector = cs;
+            mLensSelector.switched(lensId, SystemClock.elapsedRealtime());
+            if (mFlash == Availability.ON) {
+                // The torch belongs to the old lens
+                cameraControl.enableTorch(true);
+            }
+        } catch (Exception e) {
+            mCameraFailureCallback.run(e);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Bind another analysis use case in place of the current one, the preview stays bound. Does
+     * nothing before the camera was started, the use case creator hands out the new one then.
+     * Main thread.
+     */
+    public void replaceAnalysis(UseCase analysis) {
+        ProcessCameraProvider cp = mProvider;
+        UseCase[] useCases = mUseCases;
+        if (cp == null || useCases == null) {
+            return;
+        }
+        try {
+            cp.unbind(useCases[1]);
+            Camera camera = cp.bindToLifecycle(mLifecycleOwner, mSelector, analysis);
+            useCases[1] = analysis;
+            mAnalysisUseCase = analysis;
+            cameraControl = camera.getCameraControl();
+            mCamera = camera;
+        } catch (Exception e) {
+            mCameraFailureCallback.run(e);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Picks and switches the lens, see {@link #setAutoLens(boolean)}.
+     */
+    public LensSelector getLensSelector() {
+        return mLensSelector;
+    }
+
+    public AutoZoom getAutoZoom() {
+        return mAutoZoom;
+    }
+
+    /**
+     * Focus and metering on regions of the analysis frames, for the analyser to drive.
+     */
+    public FocusRequester getFocusRequester() {
+        return mFocusRequester;
+    }
+
+    private final FocusRequester mFocusRequester = new FocusRequester() {
+        @Override
+        public void focusOn(int bufferWidth, int bufferHeight, int left, int top, int right, int bottom) {
+            CameraControl control = cameraControl;
+            UseCase analysis = mAnalysisUseCase;
+            if (control == null || analysis == null || right <= left || bottom <= top) {
+                return;
+            }
+            // Maps analysis buffer coordinates onto the sensor, rotation and crop included
+            MeteringPointFactory factory = new SurfaceOrientedMeteringPointFactory(bufferWidth, bufferHeight, analysis);
+            float size = Math.max((right - left) / (float) bufferWidth, (bottom - top) / (float) bufferHeight);
+            MeteringPoint point = factory.createPoint((left + right) / 2F, (top + bottom) / 2F, Math.min(size, 1F));
+            // Held until cancelled, the analyser decides when focus goes back to continuous.
+            // Fixed focus cameras fail the AF part, the lens selector knows to ignore that.
+            ListenableFuture<FocusMeteringResult> result = control.startFocusAndMetering(
+                    new FocusMeteringAction.Builder(point, FocusMeteringAction.FLAG_AF | FocusMeteringAction.FLAG_AE)
+                            .disableAutoCancel()
+                            .build());
+            if (mAutoLensEnabled) {
+                result.addListener(() -> {
+                    try {
+                        if (!result.get().isFocusSuccessful()) {
+                            mLensSelector.focusFailed(SystemClock.elapsedRealtime());
+                        }
+                    } catch (ExecutionException | InterruptedException e) {
+                        // Cancelled by a newer request, says nothing about the lens
+                    }
+                }, Runnable::run);
+            }
+        }
+
+        @Override
+        public void cancelFocus() {
+            CameraControl control = cameraControl;
+            if (control != null) {
+                control.cancelFocusAndMetering();
+            }
+        }
+    };
+
+    /**
+     * Decisions and last measurement of the auto torch.
+     */
+    public AutoTorch getAutoTorch() {
+        return mAutoTorch;
+    }
+
     public @Availability
     int getFlash() {
         return mFlash;
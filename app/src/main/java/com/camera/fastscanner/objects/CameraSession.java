@@ -0,0 +1,266 @@
+package com.camera.fastscanner.objects;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.ImageAnalysis;
+import androidx.camera.core.Preview;
+import androidx.camera.core.UseCase;
+import androidx.camera.view.PreviewView;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LifecycleRegistry;
+
+import com.camera.fastscanner.callbacks.CameraFailureCallback;
+import com.camera.fastscanner.callbacks.CameraShutdownCallback;
+import com.camera.fastscanner.callbacks.ResolutionRequester;
+import com.camera.fastscanner.exception.NoCameraException;
+import com.camera.fastscanner.exception.ReferenceInvalidException;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The camera with its use cases and analysis thread, kept by the ViewModel so that it outlives the
+ * fragment's view, e.g. on rotation.
+ * <p>
+ * The use cases are bound once, to the session's own lifecycle instead of the view's. A new view
+ * only takes over the preview surface, the display rotation and pinch to zoom while the analysis
+ * keeps running. When a view stops and no other view starts within {@link #RELEASE_DELAY_MS},
+ * e.g. because the app went to the background, the camera is closed. It opens again with the same
+ * use cases when a view starts.
+ * <p>
+ * The analysis resolution can be changed while running, see {@link #getResolutionRequester()}.
+ * Only the analysis use case is bound again for it, the preview keeps going.
+ * <p>
+ * Main thread only, except for the analyzer.
+ */
+public class CameraSession implements LifecycleOwner {
+
+    // A recreated view starts well within this after the old one stopped
+    private static final long RELEASE_DELAY_MS = 1000;
+
+    private final LifecycleRegistry mLifecycle = new LifecycleRegistry(this);
+    private final ExecutorService mAnalysisExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mRelease = this::release;
+    private final Preview mPreview;
+    private final CamAccess mCamAccess;
+    private final ScanMetrics mScanMetrics;
+    private final ImageAnalysis.Analyzer mAnalyzer;
+    private final boolean mBlockProducer;
+    private final int mQueueDepth;
+    private ImageAnalysis mImageAnalysis;
+    // Index into ResolutionPolicy.TIERS, -1 leaves the resolution to CameraX
+    private int mTier = -1;
+    private int mDisplayRotation = Surface.ROTATION_0;
+    private CameraShutdownCallback mShutdownCallback;
+    private LifecycleOwner mViewOwner;
+
+    // Follows the lifecycle of the attached view
+    private final DefaultLifecycleObserver mViewObserver = new DefaultLifecycleObserver() {
+        @Override
+        public void onStart(@NonNull LifecycleOwner owner) {
+            mHandler.removeCallbacks(mRelease);
+            mLifecycle.setCurrentState(Lifecycle.State.RESUMED);
+        }
+
+        @Override
+        public void onStop(@NonNull LifecycleOwner owner) {
+            mHandler.removeCallbacks(mRelease);
+            mHandler.postDelayed(mRelease, RELEASE_DELAY_MS);
+        }
+
+        @Override
+        public void onDestroy(@NonNull LifecycleOwner owner) {
+            owner.getLifecycle().removeObserver(this);
+            if (owner == mViewOwner) {
+                mViewOwner = null;
+                mCamAccess.setTouchTarget(null);
+            }
+        }
+    };
+
+    /**
+     * @param analyzer      gets every analysis frame, on the session's analysis thread
+     * @param blockProducer queue frames instead of keeping only the latest
+     * @param queueDepth    frames queued with blockProducer
+     */
+    public CameraSession(@NonNull Context context, @NonNull ImageAnalysis.Analyzer analyzer,
+                         @NonNull ScanMetrics scanMetrics, boolean blockProducer, int queueDepth)
+            throws NoCameraException {
+        mScanMetrics = scanMetrics;
+        mAnalyzer = analyzer;
+        mBlockProducer = blockProducer;
+        mQueueDepth = queueDepth;
+
+        // Use Case 1: Preview, the surface comes from whichever view is attached
+        mPreview = new Preview.Builder().build();
+
+        // Use case 2: Barcode analysis
+        mImageAnalysis = buildAnalysis();
+
+        // The session outlives activities, only hold on to the application
+        mCamAccess = new CamAccess(new WeakReference<>(context.getApplicationContext()),
+                () -> new UseCase[]{mPreview, mImageAnalysis});
+        mLifecycle.setCurrentState(Lifecycle.State.CREATED);
+    }
+
+    private ImageAnalysis buildAnalysis() {
+        ImageAnalysis.Builder analysisBuilder = new ImageAnalysis.Builder()
+                .setTargetRotation(mDisplayRotation);
+        if (mBlockProducer) {
+            // Frames queue up instead of being replaced, the analyser closes them right after copying
+            analysisBuilder.setBackpressureStrategy(ImageAnalysis.STRATEGY_BLOCK_PRODUCER)
+                    .setImageQueueDepth(mQueueDepth);
+        } else {
+            analysisBuilder.setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST);
+        }
+        if (mTier >= 0) {
+            // Target resolutions are given the way round the display shows them
+            int[] size = ResolutionPolicy.TIERS[mTier];
+            analysisBuilder.setTargetResolution(isNatural(mDisplayRotation)
+                    ? new Size(size[1], size[0]) : new Size(size[0], size[1]));
+        }
+        ImageAnalysis imageAnalysis = analysisBuilder.build();
+        imageAnalysis.setAnalyzer(mAnalysisExecutor, mAnalyzer);
+        return imageAnalysis;
+    }
+
+    // Phones are portrait in their natural orientation, the sensor is landscape
+    private static boolean isNatural(int displayRotation) {
+        return displayRotation == Surface.ROTATION_0 || displayRotation == Surface.ROTATION_180;
+    }
+
+    /**
+     * Swap in a new analysis use case for the current tier and rotation, the preview is left alone.
+     */
+    private void rebuildAnalysis() {
+        ImageAnalysis old = mImageAnalysis;
+        mImageAnalysis = buildAnalysis();
+        mCamAccess.replaceAnalysis(mImageAnalysis);
+        old.clearAnalyzer();
+    }
+
+    /**
+     * For the analyser to step the analysis resolution, see {@link ResolutionPolicy}. The use case
+     * is swapped on the main thread.
+     */
+    public ResolutionRequester getResolutionRequester() {
+        return tier -> mHandler.post(() -> setAnalysisTier(tier));
+    }
+
+    private void setAnalysisTier(int tier) {
+        if (tier == mTier || mLifecycle.getCurrentState() == Lifecycle.State.DESTROYED) {
+            return;
+        }
+        mTier = tier;
+        rebuildAnalysis();
+        mScanMetrics.analysisTierChanged(tier, System.nanoTime());
+    }
+
+    public CamAccess getCamAccess() {
+        return mCamAccess;
+    }
+
+    /**
+     * Whether the use cases have been bound, i.e. attaching a view does not start the camera.
+     */
+    public boolean isBound() {
+        return mShutdownCallback != null;
+    }
+
+    /**
+     * Show the camera in a view and run it while the view is started. Binds the camera the first
+     * time, afterwards the view only takes over surface, rotation and pinch to zoom.
+     *
+     * @param displayRotation Surface.ROTATION_* of the display the view is on
+     */
+    @SuppressLint("ClickableViewAccessibility")
+    public void attach(@NonNull LifecycleOwner viewLifecycleOwner, @NonNull PreviewView previewView,
+                       int displayRotation, @NonNull CameraFailureCallback cameraFailureCallback)
+            throws ReferenceInvalidException {
+        if (mLifecycle.getCurrentState() == Lifecycle.State.DESTROYED) {
+            return;
+        }
+        mScanMetrics.viewAttached(System.nanoTime(),
+                isBound() && mLifecycle.getCurrentState().isAtLeast(Lifecycle.State.STARTED));
+
+        if (mViewOwner != null && mViewOwner != viewLifecycleOwner) {
+            mViewOwner.getLifecycle().removeObserver(mViewObserver);
+        }
+        mViewOwner = viewLifecycleOwner;
+
+        mPreview.setSurfaceProvider(previewView.getSurfaceProvider());
+        // Buffers keep coming in sensor orientation, only the rotation they are reported with changes
+        mPreview.setTargetRotation(displayRotation);
+        boolean turned = isNatural(displayRotation) != isNatural(mDisplayRotation);
+        mDisplayRotation = displayRotation;
+        if (mTier >= 0 && turned) {
+            // The target resolution is the other way round now
+            rebuildAnalysis();
+        } else {
+            mImageAnalysis.setTargetRotation(displayRotation);
+        }
+
+        if (isBound()) {
+            mCamAccess.setTouchTarget(previewView::setOnTouchListener);
+        } else {
+            mShutdownCallback = mCamAccess.startCamera(this, cameraFailureCallback, previewView::setOnTouchListener);
+        }
+        // Catches up with the view, i.e. starts the camera right away if the view already is
+        viewLifecycleOwner.getLifecycle().addObserver(mViewObserver);
+    }
+
+    /**
+     * Unbind and bind the use cases again, the provider stays up.
+     */
+    public void restart(@NonNull CameraFailureCallback cameraFailureCallback) throws ReferenceInvalidException {
+        if (!isBound()) {
+            return;
+        }
+        mShutdownCallback = mCamAccess.startCamera(this, cameraFailureCallback, null);
+    }
+
+    /**
+     * No view came back in time, close the camera but keep the use cases bound.
+     */
+    private void release() {
+        mLifecycle.setCurrentState(Lifecycle.State.CREATED);
+        if (mViewOwner == null) {
+            // Let go of the destroyed view
+            mPreview.setSurfaceProvider(null);
+        }
+    }
+
+    /**
+     * Close the camera for good and stop the analysis thread.
+     */
+    public void close() {
+        mHandler.removeCallbacks(mRelease);
+        if (mViewOwner != null) {
+            mViewOwner.getLifecycle().removeObserver(mViewObserver);
+            mViewOwner = null;
+        }
+        mCamAccess.setTouchTarget(null);
+        mLifecycle.setCurrentState(Lifecycle.State.DESTROYED);
+        if (mShutdownCallback != null) {
+            mShutdownCallback.shutdown();
+        }
+        mImageAnalysis.clearAnalyzer();
+        mAnalysisExecutor.shutdown();
+    }
+
+    @NonNull
+    @Override
+    public Lifecycle getLifecycle() {
+        return mLifecycle;
+    }
+}
@@ -1,67 +1,968 @@
 package com.camera.fastscanner.objects;
 
-import android.media.Image;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.ImageProxy;
 
-import com.google.android.gms.tasks.Task;
-import com.google.mlkit.vision.barcode.BarcodeScanner;
-import com.google.mlkit.vision.barcode.BarcodeScanning;
-import com.google.mlkit.vision.barcode.common.Barcode;
-import com.google.mlkit.vision.common.InputImage;
+import com.camera.fastscanner.callbacks.AnalysisGate;
+import com.camera.fastscanner.callbacks.BoxListener;
+import com.camera.fastscanner.callbacks.DetectionListener;
+import com.camera.fastscanner.callbacks.FocusRequester;
+import com.camera.fastscanner.callbacks.LightListener;
+import com.camera.fastscanner.callbacks.ResolutionRequester;
+import com.camera.fastscanner.decoder.DecodedBarcode;
+import com.camera.fastscanner.decoder.DecoderEngine;
+import com.camera.fastscanner.decoder.LumaEnhancer;
+import com.camera.fastscanner.decoder.LumaFrame;
+import com.camera.fastscanner.decoder.PresenceFilter;
+import com.camera.fastscanner.decoder.ScanBatch;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class CodeAnalyser implements ImageAnalysis.Analyzer {
+public class CodeAnalyser implements ImageAnalysis.Analyzer, AnalysisGate {
+
+    // With the presence filter, every this many filtered frames is decoded whatever it says
+    private static final int FORCED_EVERY = 10;
+    // Frames are not filtered for this long after a code was found, it is probably still there
+    private static final long PRESENCE_HOLD_MS = 1000;
 
     private SuccessCallback mCallBack;
     private FailureHandler mExceptionHandler;
+    private DecoderEngine.Factory mEngineFactory;
+    private int mEngineGeneration;
+    private final ScanWindow mScanWindow;
+    private final LightMeter mLightMeter = new LightMeter();
+    private volatile LightListener mLightListener;
+    private final FocusController mFocus = new FocusController();
+    private final ResolutionPolicy mResolution = new ResolutionPolicy();
+    private volatile ResolutionRequester mResolutionRequester;
+    private volatile FocusRequester mFocusRequester;
+    private volatile DetectionListener mDetectionListener;
+    private final float[] mSmallest = new float[4];
+    private volatile BoxListener mBoxListener;
+    private volatile ReadConsensus mConsensus;
+    // Search area of the last frame and the codes found in it, in buffer coordinates
+    private final int[] mWindow = new int[4];
+    private final int[] mLastCodes = new int[4];
+    private int mImageWidth;
+    private int mImageHeight;
+    private volatile boolean mStretchContrast = false;
+    private volatile boolean mInvertedRetry = false;
+    private volatile long mInvertedHits;
+    private final BarcodeTracker mTracker = new BarcodeTracker();
+    private final int[] mRegion = new int[4];
+    private volatile boolean mTracking = true;
+    // Size of the last frame taken in, on the analysis thread
+    private int mAnalysedWidth;
+    private int mAnalysedHeight;
+    // Result boxes and their corners in buffer coordinates, for the tracker and the overlay
+    private int[] mBoxes = new int[16];
+    private int[] mCorners = new int[32];
+    // Index into the frame's results of every box
+    private int[] mBoxOwners = new int[4];
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private long mFramePixels;
+    private long mDecodedPixels;
+    // Time spent per stage, summed over all frames
+    private volatile long mPrepareNanos;
+    private volatile long mDecodeNanos;
+    private volatile long mStagedFrames;
+    private volatile boolean mPaused = false;
+    private volatile boolean mPresenceFilter = false;
+    private volatile long mLastFound = Long.MIN_VALUE / 2;
+    private int mSinceForced;
+    private FrameListener mFrameListener;
+
+    // Guards the slots, the reorderer and everything done when a frame is delivered
+    private final Object mSlotLock = new Object();
+    // One per worker, a frame keeps its slot until it has been delivered or dropped
+    private Slot[] mSlots = {new Slot()};
+    private final FrameReorderer.Sink<Slot> mSink = new FrameReorderer.Sink<Slot>() {
+        @Override
+        public void deliver(@NonNull Slot slot) {
+            delivered(slot);
+        }
+
+        @Override
+        public void dropped(@NonNull Slot slot) {
+            // Newer frames were delivered meanwhile, its results would go back in time
+            finishSlot(slot, false);
+        }
+    };
+    private FrameReorderer<Slot> mReorderer = new FrameReorderer<>(1, mSink);
+    // Delivered batches go out from here once the lock is released, so a slow consumer holds up
+    // only the thread that sends and never frames waiting for the lock
+    private final SerialDispatcher<ScanBatch> mOutbox;
+    // Null with a single worker, frames then decode on the thread that hands them in
+    private ExecutorService mWorkers;
 
 
-    public CodeAnalyser(SuccessCallback scanCallback, FailureHandler exceptionHandler) {
+    public CodeAnalyser(DecoderEngine.Factory engineFactory, ScanWindow scanWindow, SuccessCallback scanCallback, FailureHandler exceptionHandler) {
 
+        mEngineFactory = engineFactory;
+        mScanWindow = scanWindow;
         mCallBack = scanCallback;
         mExceptionHandler = exceptionHandler;
+        mOutbox = new SerialDispatcher<>(batch -> mCallBack.scannedBarcodes(batch), this::deliverFailure);
     }
 
 
     @Override
-    @androidx.camera.core.ExperimentalGetImage
     public void analyze(@NonNull ImageProxy imageProxy) {
-        Image barcodeImage = imageProxy.getImage();
-        Log.d("CAMERAX", "analyze: " + imageProxy.getImageInfo());
-        if (barcodeImage != null) {
-            InputImage inputImage = InputImage.fromMediaImage(barcodeImage, imageProxy.getImageInfo().getRotationDegrees());
-            //Pass to ML Kit API
-            BarcodeScanner barcodeScanner = BarcodeScanning.getClient();
-            Task<List<Barcode>> result = barcodeScanner.process(inputImage)
-                    .addOnSuccessListener(barcodes -> {
+        long startNanos = System.nanoTime();
+        if (mPaused) {
+            // Camera keeps running, the frame is just not looked at.
+            imageProxy.close();
+            if (mFrameListener != null) {
+                mFrameListener.framePaused();
+            }
+            return;
+        }
+        int rotation = imageProxy.getImageInfo().getRotationDegrees();
+        int framePixels = imageProxy.getWidth() * imageProxy.getHeight();
+        long timestamp = imageProxy.getImageInfo().getTimestamp();
+
+        Slot slot;
+        long sequence;
+        DecoderEngine.Factory engineFactory;
+        int engineGeneration;
+        synchronized (mSlotLock) {
+            slot = takeSlot();
+            sequence = mReorderer.begin(SystemClock.elapsedRealtime());
+            slot.sequence = sequence;
+            slot.startNanos = startNanos;
+            engineFactory = mEngineFactory;
+            engineGeneration = mEngineGeneration;
+        }
+
+        int[] crop = slot.crop;
+        if (imageProxy.getWidth() != mAnalysedWidth || imageProxy.getHeight() != mAnalysedHeight) {
+            // Resolution changed, tracks of the old frames would put the region in the wrong place
+            mAnalysedWidth = imageProxy.getWidth();
+            mAnalysedHeight = imageProxy.getHeight();
+            mTracker.reset();
+        }
+        try {
+            if (slot.engineGeneration != engineGeneration) {
+                // Engine was switched, the slot is ours so the old one can go
+                if (slot.engine != null) {
+                    slot.engine.close();
+                    slot.engine = null;
+                }
+                slot.engine = engineFactory.create();
+                slot.engineGeneration = engineGeneration;
+            }
+            meterLight(imageProxy);
+            if (!mScanWindow.mapToImage(imageProxy.getWidth(), imageProxy.getHeight(), rotation, crop)) {
+                // No window, decode the whole frame
+                crop[0] = 0;
+                crop[1] = 0;
+                crop[2] = imageProxy.getWidth() & ~1;
+                crop[3] = imageProxy.getHeight() & ~1;
+            }
+            System.arraycopy(crop, 0, slot.window, 0, 4);
+            slot.imageWidth = imageProxy.getWidth();
+            slot.imageHeight = imageProxy.getHeight();
+            boolean tracked = mTracking && mTracker.nextRegion(timestamp, crop, mRegion);
+            if (tracked) {
+                // Only around the codes of the previous frames
+                System.arraycopy(mRegion, 0, crop, 0, 4);
+            }
+            // No need to ask whether there is a code where one was just found
+            slot.filtered = mPresenceFilter && !tracked
+                    && SystemClock.elapsedRealtime() - mLastFound >= PRESENCE_HOLD_MS;
+            slot.forced = slot.filtered && ++mSinceForced >= FORCED_EVERY;
+            if (slot.forced) {
+                mSinceForced = 0;
+            }
+            int cropWidth = crop[2] - crop[0];
+            int cropHeight = crop[3] - crop[1];
+            byte[] nv21 = slot.cropper.crop(imageProxy, crop);
+            slot.frame.set(nv21, cropWidth, cropHeight, cropWidth, rotation, timestamp, true);
+            mDecodedPixels += (long) cropWidth * cropHeight;
+        } catch (RuntimeException e) {
+            // Buffer went away, has an unexpected layout, or there is no engine
+            slot.prepareNanos = System.nanoTime() - startNanos;
+            complete(slot, sequence, null, e);
+            return;
+        } finally {
+            // Copied, the camera can have its buffer back and the next frame can start
+            imageProxy.close();
+        }
+        mFramePixels += framePixels;
+        slot.prepareNanos = System.nanoTime() - startNanos;
+
+        ExecutorService workers = mWorkers;
+        if (workers == null) {
+            decode(slot, sequence);
+        } else {
+            workers.execute(() -> decode(slot, sequence));
+        }
+    }
+
+    /**
+     * A free slot for the next frame, called with {@link #mSlotLock} held.
+     */
+    private Slot takeSlot() {
+        int oldest = -1;
+        for (int i = 0; i < mSlots.length; i++) {
+            Slot slot = mSlots[i];
+            if (!slot.busy) {
+                slot.busy = true;
+                return slot;
+            }
+            if (oldest < 0 || slot.startNanos < mSlots[oldest].startNanos) {
+                oldest = i;
+            }
+        }
+        // Only when the scheduler wrote the oldest frame off as lost. Its decode may still be
+        // reading the slot's buffers, so a new slot takes its place and the old one is retired
+        retire(mSlots[oldest]);
+        Slot slot = new Slot();
+        slot.busy = true;
+        mSlots[oldest] = slot;
+        return slot;
+    }
+
+    /**
+     * Give up on a busy slot: its result is ignored and its engine closed once the decode comes
+     * back, see {@link #complete}. Called with {@link #mSlotLock} held.
+     */
+    private void retire(Slot slot) {
+        slot.sequence = -1;
+        slot.retired = true;
+    }
+
+    /**
+     * Second half of a frame, on the worker: filter, enhance and decode.
+     */
+    private void decode(Slot slot, long sequence) {
+        try {
+            filterAndDecode(slot, sequence);
+        } catch (RuntimeException e) {
+            if (!complete(slot, sequence, null, e)) {
+                // Thrown after the frame was answered, by whoever took the results
+                throw e;
+            }
+        }
+    }
+
+    private void filterAndDecode(Slot slot, long sequence) {
+        LumaFrame frame = slot.frame;
+        DecoderEngine engine = slot.engine;
+        if (slot.filtered) {
+            long filterStart = System.nanoTime();
+            slot.present = slot.presence.check(frame);
+            slot.filterNanos = System.nanoTime() - filterStart;
+            slot.prepareNanos += slot.filterNanos;
+            if (!slot.present && !slot.forced) {
+                // Nothing like a code, the frame counts as decoded without a result
+                slot.skipped = true;
+                complete(slot, sequence, Collections.emptyList(), null);
+                return;
+            }
+        }
+        if (mStretchContrast) {
+            long stretchStart = System.nanoTime();
+            slot.enhancer.stretch(frame);
+            slot.prepareNanos += System.nanoTime() - stretchStart;
+        }
+        long decodeStart = System.nanoTime();
+
+        engine.decode(frame, new DecoderEngine.Callback() {
+            private boolean mRetried;
+
+            @Override
+            public void decoded(@NonNull List<DecodedBarcode> barcodes) {
+                if (barcodes.isEmpty() && mInvertedRetry && !mRetried) {
+                    // Nothing found, once more for light-on-dark codes
+                    mRetried = true;
+                    slot.enhancer.invert(frame);
+                    engine.decode(frame, this);
+                    return;
+                }
+                slot.inverted = mRetried && !barcodes.isEmpty();
+                slot.decodeNanos = System.nanoTime() - decodeStart;
+                complete(slot, sequence, barcodes, null);
+            }
+
+            @Override
+            public void failed(@NonNull Exception e) {
+                slot.decodeNanos = System.nanoTime() - decodeStart;
+                complete(slot, sequence, null, e);
+            }
+        });
+    }
+
+    /**
+     * @return false if the frame was answered already, and this answer is ignored.
+     */
+    private boolean complete(Slot slot, long sequence, @Nullable List<DecodedBarcode> barcodes,
+                             @Nullable Exception failure) {
+        synchronized (mSlotLock) {
+            if (slot.retired) {
+                // Written off as lost or the workers changed meanwhile
+                if (slot.engine != null) {
+                    slot.engine.close();
+                    slot.engine = null;
+                }
+                return true;
+            }
+            if (slot.sequence != sequence) {
+                return false;
+            }
+            // One answer per frame
+            slot.sequence = -1;
+            slot.barcodes = barcodes;
+            slot.failure = failure;
+            mReorderer.complete(sequence, slot, SystemClock.elapsedRealtime());
+        }
+        mOutbox.dispatch();
+        return true;
+    }
+
+    /**
+     * A frame's turn has come, in capture order. Called with {@link #mSlotLock} held.
+     */
+    private void delivered(Slot slot) {
+        mPrepareNanos += slot.prepareNanos;
+        List<DecodedBarcode> barcodes = slot.barcodes;
+        Exception failure = slot.failure;
+        if (barcodes == null) {
+            if (slot.decodeNanos >= 0) {
+                mDecodeNanos += slot.decodeNanos;
+                mStagedFrames++;
+            }
+            finishSlot(slot, false);
+            if (failure != null) {
+                deliverFailure(failure);
+            }
+            return;
+        }
+
+        if (slot.inverted) {
+            mInvertedHits++;
+        }
+        if (!slot.skipped) {
+            mDecodeNanos += slot.decodeNanos;
+            mStagedFrames++;
+        }
+        if (!barcodes.isEmpty()) {
+            mLastFound = SystemClock.elapsedRealtime();
+        }
+        if (slot.filtered && mFrameListener != null) {
+            mFrameListener.framePrefiltered(slot.filterNanos, slot.present, !slot.skipped, !barcodes.isEmpty());
+        }
+        LumaFrame frame = slot.frame;
+        long timestamp = frame.getTimestamp();
+        System.arraycopy(slot.window, 0, mWindow, 0, 4);
+        if (slot.imageWidth != mImageWidth || slot.imageHeight != mImageHeight) {
+            // First frame at a new resolution, positions from older frames are in other coordinates
+            resetPositions();
+        }
+        mImageWidth = slot.imageWidth;
+        mImageHeight = slot.imageHeight;
+        int located = locate(barcodes, frame.getRotation(), slot.crop[0], slot.crop[1], frame.getWidth(), frame.getHeight());
+        if (mTracking) {
+            mTracker.update(timestamp, mBoxes, located);
+        }
+        updateFocus(!barcodes.isEmpty(), located);
+        updateResolution(barcodes);
+        reportDetection(located);
+        BoxListener boxListener = mBoxListener;
+        if (boxListener != null) {
+            boxListener.boxesFound(mImageWidth, mImageHeight, frame.getRotation(), mBoxes, mCorners, located);
+        }
+        ReadConsensus consensus = mConsensus;
+        List<DecodedBarcode> published = consensus != null ? vote(consensus, barcodes, located, timestamp) : barcodes;
+        finishSlot(slot, !barcodes.isEmpty());
+        // Sent once the lock is released
+        mOutbox.add(new ScanBatch(timestamp, published));
+    }
+
+    /**
+     * Forget everything kept by position. Called with {@link #mSlotLock} held.
+     */
+    private void resetPositions() {
+        // Results of old frames still coming in may have added tracks since the analysis thread
+        // reset it
+        mTracker.reset();
+        ReadConsensus consensus = mConsensus;
+        if (consensus != null) {
+            consensus.reset();
+        }
+        mFocus.reset();
+    }
+
+    private void finishSlot(Slot slot, boolean found) {
+        boolean skipped = slot.skipped;
+        slot.barcodes = null;
+        slot.failure = null;
+        slot.decodeNanos = -1;
+        slot.filterNanos = -1;
+        slot.skipped = false;
+        slot.busy = false;
+        finishFrame(found, skipped, slot.startNanos);
+    }
+
+    /**
+     * The results of a frame that consensus voting accepts. Codes are placed by their boxes in
+     * buffer coordinates, so they stay on their track whatever part of the frame was decoded.
+     */
+    private List<DecodedBarcode> vote(ReadConsensus consensus, List<DecodedBarcode> barcodes,
+                                      int located, long timestamp) {
+        // Only copied once something is held back
+        List<DecodedBarcode> accepted = null;
+        for (int i = 0; i < barcodes.size(); i++) {
+            DecodedBarcode barcode = barcodes.get(i);
+            int box = -1;
+            for (int b = 0; b < located; b++) {
+                if (mBoxOwners[b] == i) {
+                    box = b * 4;
+                    break;
+                }
+            }
+            boolean agreed = box < 0
+                    ? consensus.read(DedupCache.key(barcode), barcode.getFormat(), false, 0, 0, 0, timestamp)
+                    : consensus.read(DedupCache.key(barcode), barcode.getFormat(), true,
+                    (mBoxes[box] + mBoxes[box + 2]) / 2F, (mBoxes[box + 1] + mBoxes[box + 3]) / 2F,
+                    Math.max(mBoxes[box + 2] - mBoxes[box], mBoxes[box + 3] - mBoxes[box + 1]), timestamp);
+            if (!agreed && accepted == null) {
+                accepted = new ArrayList<>(barcodes.subList(0, i));
+            } else if (agreed && accepted != null) {
+                accepted.add(barcode);
+            }
+        }
+        return accepted != null ? accepted : barcodes;
+    }
+
+    /**
+     * Brightness of the whole frame, from a sparse grid of the Y plane.
+     */
+    private void meterLight(ImageProxy imageProxy) {
+        LightListener lightListener = mLightListener;
+        if (lightListener == null) {
+            return;
+        }
+        ImageProxy.PlaneProxy luma = imageProxy.getPlanes()[0];
+        if (mLightMeter.measure(luma.getBuffer(), imageProxy.getWidth(), imageProxy.getHeight(),
+                luma.getRowStride(), luma.getPixelStride())) {
+            lightListener.lightMeasured(mLightMeter.getMean(), mLightMeter.getBright(), SystemClock.elapsedRealtime());
+        }
+    }
+
+    /**
+     * Put the result boxes into {@link #mBoxes}, their corners into {@link #mCorners} and the
+     * index of their result into {@link #mBoxOwners}, in buffer coordinates. They come upright and
+     * relative to the crop.
+     *
+     * @return number of boxes, codes without a box are left out.
+     */
+    private int locate(List<DecodedBarcode> barcodes, int rotation,
+                       int cropLeft, int cropTop, int cropWidth, int cropHeight) {
+        if (mBoxes.length < barcodes.size() * 4) {
+            mBoxes = new int[barcodes.size() * 4];
+            mCorners = new int[barcodes.size() * 8];
+            mBoxOwners = new int[barcodes.size()];
+        }
+        int count = 0;
+        for (int index = 0; index < barcodes.size(); index++) {
+            DecodedBarcode barcode = barcodes.get(index);
+            int l = barcode.getLeft();
+            int t = barcode.getTop();
+            int r = barcode.getRight();
+            int b = barcode.getBottom();
+            if (r <= l || b <= t) {
+                // Engine did not say where it is
+                continue;
+            }
+            mBoxOwners[count] = index;
+            int i = count++ * 4;
+            switch (rotation) {
+                case 90:
+                    mBoxes[i] = t;
+                    mBoxes[i + 1] = cropHeight - r;
+                    mBoxes[i + 2] = b;
+                    mBoxes[i + 3] = cropHeight - l;
+                    break;
+                case 180:
+                    mBoxes[i] = cropWidth - r;
+                    mBoxes[i + 1] = cropHeight - b;
+                    mBoxes[i + 2] = cropWidth - l;
+                    mBoxes[i + 3] = cropHeight - t;
+                    break;
+                case 270:
+                    mBoxes[i] = cropWidth - b;
+                    mBoxes[i + 1] = l;
+                    mBoxes[i + 2] = cropWidth - t;
+                    mBoxes[i + 3] = r;
+                    break;
+                default:
+                    mBoxes[i] = l;
+                    mBoxes[i + 1] = t;
+                    mBoxes[i + 2] = r;
+                    mBoxes[i + 3] = b;
+                    break;
+            }
+            mBoxes[i] += cropLeft;
+            mBoxes[i + 1] += cropTop;
+            mBoxes[i + 2] += cropLeft;
+            mBoxes[i + 3] += cropTop;
+
+            int[] corners = barcode.getCorners();
+            int c = i * 2;
+            if (corners == null) {
+                mCorners[c] = -1;
+                continue;
+            }
+            for (int k = 0; k < 8; k += 2) {
+                int x = corners[k];
+                int y = corners[k + 1];
+                switch (rotation) {
+                    case 90:
+                        mCorners[c + k] = y;
+                        mCorners[c + k + 1] = cropHeight - x;
+                        break;
+                    case 180:
+                        mCorners[c + k] = cropWidth - x;
+                        mCorners[c + k + 1] = cropHeight - y;
+                        break;
+                    case 270:
+                        mCorners[c + k] = cropWidth - y;
+                        mCorners[c + k + 1] = x;
+                        break;
+                    default:
+                        mCorners[c + k] = x;
+                        mCorners[c + k + 1] = y;
+                        break;
+                }
+                // Corners may stick out of the frame a little, -1 is taken
+                mCorners[c + k] = Math.max(0, mCorners[c + k] + cropLeft);
+                mCorners[c + k + 1] = Math.max(0, mCorners[c + k + 1] + cropTop);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Tell the detection listener about the smallest code of the frame.
+     */
+    private void reportDetection(int located) {
+        DetectionListener detectionListener = mDetectionListener;
+        if (detectionListener == null) {
+            return;
+        }
+        int smallest = -1;
+        int smallestSize = Integer.MAX_VALUE;
+        for (int i = 0; i < located * 4; i += 4) {
+            int size = Math.max(mBoxes[i + 2] - mBoxes[i], mBoxes[i + 3] - mBoxes[i + 1]);
+            if (size < smallestSize) {
+                smallestSize = size;
+                smallest = i;
+            }
+        }
+        if (smallest < 0) {
+            detectionListener.frameDecoded(null, SystemClock.elapsedRealtime());
+            return;
+        }
+        mSmallest[0] = mBoxes[smallest] / (float) mImageWidth;
+        mSmallest[1] = mBoxes[smallest + 1] / (float) mImageHeight;
+        mSmallest[2] = mBoxes[smallest + 2] / (float) mImageWidth;
+        mSmallest[3] = mBoxes[smallest + 3] / (float) mImageHeight;
+        detectionListener.frameDecoded(mSmallest, SystemClock.elapsedRealtime());
+    }
+
+    private void updateResolution(List<DecodedBarcode> barcodes) {
+        ResolutionRequester resolutionRequester = mResolutionRequester;
+        if (resolutionRequester == null) {
+            return;
+        }
+        float fewest = -1;
+        for (DecodedBarcode barcode : barcodes) {
+            float pixels = ResolutionPolicy.pixelsPerModule(barcode);
+            if (pixels > 0 && (fewest < 0 || pixels < fewest)) {
+                fewest = pixels;
+            }
+        }
+        int tier = mResolution.frameDecoded(!barcodes.isEmpty(), fewest, SystemClock.elapsedRealtime());
+        if (tier >= 0) {
+            resolutionRequester.requestTier(tier);
+        }
+    }
+
+    private void updateFocus(boolean found, int located) {
+        FocusRequester focusRequester = mFocusRequester;
+        if (focusRequester == null) {
+            return;
+        }
+        if (located > 0) {
+            // All codes of the frame
+            mLastCodes[0] = mBoxes[0];
+            mLastCodes[1] = mBoxes[1];
+            mLastCodes[2] = mBoxes[2];
+            mLastCodes[3] = mBoxes[3];
+            for (int i = 4; i < located * 4; i += 4) {
+                mLastCodes[0] = Math.min(mLastCodes[0], mBoxes[i]);
+                mLastCodes[1] = Math.min(mLastCodes[1], mBoxes[i + 1]);
+                mLastCodes[2] = Math.max(mLastCodes[2], mBoxes[i + 2]);
+                mLastCodes[3] = Math.max(mLastCodes[3], mBoxes[i + 3]);
+            }
+        }
+        switch (mFocus.frameDecoded(found, SystemClock.elapsedRealtime())) {
+            case FocusController.METER_WINDOW:
+                focusRequester.focusOn(mImageWidth, mImageHeight, mWindow[0], mWindow[1], mWindow[2], mWindow[3]);
+                break;
+            case FocusController.METER_CODE:
+                focusRequester.focusOn(mImageWidth, mImageHeight, mLastCodes[0], mLastCodes[1], mLastCodes[2], mLastCodes[3]);
+                break;
+            case FocusController.CANCEL:
+                focusRequester.cancelFocus();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void deliverFailure(Exception e) {
+        onMainThread(() -> mExceptionHandler.handleException(e));
+    }
+
+    /**
+     * Results go to the main thread, whichever thread the engine finished on.
+     */
+    private void onMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            mMainHandler.post(runnable);
+        }
+    }
+
+    /**
+     * Switch the decoder. Every worker changes over with its next frame and closes its old engine.
+     */
+    public void setEngine(@NonNull DecoderEngine.Factory engineFactory) {
+        synchronized (mSlotLock) {
+            mEngineFactory = engineFactory;
+            mEngineGeneration++;
+        }
+    }
+
+    /**
+     * Decode this many frames at the same time, each on its own worker thread with its own engine.
+     * Results are still delivered in capture order, see {@link FrameReorderer}. With one worker,
+     * the default, frames decode on the thread that hands them in.
+     * <p>
+     * Frames decoding when this is called are given up on. Use through
+     * {@link FrameScheduler#setWorkers(int)}, which admits frames to match.
+     */
+    public void setWorkers(int workers) {
+        workers = Math.max(1, workers);
+        synchronized (mSlotLock) {
+            if (workers == mSlots.length) {
+                return;
+            }
+            mReorderer.reset();
+            for (Slot slot : mSlots) {
+                if (slot.busy) {
+                    // Ignored when it comes back, its engine is closed then
+                    retire(slot);
+                } else if (slot.engine != null) {
+                    slot.engine.close();
+                    slot.engine = null;
+                }
+            }
+            mSlots = new Slot[workers];
+            for (int i = 0; i < workers; i++) {
+                mSlots[i] = new Slot();
+            }
+            mReorderer = new FrameReorderer<>(workers, mSink);
+            if (mWorkers != null) {
+                mWorkers.shutdown();
+            }
+            mWorkers = workers > 1 ? Executors.newFixedThreadPool(workers) : null;
+        }
+    }
+
+    public int getWorkers() {
+        synchronized (mSlotLock) {
+            return mSlots.length;
+        }
+    }
+
+    /**
+     * Deliver frames that have waited too long for an older one, see {@link FrameReorderer#poll(long)}.
+     */
+    public void poll(long nowMillis) {
+        synchronized (mSlotLock) {
+            mReorderer.poll(nowMillis);
+        }
+        mOutbox.dispatch();
+    }
+
+    /**
+     * Frames decoded but not delivered because newer frames had been delivered already.
+     */
+    public long getStaleFrames() {
+        synchronized (mSlotLock) {
+            return mReorderer.getStaleCount();
+        }
+    }
+
+    /**
+     * Stop the workers and close the engines, the analyser is not used afterwards.
+     */
+    public void close() {
+        synchronized (mSlotLock) {
+            if (mWorkers != null) {
+                mWorkers.shutdown();
+                mWorkers = null;
+            }
+            for (Slot slot : mSlots) {
+                if (slot.engine != null) {
+                    slot.engine.close();
+                    slot.engine = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode only around the codes found in previous frames, see {@link BarcodeTracker}. On by
+     * default.
+     */
+    public void setTracking(boolean tracking) {
+        mTracking = tracking;
+        mTracker.reset();
+    }
+
+    /**
+     * Preprocessing for dim warehouses, off by default. Contrast stretching costs a pass over the
+     * crop on every frame, the inverted retry a second decode on frames where nothing was found.
+     */
+    public void setEnhancement(boolean stretchContrast, boolean invertedRetry) {
+        mStretchContrast = stretchContrast;
+        mInvertedRetry = invertedRetry;
+    }
+
+    /**
+     * Frames where codes were only found after inverting.
+     */
+    public long getInvertedHits() {
+        return mInvertedHits;
+    }
+
+    /**
+     * Receives the brightness of every analysed frame, on the analysis thread. Null to stop.
+     */
+    public void setLightListener(LightListener lightListener) {
+        mLightListener = lightListener;
+    }
+
+    /**
+     * Lets the analyser steer focus and metering, see {@link FocusController}. Null to stop.
+     */
+    public void setFocusRequester(FocusRequester focusRequester) {
+        mFocusRequester = focusRequester;
+        mFocus.reset();
+    }
+
+    /**
+     * Lets the analyser step the analysis resolution up and down, see {@link ResolutionPolicy}.
+     * The requester is asked for the current tier straight away. Null to stop.
+     */
+    public void setResolutionRequester(ResolutionRequester resolutionRequester) {
+        mResolutionRequester = resolutionRequester;
+        if (resolutionRequester != null) {
+            resolutionRequester.requestTier(mResolution.getTier());
+        }
+    }
 
-                        mCallBack.scannedBarcodes(barcodes);
-                    })
-                    .addOnFailureListener(exception -> {
-                        mExceptionHandler.handleException(exception);
+    public ResolutionPolicy getResolutionPolicy() {
+        return mResolution;
+    }
+
+    /**
+     * Look for anything like a code before decoding, see {@link PresenceFilter}, off by default.
+     * Frames without are not decoded, except every {@value #FORCED_EVERY}th to see what the filter
+     * misses. Frames around codes found lately are always decoded.
+     */
+    public void setPresenceFilter(boolean presenceFilter) {
+        mPresenceFilter = presenceFilter;
+    }
+
+    /**
+     * Only pass on values that enough frames agree on, see {@link ReadConsensus}. Boxes and
+     * detection still cover every code read. Null to pass on every read, the default.
+     */
+    public void setReadConsensus(ReadConsensus consensus) {
+        if (consensus != null) {
+            consensus.reset();
+        }
+        mConsensus = consensus;
+    }
 
-                    })
-                    .addOnCompleteListener(task -> {
-                        imageProxy.close();
-                        barcodeScanner.close();
-                    });
+    /**
+     * Receives where codes were found in every decoded frame. Null to stop.
+     */
+    public void setDetectionListener(DetectionListener detectionListener) {
+        mDetectionListener = detectionListener;
+    }
 
+    /**
+     * Receives the boxes of every decoded frame, for the overlay. Null to stop.
+     */
+    public void setBoxListener(BoxListener boxListener) {
+        mBoxListener = boxListener;
+    }
+
+    /**
+     * Camera was (re)bound, meter on the scan window again.
+     */
+    public void resetFocus() {
+        mFocus.reset();
+    }
 
+    public BarcodeTracker getTracker() {
+        return mTracker;
+    }
+
+
+    /**
+     * Every frame ends here, exactly once, whatever path it took.
+     */
+    private void finishFrame(boolean found, boolean skipped, long startNanos) {
+        if (mFrameListener != null) {
+            mFrameListener.frameFinished(found, skipped, startNanos);
         }
     }
 
+    public void setFrameListener(FrameListener frameListener) {
+        mFrameListener = frameListener;
+    }
+
+    @Override
+    public void setPaused(boolean paused) {
+        mPaused = paused;
+    }
+
+    /**
+     * Pixels handed to the decoder so far.
+     */
+    public long getDecodedPixels() {
+        return mDecodedPixels;
+    }
 
+    /**
+     * Pixels of all frames analysed so far, compare against {@link #getDecodedPixels()} to see
+     * what the scan window saves.
+     */
+    public long getFramePixels() {
+        return mFramePixels;
+    }
+
+
+    /**
+     * Average time per frame spent reading the planes and building the {@link LumaFrame}.
+     */
+    public long getAveragePrepareNanos() {
+        return average(mPrepareNanos);
+    }
+
+    /**
+     * Average time per frame from handing the frame to the engine until it reported back.
+     */
+    public long getAverageDecodeNanos() {
+        return average(mDecodeNanos);
+    }
+
+    /**
+     * Average time per frame spent delivering results to the {@link SuccessCallback}.
+     */
+    public long getAverageDispatchNanos() {
+        return average(mOutbox.getDispatchNanos());
+    }
+
+    private long average(long totalNanos) {
+        long frames = mStagedFrames;
+        return frames == 0 ? 0 : totalNanos / frames;
+    }
+
+
+    /**
+     * Receives every decoded frame in capture order, on a worker or decoder thread, never with the
+     * analyser's lock held. One call at a time; a slow consumer delays the batches after it and
+     * the thread it is called on, which is never the main thread. Exceptions it throws go to the
+     * {@link FailureHandler}, later batches are still sent.
+     */
     public interface SuccessCallback {
-        void scannedBarcodes(List<Barcode> barcodes);
+        void scannedBarcodes(ScanBatch batch);
     }
 
     public interface FailureHandler {
         void handleException(Exception e);
     }
 
+    public interface FrameListener {
+        /**
+         * @param skipped    the presence filter kept the frame from the decoder
+         * @param startNanos when the frame was handed to the analyser, {@link System#nanoTime()}
+         */
+        void frameFinished(boolean found, boolean skipped, long startNanos);
+
+        /**
+         * A frame went through the presence filter, called before {@link #frameFinished}.
+         *
+         * @param present what the filter said
+         * @param decoded whether the frame was decoded, i.e. present or forced
+         * @param found   whether the decoder found codes, false if not decoded
+         */
+        void framePrefiltered(long filterNanos, boolean present, boolean decoded, boolean found);
+
+        /**
+         * A frame was closed unseen while analysis is paused, instead of {@link #frameFinished}.
+         */
+        void framePaused();
+    }
+
+    /**
+     * Everything one frame needs from the camera until it is delivered, one per worker.
+     */
+    private static class Slot {
+        final FrameCropper cropper = new FrameCropper();
+        final LumaFrame frame = new LumaFrame();
+        final LumaEnhancer enhancer = new LumaEnhancer();
+        final int[] crop = new int[4];
+        final int[] window = new int[4];
+        DecoderEngine engine;
+        int engineGeneration = -1;
+        boolean busy;
+        // No longer in the slots, waiting for its decode to come back
+        boolean retired;
+        long sequence = -1;
+        long startNanos;
+        int imageWidth;
+        int imageHeight;
+        long prepareNanos;
+        long decodeNanos = -1;
+        final PresenceFilter presence = new PresenceFilter();
+        boolean filtered;
+        boolean forced;
+        boolean present;
+        boolean skipped;
+        long filterNanos = -1;
+        boolean inverted;
+        List<DecodedBarcode> barcodes;
+        Exception failure;
+    }
+
 }
@@ -0,0 +1,62 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The latency consensus voting adds to reads, and the values it never accepted, see
+ * {@link ReadConsensus}.
+ */
+public class ConsensusMetrics {
+
+    private final LatencyHistogram confirmDelays = new LatencyHistogram();
+    private long unconfirmed;
+
+    /**
+     * A value was accepted, delayNanos after the first of the agreeing reads. Values accepted on
+     * their first read are not recorded.
+     */
+    public synchronized void readConfirmed(long delayNanos) {
+        confirmDelays.recordNanos(delayNanos);
+    }
+
+    /**
+     * A value was dropped without ever getting enough agreeing reads.
+     */
+    public synchronized void readUnconfirmed() {
+        unconfirmed++;
+    }
+
+    public synchronized void reset() {
+        confirmDelays.clear();
+        unconfirmed = 0;
+    }
+
+    @NonNull
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(confirmDelays.getTotal(), confirmDelays.percentileMicros(0.5),
+                confirmDelays.percentileMicros(0.99), unconfirmed);
+    }
+
+    public static class Snapshot {
+        // Values accepted after more than one read, and the latency the voting added to them
+        public final long confirmedReads;
+        public final long confirmDelayP50Micros;
+        public final long confirmDelayP99Micros;
+        public final long unconfirmedValues;
+
+        Snapshot(long confirmedReads, long confirmDelayP50Micros, long confirmDelayP99Micros,
+                 long unconfirmedValues) {
+            this.confirmedReads = confirmedReads;
+            this.confirmDelayP50Micros = confirmDelayP50Micros;
+            this.confirmDelayP99Micros = confirmDelayP99Micros;
+            this.unconfirmedValues = unconfirmedValues;
+        }
+
+        public void writeJson(@NonNull MetricsJson json) {
+            json.put("confirmedReads", confirmedReads)
+                    .put("confirmDelayP50Us", confirmDelayP50Micros)
+                    .put("confirmDelayP99Us", confirmDelayP99Micros)
+                    .put("unconfirmedValues", unconfirmedValues);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decode throughput with the current number of workers: frames decoded and dropped, decode latency,
+ * and decodes and results per second. It all depends on the worker count, so it starts over when
+ * that changes.
+ */
+public class DecodeMetrics {
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final RateCounter decodeRate = new RateCounter();
+    private final RateCounter resultRate = new RateCounter();
+    private int workers = 1;
+    private long decodes;
+    private long dropped;
+    private long results;
+    // Wall time in the decoder
+    private long decodeNanos;
+
+    /**
+     * Number of frames decoded at the same time changed. What was measured so far is discarded, so
+     * throughput can be compared between worker counts.
+     */
+    public synchronized void workersChanged(int workers) {
+        this.workers = workers;
+        reset();
+    }
+
+    public synchronized void frameDropped() {
+        dropped++;
+    }
+
+    public synchronized void frameDecoded(long latencyNanos, long nowNanos) {
+        latencies.recordNanos(latencyNanos);
+        decodes++;
+        decodeNanos += latencyNanos;
+        decodeRate.count(nowNanos);
+    }
+
+    public synchronized void resultPublished(long nowNanos) {
+        results++;
+        resultRate.count(nowNanos);
+    }
+
+    /**
+     * Average wall time of a decode, 0 before the first.
+     */
+    public synchronized long averageDecodeNanos() {
+        return decodes > 0 ? decodeNanos / decodes : 0;
+    }
+
+    public synchronized void reset() {
+        latencies.clear();
+        decodeRate.clear();
+        resultRate.clear();
+        decodes = 0;
+        dropped = 0;
+        results = 0;
+        decodeNanos = 0;
+    }
+
+    @NonNull
+    public synchronized Snapshot snapshot(long nowNanos) {
+        return new Snapshot(workers, decodes, dropped, results, resultRate.perSecond(nowNanos),
+                decodeRate.perSecond(nowNanos), latencies, decodeNanos / 1_000_000);
+    }
+
+    /**
+     * Counts since the worker count last changed. Times are in microseconds.
+     */
+    public static class Snapshot {
+        // Frames decoded at the same time, and frames decoded per second with that many
+        public final int workers;
+        public final long decodedFrames;
+        public final long droppedFrames;
+        public final long results;
+        public final double resultsPerSecond;
+        public final double decodesPerSecond;
+        public final long decodeP50Micros;
+        public final long decodeP90Micros;
+        public final long decodeP99Micros;
+        public final long decodeMaxMicros;
+        // Wall time spent decoding. Decoders run on their own threads, this stands in for CPU time
+        public final long decodeMillis;
+
+        Snapshot(int workers, long decodedFrames, long droppedFrames, long results, double resultsPerSecond,
+                 double decodesPerSecond, LatencyHistogram latencies, long decodeMillis) {
+            this.workers = workers;
+            this.decodedFrames = decodedFrames;
+            this.droppedFrames = droppedFrames;
+            this.results = results;
+            this.resultsPerSecond = resultsPerSecond;
+            this.decodesPerSecond = decodesPerSecond;
+            decodeP50Micros = latencies.percentileMicros(0.5);
+            decodeP90Micros = latencies.percentileMicros(0.9);
+            decodeP99Micros = latencies.percentileMicros(0.99);
+            decodeMaxMicros = latencies.percentileMicros(1.0);
+            this.decodeMillis = decodeMillis;
+        }
+
+        public void writeJson(@NonNull MetricsJson json) {
+            json.put("decodedFrames", decodedFrames)
+                    .put("droppedFrames", droppedFrames)
+                    .put("results", results)
+                    .put("resultsPerSecond", resultsPerSecond)
+                    .put("workers", workers)
+                    .put("decodesPerSecond", decodesPerSecond)
+                    .put("decodeP50Us", decodeP50Micros)
+                    .put("decodeP90Us", decodeP90Micros)
+                    .put("decodeP99Us", decodeP99Micros)
+                    .put("decodeMaxUs", decodeMaxMicros)
+                    .put("decodeMs", decodeMillis);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.camera.fastscanner.objects;
+
+import com.camera.fastscanner.decoder.DecodedBarcode;
+
+import java.util.Arrays;
+
+/**
+ * Remembers recently published scan results so the same code is not published again within a
+ * time window. Bounded, the least recently seen entry is evicted when full.
+ * <p>
+ * Entries are keyed on a 64 bit hash of the raw bytes and the format, see {@link #key(byte[], int)}.
+ * Everything lives in primitive arrays, lookups do not allocate.
+ * <p>
+ * Not thread-safe, use it from one thread (the main thread in
+ * {@link com.camera.fastscanner.viewmodel.ScanViewModel}).
+ */
+public class DedupCache {
+
+    private static final int NONE = -1;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int capacity;
+    private long windowMillis;
+
+    // Per slot
+    private final long[] keys;
+    private final long[] publishedAt;
+    private final int[] newer;
+    private final int[] older;
+    private final int[] chain;
+
+    // Hash buckets, head slot of each chain
+    private final int[] buckets;
+    private final int bucketMask;
+
+    private int size;
+    private int newest = NONE;
+    private int oldest = NONE;
+
+    public DedupCache(int capacity, long windowMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.capacity = capacity;
+        this.windowMillis = windowMillis;
+        keys = new long[capacity];
+        publishedAt = new long[capacity];
+        newer = new int[capacity];
+        older = new int[capacity];
+        chain = new int[capacity];
+
+        int bucketCount = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        buckets = new int[bucketCount];
+        bucketMask = bucketCount - 1;
+        Arrays.fill(buckets, NONE);
+    }
+
+    /**
+     * Hash of a scanned value. FNV-1a over the raw bytes, with the format mixed in so the same
+     * payload in two symbologies is treated as two codes.
+     */
+    public static long key(byte[] rawBytes, int format) {
+        long hash = FNV_OFFSET;
+        for (byte b : rawBytes) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return mix(hash, format);
+    }
+
+    /**
+     * Same as {@link #key(byte[], int)} for codes that only expose a string value.
+     */
+    public static long key(String value, int format) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return mix(hash, format);
+    }
+
+    /**
+     * Key of a decoded code, from its raw bytes or, if it has none, its value.
+     */
+    public static long key(DecodedBarcode barcode) {
+        byte[] raw = barcode.getRawBytes();
+        if (raw != null) {
+            return key(raw, barcode.getFormat());
+        }
+        String value = barcode.getRawValue();
+        return key(value == null ? "" : value, barcode.getFormat());
+    }
+
+    private static long mix(long hash, int format) {
+        hash ^= format;
+        hash *= FNV_PRIME;
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * Check a value and record it as published if it is not a duplicate.
+     *
+     * @return true if the value was published less than the window ago and should be dropped.
+     */
+    public boolean isDuplicate(long key, long nowMillis) {
+        int bucket = bucket(key);
+        for (int slot = buckets[bucket]; slot != NONE; slot = chain[slot]) {
+            if (keys[slot] == key) {
+                touch(slot);
+                if (nowMillis - publishedAt[slot] < windowMillis) {
+                    return true;
+                }
+                publishedAt[slot] = nowMillis;
+                return false;
+            }
+        }
+
+        int slot;
+        if (size < capacity) {
+            slot = size++;
+        } else {
+            slot = oldest;
+            unlink(slot);
+            removeFromBucket(slot);
+        }
+        keys[slot] = key;
+        publishedAt[slot] = nowMillis;
+        chain[slot] = buckets[bucket];
+        buckets[bucket] = slot;
+        pushNewest(slot);
+        return false;
+    }
+
+    public void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(buckets, NONE);
+        size = 0;
+        newest = NONE;
+        oldest = NONE;
+    }
+
+    private int bucket(long key) {
+        return (int) (key ^ (key >>> 32)) & bucketMask;
+    }
+
+    private void touch(int slot) {
+        if (slot != newest) {
+            unlink(slot);
+            pushNewest(slot);
+        }
+    }
+
+    private void pushNewest(int slot) {
+        older[slot] = newest;
+        newer[slot] = NONE;
+        if (newest != NONE) {
+            newer[newest] = slot;
+        }
+        newest = slot;
+        if (oldest == NONE) {
+            oldest = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        if (newer[slot] != NONE) {
+            older[newer[slot]] = older[slot];
+        } else {
+            newest = older[slot];
+        }
+        if (older[slot] != NONE) {
+            newer[older[slot]] = newer[slot];
+        } else {
+            oldest = newer[slot];
+        }
+    }
+
+    private void removeFromBucket(int slot) {
+        int bucket = bucket(keys[slot]);
+        if (buckets[bucket] == slot) {
+            buckets[bucket] = chain[slot];
+            return;
+        }
+        for (int s = buckets[bucket]; s != NONE; s = chain[s]) {
+            if (chain[s] == slot) {
+                chain[s] = chain[slot];
+                return;
+            }
+        }
+    }
+}
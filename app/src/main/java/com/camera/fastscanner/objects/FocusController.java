@@ -0,0 +1,65 @@
+package com.camera.fastscanner.objects;
+
+/**
+ * Decides when to ask the camera for focus and metering on the scan window or on a code, from the
+ * outcome of every decoded frame.
+ * <p>
+ * The first frame meters on the scan window. When decoding keeps failing, metering is repeated,
+ * on the last code found if it was seen moments ago (it is probably still there, just blurred)
+ * and on the window otherwise. A success hands focus back to the camera's continuous mode.
+ */
+public class FocusController {
+
+    public static final int NONE = 0;
+    public static final int METER_WINDOW = 1;
+    public static final int METER_CODE = 2;
+    public static final int CANCEL = 3;
+
+    // Failed frames in a row before metering again
+    private static final int REMETER_AFTER_FAILURES = 20;
+    // Focusing takes a few hundred milliseconds, do not restart it before it had a chance
+    private static final long MIN_INTERVAL_MS = 1500;
+    // A code found this recently is metered on instead of the window
+    private static final long CODE_FRESH_MS = 1000;
+
+    private boolean started;
+    private boolean metering;
+    private int failures;
+    private long lastMeter;
+    private long lastFound = Long.MIN_VALUE / 2;
+
+    /**
+     * @return what to do with focus after this frame, one of the constants.
+     */
+    public synchronized int frameDecoded(boolean found, long nowMillis) {
+        if (found) {
+            lastFound = nowMillis;
+            failures = 0;
+            started = true;
+            if (metering) {
+                metering = false;
+                return CANCEL;
+            }
+            return NONE;
+        }
+
+        failures++;
+        if (!started || (failures >= REMETER_AFTER_FAILURES && nowMillis - lastMeter >= MIN_INTERVAL_MS)) {
+            started = true;
+            failures = 0;
+            lastMeter = nowMillis;
+            metering = true;
+            return nowMillis - lastFound <= CODE_FRESH_MS ? METER_CODE : METER_WINDOW;
+        }
+        return NONE;
+    }
+
+    /**
+     * Camera was (re)bound, meter on the window again with the next frame.
+     */
+    public synchronized void reset() {
+        started = false;
+        metering = false;
+        failures = 0;
+    }
+}
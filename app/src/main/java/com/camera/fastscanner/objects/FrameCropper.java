@@ -0,0 +1,78 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.ImageProxy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copies a rectangle of a YUV_420_888 frame into an NV21 buffer. Only the rows and columns
+ * inside the rectangle are read, the rest of the frame is never touched.
+ * <p>
+ * The output buffer is reused between frames of the same crop size. This is safe because every
+ * worker of the {@link CodeAnalyser} has its own cropper and only takes a new frame once the
+ * previous one has been delivered.
+ */
+public class FrameCropper {
+
+    private byte[] nv21 = new byte[0];
+
+    /**
+     * @param crop left, top, right, bottom in buffer coordinates, all even.
+     * @return NV21 data of (right - left) x (bottom - top) pixels.
+     */
+    @NonNull
+    public byte[] crop(@NonNull ImageProxy imageProxy, @NonNull int[] crop) {
+        int width = crop[2] - crop[0];
+        int height = crop[3] - crop[1];
+        int ySize = width * height;
+        int size = ySize + ySize / 2;
+        if (nv21.length != size) {
+            // Only happens when the window changes
+            nv21 = new byte[size];
+        }
+
+        ImageProxy.PlaneProxy[] planes = imageProxy.getPlanes();
+        copyNv21(planes[0].getBuffer(), planes[0].getRowStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                crop, nv21);
+
+        return nv21;
+    }
+
+    /**
+     * The copy itself, on plain buffers so it can be driven without a camera.
+     *
+     * @param y             luma plane, pixel stride 1
+     * @param u             chroma plane U, same layout as V
+     * @param v             chroma plane V
+     * @param uvRowStride   row stride of the chroma planes
+     * @param uvPixelStride pixel stride of the chroma planes, 1 (planar) or 2 (semi-planar)
+     * @param crop          left, top, right, bottom, all even
+     * @param nv21          receives the crop, at least 1.5 x width x height bytes
+     */
+    public static void copyNv21(@NonNull ByteBuffer y, int yRowStride,
+                                @NonNull ByteBuffer u, @NonNull ByteBuffer v, int uvRowStride, int uvPixelStride,
+                                @NonNull int[] crop, @NonNull byte[] nv21) {
+        int width = crop[2] - crop[0];
+
+        // Luma, row by row with bulk gets
+        int out = 0;
+        for (int row = crop[1]; row < crop[3]; row++) {
+            y.position(row * yRowStride + crop[0]);
+            y.get(nv21, out, width);
+            out += width;
+        }
+        y.rewind();
+
+        // Chroma, NV21 wants V and U interleaved at half resolution
+        for (int row = crop[1] / 2; row < crop[3] / 2; row++) {
+            int offset = row * uvRowStride + (crop[0] / 2) * uvPixelStride;
+            for (int col = 0; col < width / 2; col++) {
+                nv21[out++] = v.get(offset);
+                nv21[out++] = u.get(offset);
+                offset += uvPixelStride;
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Frames arriving from the camera and the interval between them, whether they get decoded or not.
+ */
+public class FrameMetrics {
+
+    private final LatencyHistogram intervals = new LatencyHistogram();
+    private long lastFrameNanos = -1;
+    private long frames;
+
+    public synchronized void frameArrived(long nowNanos) {
+        if (lastFrameNanos >= 0) {
+            intervals.recordNanos(nowNanos - lastFrameNanos);
+        }
+        lastFrameNanos = nowNanos;
+        frames++;
+    }
+
+    /**
+     * The gap while the camera was stopped is not a frame interval.
+     */
+    public synchronized void cameraStarted() {
+        lastFrameNanos = -1;
+    }
+
+    public synchronized void reset() {
+        intervals.clear();
+        lastFrameNanos = -1;
+        frames = 0;
+    }
+
+    @NonNull
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(frames, intervals.percentileMicros(0.5), intervals.percentileMicros(0.99));
+    }
+
+    public static class Snapshot {
+        public final long frames;
+        public final long frameIntervalP50Micros;
+        public final long frameIntervalP99Micros;
+
+        Snapshot(long frames, long frameIntervalP50Micros, long frameIntervalP99Micros) {
+            this.frames = frames;
+            this.frameIntervalP50Micros = frameIntervalP50Micros;
+            this.frameIntervalP99Micros = frameIntervalP99Micros;
+        }
+
+        public void writeJson(@NonNull MetricsJson json) {
+            json.put("frames", frames)
+                    .put("frameIntervalP50Us", frameIntervalP50Micros)
+                    .put("frameIntervalP99Us", frameIntervalP99Micros);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Puts frames decoded by several workers back into the order they were captured in.
+ * <p>
+ * Every frame takes a sequence number from {@link #begin(long)} when it is handed to a worker and
+ * comes back through {@link #complete(long, Object, long)}. A frame is delivered once all older
+ * frames have been delivered or given up on. An older frame that is still decoding holds the
+ * newer ones back for about {@link #MAX_HOLD_MS} at most, then it is skipped. When it comes back
+ * after all it is stale and goes to {@link Sink#dropped(Object)} instead, so results never go back
+ * in time.
+ * <p>
+ * Sink methods are called with the lock of the reorderer held, one at a time.
+ *
+ * @param <T> whatever describes a decoded frame
+ */
+public class FrameReorderer<T> {
+
+    // Newer frames wait at most this long for an older one, about two frames at 30 fps
+    private static final long MAX_HOLD_MS = 70;
+
+    public interface Sink<T> {
+        void deliver(@NonNull T item);
+
+        void dropped(@NonNull T item);
+    }
+
+    private final Sink<T> sink;
+    private final Object[] held;
+    private final long[] heldSince;
+    // Oldest sequence neither delivered nor skipped
+    private long next;
+    // Sequence the next frame gets
+    private long issued;
+    private long stale;
+
+    /**
+     * @param capacity most frames decoding at the same time
+     */
+    public FrameReorderer(int capacity, @NonNull Sink<T> sink) {
+        this.sink = sink;
+        held = new Object[capacity];
+        heldSince = new long[capacity];
+    }
+
+    /**
+     * A frame goes to a worker.
+     *
+     * @return its sequence number
+     */
+    public synchronized long begin(long nowMillis) {
+        if (issued - next >= held.length) {
+            // Full, the oldest one is not coming back in time
+            skipHead(nowMillis, true);
+        }
+        drain(nowMillis);
+        return issued++;
+    }
+
+    /**
+     * Deliver frames that have waited long enough for an older one. Call regularly, e.g. for every
+     * camera frame, so they do not wait for the next frame to complete.
+     */
+    public synchronized void poll(long nowMillis) {
+        drain(nowMillis);
+    }
+
+    /**
+     * A frame came back from its worker.
+     */
+    public synchronized void complete(long sequence, @NonNull T item, long nowMillis) {
+        if (sequence < next) {
+            stale++;
+            sink.dropped(item);
+            return;
+        }
+        int index = (int) (sequence % held.length);
+        held[index] = item;
+        heldSince[index] = nowMillis;
+        drain(nowMillis);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drain(long nowMillis) {
+        while (next < issued) {
+            int index = (int) (next % held.length);
+            T item = (T) held[index];
+            if (item == null) {
+                if (!skipHead(nowMillis, false)) {
+                    return;
+                }
+                continue;
+            }
+            held[index] = null;
+            next++;
+            sink.deliver(item);
+        }
+    }
+
+    /**
+     * Give up on the frame at the head if a newer one has waited for it too long.
+     *
+     * @return true if it was skipped.
+     */
+    private boolean skipHead(long nowMillis, boolean force) {
+        if (held[(int) (next % held.length)] != null) {
+            // Came back already, deliver it instead
+            drain(nowMillis);
+            return true;
+        }
+        long oldestWait = -1;
+        for (long sequence = next + 1; sequence < issued; sequence++) {
+            int index = (int) (sequence % held.length);
+            if (held[index] != null) {
+                oldestWait = Math.max(oldestWait, nowMillis - heldSince[index]);
+            }
+        }
+        if (!force && oldestWait < MAX_HOLD_MS) {
+            return false;
+        }
+        next++;
+        return true;
+    }
+
+    /**
+     * Forget all frames, e.g. when the camera restarts. Frames still decoding come back stale.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < held.length; i++) {
+            @SuppressWarnings("unchecked")
+            T item = (T) held[i];
+            held[i] = null;
+            if (item != null) {
+                sink.dropped(item);
+            }
+        }
+        next = issued;
+    }
+
+    /**
+     * Frames dropped because they came back after newer frames had been delivered.
+     */
+    public synchronized long getStaleCount() {
+        return stale;
+    }
+}
@@ -0,0 +1,200 @@
+package com.camera.fastscanner.objects;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.ImageAnalysis;
+import androidx.camera.core.ImageProxy;
+
+/**
+ * Sits in front of the {@link CodeAnalyser} and decides which frames get decoded.
+ * <p>
+ * At most one frame per worker of the analyser is decoded at a time, one by default. Anything
+ * arriving while all workers are busy is closed straight away. When decoding is slower than the
+ * camera delivers frames, the frame that waited during the decode is skipped so the next decode
+ * works on a fresh one. When nothing has been found for a while the analysis rate is lowered until
+ * a code shows up again. Frames the analyser's presence filter keeps from the decoder finish early
+ * and do not count towards the decode time.
+ * <p>
+ * Every {@link ImageProxy} handed in is closed, either here or by the analyser.
+ */
+public class FrameScheduler implements ImageAnalysis.Analyzer, CodeAnalyser.FrameListener {
+
+    // Weight of the newest sample in the moving averages
+    private static final double AVERAGE_WEIGHT = 0.2;
+    // A decode that has not reported back after this long is considered lost
+    private static final long LEAK_TIMEOUT_MS = 2000;
+    // Without a result for this long the scene is considered idle
+    private static final long IDLE_AFTER_MS = 3000;
+    // Minimum gap between decodes while idle, about 5 frames per second
+    private static final long IDLE_INTERVAL_MS = 200;
+
+    private final CodeAnalyser mAnalyser;
+    private final ScanMetrics mMetrics;
+
+    private int mWorkers = 1;
+    private int mInFlight;
+    // Last time a frame was admitted or finished, nothing happening for long means one got lost
+    private long mLastProgress;
+    private long mNextAllowed;
+    private long mLastFrame;
+    private long mLastResult;
+    private double mAverageDecodeMs;
+    private double mAverageIntervalMs;
+
+    private long mDecoded;
+    private long mSkipped;
+    private long mDropped;
+    private long mLeaked;
+
+    public FrameScheduler(@NonNull CodeAnalyser analyser, @NonNull ScanMetrics metrics) {
+        mAnalyser = analyser;
+        mMetrics = metrics;
+        mAnalyser.setFrameListener(this);
+        mLastResult = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Decode up to this many frames at the same time, see {@link CodeAnalyser#setWorkers(int)}.
+     * Frames decoding at the time are given up on.
+     */
+    public void setWorkers(int workers) {
+        if (Math.max(1, workers) == getWorkers()) {
+            return;
+        }
+        // Outside the lock, the analyser reports dropped frames back here
+        mAnalyser.setWorkers(workers);
+        synchronized (this) {
+            mWorkers = mAnalyser.getWorkers();
+            mInFlight = 0;
+        }
+        mMetrics.workersChanged(mWorkers);
+    }
+
+    public synchronized int getWorkers() {
+        return mWorkers;
+    }
+
+    @Override
+    public void analyze(@NonNull ImageProxy imageProxy) {
+        mMetrics.frameArrived(System.nanoTime());
+        long now = SystemClock.elapsedRealtime();
+        // Frames held back for an older one need not wait for the next decode to finish
+        mAnalyser.poll(now);
+        if (!admit(now)) {
+            mMetrics.frameDropped();
+            imageProxy.close();
+            return;
+        }
+        mAnalyser.analyze(imageProxy);
+    }
+
+    private synchronized boolean admit(long now) {
+        if (mLastFrame != 0) {
+            mAverageIntervalMs = average(mAverageIntervalMs, now - mLastFrame);
+        }
+        mLastFrame = now;
+
+        if (mInFlight >= mWorkers) {
+            if (now - mLastProgress < LEAK_TIMEOUT_MS) {
+                mDropped++;
+                return false;
+            }
+            // A frame never came back, do not let it block analysis forever.
+            mLeaked++;
+            mInFlight--;
+        }
+        if (now < mNextAllowed) {
+            mDropped++;
+            return false;
+        }
+        mInFlight++;
+        mLastProgress = now;
+        return true;
+    }
+
+    @Override
+    public synchronized void frameFinished(boolean found, boolean skipped, long startNanos) {
+        if (mInFlight == 0) {
+            // Already written off as leaked
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long nowNanos = System.nanoTime();
+        mInFlight--;
+        mLastProgress = now;
+        if (skipped) {
+            mSkipped++;
+        } else {
+            mDecoded++;
+            mAverageDecodeMs = average(mAverageDecodeMs, (nowNanos - startNanos) / 1_000_000);
+            mMetrics.frameDecoded(nowNanos - startNanos, nowNanos);
+        }
+        mMetrics.frameSearched(found, nowNanos);
+        if (found) {
+            mLastResult = now;
+        }
+
+        if (now - mLastResult > IDLE_AFTER_MS) {
+            mNextAllowed = now + IDLE_INTERVAL_MS;
+        } else if (mAverageDecodeMs / mWorkers > mAverageIntervalMs) {
+            // Whatever frame is waiting was captured during the decode, skip it.
+            mNextAllowed = now + (long) (mAverageIntervalMs / 2);
+        } else {
+            mNextAllowed = now;
+        }
+    }
+
+    @Override
+    public void framePrefiltered(long filterNanos, boolean present, boolean decoded, boolean found) {
+        mMetrics.framePrefiltered(filterNanos, present, decoded, found);
+    }
+
+    @Override
+    public synchronized void framePaused() {
+        if (mInFlight == 0) {
+            return;
+        }
+        mInFlight--;
+        mLastProgress = SystemClock.elapsedRealtime();
+        // Not decoded, so no latency and no search time
+        mDropped++;
+        mMetrics.frameDropped();
+    }
+
+    private static double average(double average, long sample) {
+        return average == 0 ? sample : average + AVERAGE_WEIGHT * (sample - average);
+    }
+
+    /**
+     * Frames that went through the decoder.
+     */
+    public synchronized long getDecodedFrames() {
+        return mDecoded;
+    }
+
+    /**
+     * Frames the presence filter kept from the decoder.
+     */
+    public synchronized long getSkippedFrames() {
+        return mSkipped;
+    }
+
+    /**
+     * Frames closed without decoding, on purpose, including those that came in while paused.
+     */
+    public synchronized long getDroppedFrames() {
+        return mDropped;
+    }
+
+    /**
+     * Frames that never reported back from the decoder.
+     */
+    public synchronized long getLeakedFrames() {
+        return mLeaked;
+    }
+
+    public synchronized double getAverageDecodeMillis() {
+        return mAverageDecodeMs;
+    }
+}
@@ -0,0 +1,80 @@
+package com.camera.fastscanner.objects;
+
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of latencies in the style of HdrHistogram: values below 32 us are exact,
+ * above that every power of two is split into 16 buckets, which keeps the error under 6.25%.
+ * <p>
+ * Recording does not allocate. Not thread-safe, the recorder holding it synchronizes.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+    // Up to 2^31 us, a little over half an hour
+    private static final int MAX_EXPONENT = 31;
+    private static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - SUB_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+
+    public void recordNanos(long nanos) {
+        counts[bucket(nanos / 1000)]++;
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Upper edge of the bucket the fraction of values falls in, in microseconds, 0 while empty.
+     */
+    public long percentileMicros(double fraction) {
+        long total = getTotal();
+        if (total == 0) {
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(total * fraction));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= wanted) {
+                return bucketLimit(i);
+            }
+        }
+        return bucketLimit(counts.length - 1);
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+    }
+
+    static int bucket(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Upper edge of a bucket, in microseconds.
+     */
+    static long bucketLimit(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BITS + 1;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+}
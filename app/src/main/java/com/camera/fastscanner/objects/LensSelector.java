@@ -0,0 +1,214 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Picks the back camera to scan with, and switches to another one while the current one cannot
+ * focus on the code in front of it.
+ * <p>
+ * Lenses are ranked by how close they focus, then by field of view and by the largest frame they
+ * deliver for analysis. Close focus counts most: codes are often held closer than the minimum
+ * focus distance of a phone's main camera. A field of view near a normal lens beats ultra wide and
+ * tele. Lenses that cannot deliver analysis frames of at least 640x480 are not used.
+ * <p>
+ * A lens is failing when nothing has been read for {@link #FAIL_MS} at the same zoom and autofocus
+ * failed meanwhile. Then the next lens in the ranking that focuses closer is tried. Without a read
+ * on it for {@link #RETURN_MS}, scanning goes back to the preferred lens.
+ */
+public class LensSelector {
+
+    // Analysis frames below this are too coarse for 1D codes
+    private static final long MIN_ANALYSIS_PIXELS = 640 * 480;
+    // Focusing closer than 10 cm does not help, codes are not held closer
+    private static final float MAX_DIOPTERS = 10F;
+    // Horizontal field of view of a normal lens, degrees
+    private static final float NORMAL_FOV = 70F;
+    // Frames larger than 1080p do not help either, they are cropped to the scan window
+    private static final long FULL_PIXELS = 1920 * 1080;
+    private static final float FOCUS_WEIGHT = 0.5F;
+    private static final float FOV_WEIGHT = 0.4F;
+    private static final float PIXELS_WEIGHT = 0.1F;
+
+    // Nothing read for this long at the same zoom, with a failed focus, means the lens cannot do it
+    private static final long FAIL_MS = 4000;
+    // Zoom changes larger than this start the failure time over, the zoom may still get there
+    private static final float ZOOM_TOLERANCE = 0.02F;
+    // Another lens is kept at least this long
+    private static final long MIN_SWITCH_MS = 8000;
+    // On another lens without a read for this long
+    private static final long RETURN_MS = 10_000;
+
+    /**
+     * What a lens can do, from its camera characteristics.
+     */
+    public static class Lens {
+        private final String id;
+        private final float minFocusDiopters;
+        private final float fieldOfView;
+        private final long analysisPixels;
+
+        /**
+         * @param minFocusDiopters 1 / minimum focus distance in metres, 0 for fixed focus
+         * @param fieldOfView      horizontal, degrees, 0 if unknown
+         * @param analysisPixels   largest YUV frame the lens delivers
+         */
+        public Lens(@NonNull String id, float minFocusDiopters, float fieldOfView, long analysisPixels) {
+            this.id = id;
+            this.minFocusDiopters = minFocusDiopters;
+            this.fieldOfView = fieldOfView;
+            this.analysisPixels = analysisPixels;
+        }
+
+        @NonNull
+        public String getId() {
+            return id;
+        }
+
+        public float getMinFocusDiopters() {
+            return minFocusDiopters;
+        }
+    }
+
+    private final List<Lens> lenses = new ArrayList<>();
+    private int preferred;
+    private int current;
+    private long failStart = -1;
+    private float failZoom;
+    private long focusFailedAt = -1;
+    private long switchedAt = Long.MIN_VALUE / 2;
+    private long readAt = Long.MIN_VALUE / 2;
+    private long switches;
+
+    /**
+     * Usable lenses, best first. The order of equally good lenses is kept.
+     */
+    @NonNull
+    public static List<Lens> rank(@NonNull List<Lens> candidates) {
+        List<Lens> ranked = new ArrayList<>();
+        for (Lens lens : candidates) {
+            if (lens.analysisPixels >= MIN_ANALYSIS_PIXELS) {
+                ranked.add(lens);
+            }
+        }
+        // Stable, the camera listed first is usually the main one
+        Collections.sort(ranked, (a, b) -> Float.compare(score(b), score(a)));
+        return ranked;
+    }
+
+    static float score(Lens lens) {
+        float focus = Math.min(lens.minFocusDiopters, MAX_DIOPTERS) / MAX_DIOPTERS;
+        float fov = lens.fieldOfView > 0
+                ? 1F - Math.min((float) Math.abs(Math.log(lens.fieldOfView / NORMAL_FOV)), 1F)
+                : 0.5F;
+        float pixels = Math.min(lens.analysisPixels, FULL_PIXELS) / (float) FULL_PIXELS;
+        return FOCUS_WEIGHT * focus + FOV_WEIGHT * fov + PIXELS_WEIGHT * pixels;
+    }
+
+    /**
+     * The lenses to choose from, ranked, and the one bound now.
+     *
+     * @param preferredId lens to go back to, the first one if null or not in the list
+     */
+    public synchronized void setLenses(@NonNull List<Lens> ranked, @Nullable String preferredId) {
+        lenses.clear();
+        lenses.addAll(ranked);
+        preferred = Math.max(0, indexOf(preferredId));
+        current = preferred;
+        failStart = -1;
+        focusFailedAt = -1;
+    }
+
+    /**
+     * The lens to bind when the camera starts, null if there is none to choose from.
+     */
+    @Nullable
+    public synchronized String getPreferredId() {
+        return lenses.isEmpty() ? null : lenses.get(preferred).id;
+    }
+
+    private int indexOf(String id) {
+        for (int i = 0; i < lenses.size(); i++) {
+            if (lenses.get(i).id.equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Autofocus on the current lens failed.
+     */
+    public synchronized void focusFailed(long nowMillis) {
+        focusFailedAt = nowMillis;
+    }
+
+    /**
+     * Feed the outcome of a decoded frame.
+     *
+     * @return id of the lens to switch to, or null to stay.
+     */
+    @Nullable
+    public synchronized String frameDecoded(boolean found, float zoomRatio, long nowMillis) {
+        if (lenses.size() < 2) {
+            return null;
+        }
+        if (found) {
+            readAt = nowMillis;
+            failStart = -1;
+            return null;
+        }
+        if (failStart < 0 || Math.abs(zoomRatio / failZoom - 1F) > ZOOM_TOLERANCE) {
+            failStart = nowMillis;
+            failZoom = zoomRatio;
+        }
+        if (nowMillis - switchedAt < MIN_SWITCH_MS) {
+            return null;
+        }
+        if (current != preferred) {
+            return nowMillis - Math.max(readAt, switchedAt) >= RETURN_MS ? lenses.get(preferred).id : null;
+        }
+        // A fixed focus lens never focuses, that says nothing about the distance
+        Lens lens = lenses.get(current);
+        if (lens.minFocusDiopters <= 0 || focusFailedAt < failStart || nowMillis - failStart < FAIL_MS) {
+            return null;
+        }
+        for (int i = 0; i < lenses.size(); i++) {
+            if (i != current && lenses.get(i).minFocusDiopters > lens.minFocusDiopters) {
+                return lenses.get(i).id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The camera was bound to this lens.
+     */
+    public synchronized void switched(@NonNull String id, long nowMillis) {
+        int index = indexOf(id);
+        if (index < 0 || index == current) {
+            return;
+        }
+        current = index;
+        switchedAt = nowMillis;
+        failStart = -1;
+        focusFailedAt = -1;
+        switches++;
+    }
+
+    /**
+     * The lens bound now, null if there is none to choose from.
+     */
+    @Nullable
+    public synchronized String getCurrentId() {
+        return lenses.isEmpty() ? null : lenses.get(current).id;
+    }
+
+    public synchronized long getSwitches() {
+        return switches;
+    }
+}
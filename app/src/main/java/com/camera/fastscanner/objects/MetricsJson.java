@@ -0,0 +1,48 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Builds the flat JSON object the fleet dashboards ingest, one field after the other. Every part
+ * of {@link ScanMetrics} writes its own fields.
+ */
+public class MetricsJson {
+
+    private final StringBuilder json = new StringBuilder("{");
+
+    @NonNull
+    public MetricsJson put(@NonNull String name, long value) {
+        name(name).append(value);
+        return this;
+    }
+
+    /**
+     * Rates, with two decimals.
+     */
+    @NonNull
+    public MetricsJson put(@NonNull String name, double value) {
+        name(name).append(String.format(Locale.US, "%.2f", value));
+        return this;
+    }
+
+    @NonNull
+    public MetricsJson put(@NonNull String name, boolean value) {
+        name(name).append(value);
+        return this;
+    }
+
+    private StringBuilder name(String name) {
+        if (json.length() > 1) {
+            json.append(',');
+        }
+        return json.append('"').append(name).append("\":");
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return json + "}";
+    }
+}
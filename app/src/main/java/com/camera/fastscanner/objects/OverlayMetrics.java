@@ -0,0 +1,64 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The cost of drawing the live overlay, and the frame time it achieves while animating.
+ */
+public class OverlayMetrics {
+
+    // Draws further apart than this are not one animation, the gap is not a frame time
+    private static final long MAX_INTERVAL_NANOS = 100_000_000L;
+
+    private final LatencyHistogram drawTimes = new LatencyHistogram();
+    private final LatencyHistogram intervals = new LatencyHistogram();
+    private long lastDrawNanos = -1;
+
+    /**
+     * The overlay drew itself, taking drawNanos on the UI thread.
+     */
+    public synchronized void overlayDrawn(long drawNanos, long nowNanos) {
+        drawTimes.recordNanos(drawNanos);
+        if (lastDrawNanos >= 0 && nowNanos - lastDrawNanos <= MAX_INTERVAL_NANOS) {
+            intervals.recordNanos(nowNanos - lastDrawNanos);
+        }
+        lastDrawNanos = nowNanos;
+    }
+
+    public synchronized void reset() {
+        drawTimes.clear();
+        intervals.clear();
+        lastDrawNanos = -1;
+    }
+
+    @NonNull
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(drawTimes.getTotal(), drawTimes.percentileMicros(0.5), drawTimes.percentileMicros(0.99),
+                intervals.percentileMicros(0.5), intervals.percentileMicros(0.99));
+    }
+
+    public static class Snapshot {
+        public final long overlayDraws;
+        public final long overlayDrawP50Micros;
+        public final long overlayDrawP99Micros;
+        public final long overlayFrameP50Micros;
+        public final long overlayFrameP99Micros;
+
+        Snapshot(long overlayDraws, long overlayDrawP50Micros, long overlayDrawP99Micros,
+                 long overlayFrameP50Micros, long overlayFrameP99Micros) {
+            this.overlayDraws = overlayDraws;
+            this.overlayDrawP50Micros = overlayDrawP50Micros;
+            this.overlayDrawP99Micros = overlayDrawP99Micros;
+            this.overlayFrameP50Micros = overlayFrameP50Micros;
+            this.overlayFrameP99Micros = overlayFrameP99Micros;
+        }
+
+        public void writeJson(@NonNull MetricsJson json) {
+            json.put("overlayDraws", overlayDraws)
+                    .put("overlayDrawP50Us", overlayDrawP50Micros)
+                    .put("overlayDrawP99Us", overlayDrawP99Micros)
+                    .put("overlayFrameP50Us", overlayFrameP50Micros)
+                    .put("overlayFrameP99Us", overlayFrameP99Micros);
+        }
+    }
+}
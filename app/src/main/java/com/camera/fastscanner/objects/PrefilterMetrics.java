@@ -0,0 +1,92 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+/**
+ * What the presence filter costs, saves and misses.
+ */
+public class PrefilterMetrics {
+
+    private final LatencyHistogram filterTimes = new LatencyHistogram();
+    private long filterNanos;
+    private long prefiltered;
+    private long skipped;
+    private long sampled;
+    private long missedReads;
+
+    /**
+     * A frame went through the presence filter. A frame the filter found empty is decoded anyway
+     * now and then; codes found in it are reads the filter would have missed.
+     *
+     * @param decoded whether the frame went on to the decoder
+     */
+    public synchronized void framePrefiltered(long filterNanos, boolean present, boolean decoded, boolean found) {
+        filterTimes.recordNanos(filterNanos);
+        this.filterNanos += filterNanos;
+        prefiltered++;
+        if (!decoded) {
+            skipped++;
+        } else if (!present) {
+            sampled++;
+            if (found) {
+                missedReads++;
+            }
+        }
+    }
+
+    public synchronized void reset() {
+        filterTimes.clear();
+        filterNanos = 0;
+        prefiltered = 0;
+        skipped = 0;
+        sampled = 0;
+        missedReads = 0;
+    }
+
+    /**
+     * @param averageDecodeNanos what each skipped frame would have taken to decode
+     */
+    @NonNull
+    public synchronized Snapshot snapshot(long averageDecodeNanos) {
+        return new Snapshot(prefiltered, skipped, filterTimes.percentileMicros(0.5),
+                filterTimes.percentileMicros(0.99), sampled, missedReads, filterNanos / 1_000_000,
+                skipped * averageDecodeNanos / 1_000_000);
+    }
+
+    public static class Snapshot {
+        // Frames through the filter, those it kept from the decoder and its latency
+        public final long prefilteredFrames;
+        public final long skippedFrames;
+        public final long prefilterP50Micros;
+        public final long prefilterP99Micros;
+        // Frames the filter found empty but were decoded anyway, and those with codes in them
+        public final long sampledFrames;
+        public final long missedReads;
+        // Wall time spent filtering, and the decode time skipped frames would have taken
+        public final long prefilterMillis;
+        public final long savedDecodeMillis;
+
+        Snapshot(long prefilteredFrames, long skippedFrames, long prefilterP50Micros, long prefilterP99Micros,
+                 long sampledFrames, long missedReads, long prefilterMillis, long savedDecodeMillis) {
+            this.prefilteredFrames = prefilteredFrames;
+            this.skippedFrames = skippedFrames;
+            this.prefilterP50Micros = prefilterP50Micros;
+            this.prefilterP99Micros = prefilterP99Micros;
+            this.sampledFrames = sampledFrames;
+            this.missedReads = missedReads;
+            this.prefilterMillis = prefilterMillis;
+            this.savedDecodeMillis = savedDecodeMillis;
+        }
+
+        public void writeJson(@NonNull MetricsJson json) {
+            json.put("prefilteredFrames", prefilteredFrames)
+                    .put("skippedFrames", skippedFrames)
+                    .put("prefilterP50Us", prefilterP50Micros)
+                    .put("prefilterP99Us", prefilterP99Micros)
+                    .put("sampledFrames", sampledFrames)
+                    .put("missedReads", missedReads)
+                    .put("prefilterMs", prefilterMillis)
+                    .put("savedDecodeMs", savedDecodeMillis);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.camera.fastscanner.objects;
+
+import java.util.Arrays;
+
+/**
+ * Counts events per second, averaged over the last {@link #SECONDS} whole seconds. Does not
+ * allocate. Not thread-safe, the recorder holding it synchronizes.
+ */
+public class RateCounter {
+
+    public static final int SECONDS = 8;
+    private static final long SECOND_NANOS = 1_000_000_000L;
+
+    private final long[] seconds = new long[SECONDS];
+    private final long[] counts = new long[SECONDS];
+
+    public void count(long nowNanos) {
+        long second = nowNanos / SECOND_NANOS;
+        int slot = (int) (second % SECONDS);
+        if (seconds[slot] != second) {
+            seconds[slot] = second;
+            counts[slot] = 0;
+        }
+        counts[slot]++;
+    }
+
+    /**
+     * Average per second over the last whole seconds, the current one is still filling up.
+     */
+    public double perSecond(long nowNanos) {
+        long current = nowNanos / SECOND_NANOS;
+        long recent = 0;
+        for (int i = 0; i < SECONDS; i++) {
+            if (seconds[i] < current && seconds[i] >= current - SECONDS) {
+                recent += counts[i];
+            }
+        }
+        return (double) recent / SECONDS;
+    }
+
+    public void clear() {
+        Arrays.fill(seconds, 0);
+        Arrays.fill(counts, 0);
+    }
+}
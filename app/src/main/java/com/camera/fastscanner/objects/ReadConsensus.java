@@ -0,0 +1,249 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import java.util.Arrays;
+
+/**
+ * Holds back values read from a code until enough frames agree on them, so a damaged 1D code that
+ * decodes wrong once in a while does not get published.
+ * <p>
+ * Reads are grouped into tracks by where the code is in the frame, like {@link BarcodeTracker}
+ * does. Every track keeps the last few values read there, and a value is accepted once it has been
+ * read {@link #setRequiredReads(int, int) the required number of times} within
+ * {@link #WINDOW_NANOS}. From then on it passes straight away while its track lives. Formats with
+ * Reed-Solomon error correction (QR, Data Matrix, Aztec, PDF417) are accepted on the first read by
+ * default, misreads get caught by their checks already. Which formats are scanned for at all is
+ * set in {@code R.array.scan_formats}, see
+ * {@link com.camera.fastscanner.viewmodel.ScanViewModel#scanFormats(android.content.Context)}.
+ * <p>
+ * Everything lives in preallocated primitive arrays, reading does not allocate.
+ */
+public class ReadConsensus {
+
+    // Agreeing reads needed for formats without a strong check, unless set otherwise
+    public static final int DEFAULT_READS = 2;
+    // Upper limit of required reads, that many read times are kept per value
+    public static final int MAX_READS = 8;
+
+    // Required reads must fall within this, and a track ends after this long without a read
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+    private static final int MAX_TRACKS = 8;
+    // Codes without a box all go into this extra track
+    private static final int UNPLACED = MAX_TRACKS;
+    // Values kept per track, the one seen least recently makes room
+    private static final int VALUES = 4;
+    // Boxes further apart than this many box sizes are different codes
+    private static final float MATCH_DISTANCE = 1.5F;
+    // Formats are single bits, one entry per bit
+    private static final int FORMAT_BITS = 32;
+
+    private final ScanMetrics metrics;
+    private final int[] requiredReads = new int[FORMAT_BITS];
+    private int defaultReads = DEFAULT_READS;
+
+    // Per track
+    private final float[] centerX = new float[MAX_TRACKS + 1];
+    private final float[] centerY = new float[MAX_TRACKS + 1];
+    private final float[] size = new float[MAX_TRACKS + 1];
+    private final long[] trackSeen = new long[MAX_TRACKS + 1];
+    // Per value of a track, at track * VALUES + value
+    private final long[] keys = new long[(MAX_TRACKS + 1) * VALUES];
+    private final int[] reads = new int[(MAX_TRACKS + 1) * VALUES];
+    private final long[] valueSeen = new long[(MAX_TRACKS + 1) * VALUES];
+    private final boolean[] accepted = new boolean[(MAX_TRACKS + 1) * VALUES];
+    // Times of the last reads of every value, a ring of MAX_READS each
+    private final long[] readTimes = new long[(MAX_TRACKS + 1) * VALUES * MAX_READS];
+
+    private long acceptedValues;
+    private long unconfirmedValues;
+
+    public ReadConsensus(@NonNull ScanMetrics metrics) {
+        this.metrics = metrics;
+        Arrays.fill(requiredReads, -1);
+        setRequiredReads(Barcode.FORMAT_QR_CODE, 1);
+        setRequiredReads(Barcode.FORMAT_DATA_MATRIX, 1);
+        setRequiredReads(Barcode.FORMAT_AZTEC, 1);
+        setRequiredReads(Barcode.FORMAT_PDF417, 1);
+        reset();
+    }
+
+    /**
+     * Agreeing reads a value of this format needs, 1 accepts every read.
+     *
+     * @param format a single {@code Barcode.FORMAT_*}
+     */
+    public synchronized void setRequiredReads(int format, int reads) {
+        if (format <= 0 || Integer.bitCount(format) != 1) {
+            throw new IllegalArgumentException("One format at a time.");
+        }
+        requiredReads[Integer.numberOfTrailingZeros(format)] = clampReads(reads);
+    }
+
+    /**
+     * Agreeing reads for every format not set with {@link #setRequiredReads(int, int)}.
+     */
+    public synchronized void setDefaultReads(int reads) {
+        defaultReads = clampReads(reads);
+    }
+
+    private static int clampReads(int reads) {
+        return Math.max(1, Math.min(reads, MAX_READS));
+    }
+
+    public synchronized int getRequiredReads(int format) {
+        if (format <= 0 || Integer.bitCount(format) != 1) {
+            return defaultReads;
+        }
+        int reads = requiredReads[Integer.numberOfTrailingZeros(format)];
+        return reads > 0 ? reads : defaultReads;
+    }
+
+    /**
+     * Feed one code read from a frame.
+     *
+     * @param key       identifies the value, see {@link DedupCache#key}
+     * @param placed    whether the position is known, x, y and codeSize are ignored if not
+     * @param codeSize  larger side of the code's box, same unit as x and y
+     * @param timestamp frame timestamp in nanoseconds
+     * @return true if the value is accepted and can be published.
+     */
+    public synchronized boolean read(long key, int format, boolean placed, float x, float y, float codeSize,
+                                     long timestamp) {
+        int track = placed ? track(x, y, codeSize, timestamp) : UNPLACED;
+        if (placed) {
+            centerX[track] = x;
+            centerY[track] = y;
+            size[track] = codeSize;
+        } else if (timestamp - trackSeen[track] > WINDOW_NANOS) {
+            clearTrack(track);
+        }
+        trackSeen[track] = timestamp;
+
+        int value = value(track, key);
+        int ring = value * MAX_READS;
+        readTimes[ring + reads[value] % MAX_READS] = timestamp;
+        reads[value]++;
+        valueSeen[value] = timestamp;
+        if (accepted[value]) {
+            return true;
+        }
+
+        int required = getRequiredReads(format);
+        if (reads[value] < required) {
+            return false;
+        }
+        // The oldest of the last required reads
+        long first = readTimes[ring + (reads[value] - required) % MAX_READS];
+        if (timestamp - first > WINDOW_NANOS) {
+            return false;
+        }
+        accepted[value] = true;
+        acceptedValues++;
+        if (required > 1) {
+            metrics.readConfirmed(timestamp - first);
+        }
+        return true;
+    }
+
+    /**
+     * The track a code at this position belongs to, a new one if none is near.
+     */
+    private int track(float x, float y, float codeSize, long timestamp) {
+        int nearest = -1;
+        float nearestDistance = Float.MAX_VALUE;
+        int free = -1;
+        for (int i = 0; i < MAX_TRACKS; i++) {
+            if (timestamp - trackSeen[i] > WINDOW_NANOS) {
+                // Ended, values it never confirmed are counted now rather than when it is reused
+                clearTrack(i);
+                if (free < 0 || trackSeen[i] < trackSeen[free]) {
+                    free = i;
+                }
+                continue;
+            }
+            float distance = (float) Math.hypot(x - centerX[i], y - centerY[i]);
+            if (distance <= MATCH_DISTANCE * Math.max(codeSize, size[i]) && distance < nearestDistance) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+        if (nearest >= 0) {
+            return nearest;
+        }
+        if (free < 0) {
+            // All busy, the one seen least recently goes
+            free = 0;
+            for (int i = 1; i < MAX_TRACKS; i++) {
+                if (trackSeen[i] < trackSeen[free]) {
+                    free = i;
+                }
+            }
+        }
+        clearTrack(free);
+        return free;
+    }
+
+    /**
+     * The slot of a value in a track, a new one if the value is not there.
+     */
+    private int value(int track, long key) {
+        int start = track * VALUES;
+        int oldest = start;
+        for (int i = start; i < start + VALUES; i++) {
+            if (reads[i] > 0 && keys[i] == key) {
+                return i;
+            }
+            if (reads[i] == 0) {
+                oldest = i;
+                break;
+            }
+            if (valueSeen[i] < valueSeen[oldest]) {
+                oldest = i;
+            }
+        }
+        clearValue(oldest);
+        keys[oldest] = key;
+        return oldest;
+    }
+
+    private void clearTrack(int track) {
+        for (int i = track * VALUES; i < (track + 1) * VALUES; i++) {
+            clearValue(i);
+        }
+    }
+
+    private void clearValue(int value) {
+        if (reads[value] > 0 && !accepted[value]) {
+            unconfirmedValues++;
+            metrics.readUnconfirmed();
+        }
+        reads[value] = 0;
+        accepted[value] = false;
+    }
+
+    /**
+     * Forget all tracks, e.g. when scanning starts over.
+     */
+    public synchronized void reset() {
+        Arrays.fill(reads, 0);
+        Arrays.fill(accepted, false);
+        Arrays.fill(trackSeen, Long.MIN_VALUE / 2);
+    }
+
+    /**
+     * Values that had enough agreeing reads.
+     */
+    public synchronized long getAcceptedValues() {
+        return acceptedValues;
+    }
+
+    /**
+     * Values read but never accepted, misreads among them.
+     */
+    public synchronized long getUnconfirmedValues() {
+        return unconfirmedValues;
+    }
+}
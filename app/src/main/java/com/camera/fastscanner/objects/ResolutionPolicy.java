@@ -0,0 +1,218 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+import com.camera.fastscanner.decoder.DecodedBarcode;
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+/**
+ * Decides the analysis resolution from how well codes are read at the current one.
+ * <p>
+ * Starts at the lowest tier, which decodes fastest. Steps up when codes come out with fewer than
+ * two pixels per module (narrowest bar or cell), or when a code keeps being read only now and
+ * then, i.e. it is in view but most frames fail to decode it. Steps back down after
+ * {@link #DOWN_AFTER_MS} of reads that would still have enough pixels one tier lower. Stepping
+ * up again soon after makes the next step down wait longer.
+ */
+public class ResolutionPolicy {
+
+    /**
+     * Width and height of every tier in sensor orientation, lowest first. 4:3 like the preview,
+     * so the analysis frame shows the same part of the scene at every tier.
+     */
+    public static final int[][] TIERS = {{640, 480}, {1280, 960}, {1920, 1440}};
+
+    // Fewer pixels than this across a module and decoding gets unreliable
+    private static final float MIN_PIXELS_PER_MODULE = 2F;
+    // Stepping down needs this much more than the minimum at the lower tier
+    private static final float DOWN_MARGIN = 1.5F;
+    // Small codes in this many reads in a row step up
+    private static final int SMALL_READS = 3;
+    // Reads closer together than this are the same code in view, failures between them count
+    private static final long IN_VIEW_MS = 1000;
+    // Frames of a code in view before its failure rate is judged
+    private static final int JUDGED_FRAMES = 20;
+    private static final long DOWN_AFTER_MS = 5000;
+    private static final long MAX_DOWN_AFTER_MS = 60_000;
+    // Nothing changes this soon after a change, frames at the new resolution take a moment
+    private static final long SETTLE_MS = 1500;
+    // Stepping up this soon after stepping down doubles the time before the next step down
+    private static final long BOUNCE_MS = 30_000;
+
+    private int tier;
+    private int smallReads;
+    // The code in view: reads, failed frames between reads, failed frames since the last read
+    private int inViewReads;
+    private int inViewMisses;
+    private int pendingMisses;
+    private long readAt = Long.MIN_VALUE / 2;
+    private long roomySince = -1;
+    private long changedAt = Long.MIN_VALUE / 2;
+    private long downAt = Long.MIN_VALUE / 2;
+    private long downAfter = DOWN_AFTER_MS;
+    private long ups;
+    private long downs;
+
+    /**
+     * Feed the outcome of a decoded frame.
+     *
+     * @param pixelsPerModule fewest pixels per module among the codes read, -1 if nothing was
+     *                        read or it cannot be told
+     * @return the tier to switch to, or -1 to stay.
+     */
+    public synchronized int frameDecoded(boolean found, float pixelsPerModule, long nowMillis) {
+        if (found) {
+            if (nowMillis - readAt > IN_VIEW_MS) {
+                // A new code, or the old one after a long gap
+                inViewReads = 0;
+                inViewMisses = 0;
+            } else {
+                inViewMisses += pendingMisses;
+            }
+            pendingMisses = 0;
+            inViewReads++;
+            readAt = nowMillis;
+
+            smallReads = pixelsPerModule > 0 && pixelsPerModule < MIN_PIXELS_PER_MODULE ? smallReads + 1 : 0;
+            boolean roomy = tier > 0 && pixelsPerModule > 0 && pixelsPerModule * TIERS[tier - 1][0] / TIERS[tier][0]
+                    >= MIN_PIXELS_PER_MODULE * DOWN_MARGIN;
+            if (!roomy) {
+                roomySince = -1;
+            } else if (roomySince < 0) {
+                roomySince = nowMillis;
+            }
+        } else if (nowMillis - readAt <= IN_VIEW_MS) {
+            // Only counts if the code is read again, it may just have left the picture
+            pendingMisses++;
+        }
+
+        if (nowMillis - changedAt < SETTLE_MS) {
+            return -1;
+        }
+        boolean failing = inViewReads + inViewMisses >= JUDGED_FRAMES && inViewMisses > inViewReads;
+        if ((smallReads >= SMALL_READS || failing) && tier < TIERS.length - 1) {
+            if (nowMillis - downAt < BOUNCE_MS) {
+                downAfter = Math.min(downAfter * 2, MAX_DOWN_AFTER_MS);
+            }
+            ups++;
+            return change(tier + 1, nowMillis);
+        }
+        if (roomySince >= 0 && nowMillis - roomySince >= downAfter && inViewMisses <= inViewReads) {
+            downAt = nowMillis;
+            downs++;
+            return change(tier - 1, nowMillis);
+        }
+        return -1;
+    }
+
+    private int change(int newTier, long nowMillis) {
+        tier = newTier;
+        changedAt = nowMillis;
+        smallReads = 0;
+        inViewReads = 0;
+        inViewMisses = 0;
+        pendingMisses = 0;
+        roomySince = -1;
+        return tier;
+    }
+
+    public synchronized int getTier() {
+        return tier;
+    }
+
+    public synchronized long getStepsUp() {
+        return ups;
+    }
+
+    public synchronized long getStepsDown() {
+        return downs;
+    }
+
+    /**
+     * Pixels across the narrowest bar or cell of a code as decoded.
+     *
+     * @return -1 if the size of the code or its number of modules cannot be told.
+     */
+    public static float pixelsPerModule(@NonNull DecodedBarcode barcode) {
+        String value = barcode.getRawValue();
+        int modules = modules(barcode.getFormat(), value != null ? value : "");
+        if (modules <= 0) {
+            return -1;
+        }
+        // Width along the code as printed, the box of a code at an angle is wider than the code
+        float width;
+        int[] corners = barcode.getCorners();
+        if (corners != null) {
+            width = (float) Math.hypot(corners[2] - corners[0], corners[3] - corners[1]);
+        } else {
+            width = Math.max(barcode.getRight() - barcode.getLeft(), barcode.getBottom() - barcode.getTop());
+        }
+        return width > 0 ? width / modules : -1;
+    }
+
+    // QR byte capacity at error correction M, versions 1 to 20
+    private static final int[] QR_CAPACITY = {14, 26, 42, 62, 84, 106, 122, 152, 180, 213,
+            251, 287, 331, 362, 412, 450, 504, 560, 624, 666};
+    // Square Data Matrix sizes and their data codewords
+    private static final int[] DATA_MATRIX_SIZE = {10, 12, 14, 16, 18, 20, 22, 24, 26, 32, 36, 40,
+            44, 48, 52, 64, 72, 80, 88, 96, 104, 120, 132, 144};
+    private static final int[] DATA_MATRIX_CAPACITY = {3, 5, 8, 12, 18, 22, 30, 36, 44, 62, 86, 114,
+            144, 174, 204, 280, 368, 456, 576, 696, 816, 1050, 1304, 1558};
+
+    /**
+     * Modules across a code, estimated from its format and content, quiet zones left out.
+     *
+     * @return 0 for formats it cannot be told for.
+     */
+    static int modules(int format, @NonNull String value) {
+        int length = value.length();
+        boolean digits = isDigits(value);
+        switch (format) {
+            case Barcode.FORMAT_CODE_128:
+                // Start, check and stop; long digit runs are packed two to a symbol
+                return 11 * (digits && length >= 4 ? (length + 1) / 2 : length) + 35;
+            case Barcode.FORMAT_CODE_39:
+                return 16 * (length + 2) - 1;
+            case Barcode.FORMAT_CODE_93:
+                return 9 * (length + 4) + 1;
+            case Barcode.FORMAT_CODABAR:
+                return 12 * (length + 2);
+            case Barcode.FORMAT_ITF:
+                return 9 * length + 9;
+            case Barcode.FORMAT_EAN_13:
+            case Barcode.FORMAT_UPC_A:
+                return 95;
+            case Barcode.FORMAT_EAN_8:
+                return 67;
+            case Barcode.FORMAT_UPC_E:
+                return 51;
+            case Barcode.FORMAT_QR_CODE:
+                for (int version = 1; version <= QR_CAPACITY.length; version++) {
+                    if (length <= QR_CAPACITY[version - 1]) {
+                        return 17 + 4 * version;
+                    }
+                }
+                return 17 + 4 * 40;
+            case Barcode.FORMAT_DATA_MATRIX:
+                int codewords = digits ? (length + 1) / 2 : length;
+                for (int i = 0; i < DATA_MATRIX_SIZE.length; i++) {
+                    if (codewords <= DATA_MATRIX_CAPACITY[i]) {
+                        return DATA_MATRIX_SIZE[i];
+                    }
+                }
+                return DATA_MATRIX_SIZE[DATA_MATRIX_SIZE.length - 1];
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isDigits(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return !value.isEmpty();
+    }
+}
@@ -0,0 +1,274 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring of results with any number of subscribers, each reading at its own pace on its
+ * own thread.
+ * <p>
+ * There is one writer at a time ({@link #publish(Object)} must not be called concurrently) and no
+ * locks: entries carry their sequence number, every subscriber keeps its own cursor and notices
+ * by the sequence when it was lapped. What happens when a subscriber falls a whole ring behind is
+ * up to the subscriber: {@link #DROP_OLDEST} skips ahead and counts what it missed,
+ * {@link #BLOCK} holds the writer until it has caught up, which for the scanner means frames are
+ * dropped at the camera instead.
+ *
+ * @param <T> the results
+ */
+public class ResultRing<T> {
+
+    /**
+     * A subscriber that falls behind loses the oldest results.
+     */
+    public static final int DROP_OLDEST = 0;
+    /**
+     * The writer waits for the subscriber. It must keep reading or unsubscribe.
+     */
+    public static final int BLOCK = 1;
+
+    // How long the writer sleeps between looks at a blocking subscriber
+    private static final long BLOCK_PARK_NANOS = 100_000;
+
+    private final int mask;
+    private final AtomicReferenceArray<Entry<T>> entries;
+    private final AtomicReference<Subscriber<T>[]> subscribers;
+    // Sequence of the newest entry, -1 before the first
+    private volatile long cursor = -1;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity results kept, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public ResultRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = size - 1;
+        entries = new AtomicReferenceArray<>(size);
+        subscribers = new AtomicReference<>((Subscriber<T>[]) new Subscriber[0]);
+    }
+
+    /**
+     * Start receiving results published from now on.
+     *
+     * @param overflow  {@link #DROP_OLDEST} or {@link #BLOCK}
+     * @param onPublish run on the writer's thread after every result, e.g. to wake up a looper.
+     *                  Keep it short.
+     */
+    @NonNull
+    public Subscriber<T> subscribe(int overflow, @Nullable Runnable onPublish) {
+        Subscriber<T> subscriber = new Subscriber<>(this, overflow, onPublish, cursor + 1);
+        while (true) {
+            Subscriber<T>[] current = subscribers.get();
+            Subscriber<T>[] updated = copyOf(current, current.length + 1);
+            updated[current.length] = subscriber;
+            if (subscribers.compareAndSet(current, updated)) {
+                return subscriber;
+            }
+        }
+    }
+
+    private void unsubscribe(Subscriber<T> subscriber) {
+        while (true) {
+            Subscriber<T>[] current = subscribers.get();
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscriber) {
+                    index = i;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            Subscriber<T>[] updated = copyOf(current, current.length - 1);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            if (subscribers.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Subscriber<T>[] copyOf(Subscriber<T>[] source, int length) {
+        Subscriber<T>[] copy = (Subscriber<T>[]) new Subscriber[length];
+        System.arraycopy(source, 0, copy, 0, Math.min(source.length, length));
+        return copy;
+    }
+
+    /**
+     * Add a result. Blocks while a {@link #BLOCK} subscriber still has to read the entry that
+     * would be overwritten.
+     */
+    public void publish(@NonNull T item) {
+        if (closed) {
+            return;
+        }
+        long sequence = cursor + 1;
+        long wrap = sequence - entries.length();
+        Subscriber<T>[] current = subscribers.get();
+        for (Subscriber<T> subscriber : current) {
+            if (subscriber.overflow != BLOCK) {
+                continue;
+            }
+            while (subscriber.next <= wrap && !subscriber.unsubscribed && !closed) {
+                LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+            }
+        }
+        entries.set((int) (sequence & mask), new Entry<>(sequence, item));
+        cursor = sequence;
+        for (Subscriber<T> subscriber : current) {
+            subscriber.wake();
+        }
+    }
+
+    /**
+     * Results published so far.
+     */
+    public long getPublished() {
+        return cursor + 1;
+    }
+
+    /**
+     * Nothing is published any more, waiting subscribers return.
+     */
+    public void close() {
+        closed = true;
+        for (Subscriber<T> subscriber : subscribers.get()) {
+            subscriber.wake();
+        }
+    }
+
+    private static class Entry<T> {
+        final long sequence;
+        final T value;
+
+        Entry(long sequence, T value) {
+            this.sequence = sequence;
+            this.value = value;
+        }
+    }
+
+    /**
+     * One reader of the ring. Read from one thread at a time.
+     */
+    public static class Subscriber<T> {
+        private final ResultRing<T> ring;
+        private final int overflow;
+        private final Runnable onPublish;
+        // Sequence of the next result to read
+        private volatile long next;
+        private volatile Thread waiter;
+        private volatile boolean unsubscribed;
+        private volatile long dropped;
+
+        Subscriber(ResultRing<T> ring, int overflow, @Nullable Runnable onPublish, long next) {
+            this.ring = ring;
+            this.overflow = overflow;
+            this.onPublish = onPublish;
+            this.next = next;
+        }
+
+        /**
+         * The next result, or null if there is none yet.
+         */
+        @Nullable
+        public T poll() {
+            while (true) {
+                long sequence = next;
+                long newest = ring.cursor;
+                if (sequence > newest) {
+                    return null;
+                }
+                Entry<T> entry = ring.entries.get((int) (sequence & ring.mask));
+                if (entry != null && entry.sequence == sequence) {
+                    next = sequence + 1;
+                    return entry.value;
+                }
+                // Lapped by the writer, carry on with the oldest result still in the ring
+                long oldest = Math.max(sequence + 1, ring.cursor - ring.entries.length() + 1);
+                dropped += oldest - sequence;
+                next = oldest;
+            }
+        }
+
+        /**
+         * The next result, waiting for it if need be.
+         *
+         * @return null if the ring was closed or the subscriber unsubscribed meanwhile.
+         */
+        @Nullable
+        public T take() throws InterruptedException {
+            return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The next result, waiting at most the given time for it.
+         *
+         * @return null on timeout, or if the ring was closed or the subscriber unsubscribed.
+         */
+        @Nullable
+        public T poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+            while (true) {
+                T item = poll();
+                if (item != null) {
+                    return item;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (ring.closed || unsubscribed || remaining <= 0) {
+                    return null;
+                }
+                waiter = Thread.currentThread();
+                // Look again, a result published before the waiter was set would not wake us
+                if (next > ring.cursor && !ring.closed) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+                waiter = null;
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+
+        private void wake() {
+            Thread thread = waiter;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+            if (onPublish != null) {
+                onPublish.run();
+            }
+        }
+
+        /**
+         * Stop receiving results. A writer waiting for this subscriber carries on.
+         */
+        public void unsubscribe() {
+            unsubscribed = true;
+            ring.unsubscribe(this);
+            Thread thread = waiter;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        /**
+         * Results this subscriber missed because it fell behind, always 0 with {@link #BLOCK}.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * Results published but not read yet.
+         */
+        public long getBacklog() {
+            return Math.max(0, ring.cursor + 1 - next);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Numbers about the scan pipeline, one entry point for the camera, scheduler, overlay and view
+ * model to record into. Every group of numbers has its own recorder and snapshot:
+ * <ul>
+ * <li>{@link StartupMetrics}: time to the first result and from attaching a view to a frame</li>
+ * <li>{@link FrameMetrics}: frames from the camera and their interval</li>
+ * <li>{@link DecodeMetrics}: decode latency and throughput with the current number of workers</li>
+ * <li>{@link AcquireMetrics}: time to acquire a code</li>
+ * <li>{@link OverlayMetrics}: cost of drawing the live overlay</li>
+ * <li>{@link TierMetrics}: decode latency and rate per analysis resolution tier</li>
+ * <li>{@link PrefilterMetrics}: what the presence filter costs, saves and misses</li>
+ * <li>{@link ConsensusMetrics}: the latency consensus voting adds to reads</li>
+ * </ul>
+ * Recording only touches preallocated primitive arrays and never allocates, so it can be called
+ * for every frame. Reading goes through {@link #snapshot()}.
+ */
+public class ScanMetrics {
+
+    private final StartupMetrics startup = new StartupMetrics();
+    private final FrameMetrics frames = new FrameMetrics();
+    private final DecodeMetrics decode = new DecodeMetrics();
+    private final AcquireMetrics acquire = new AcquireMetrics();
+    private final OverlayMetrics overlay = new OverlayMetrics();
+    private final TierMetrics tiers = new TierMetrics();
+    private final PrefilterMetrics prefilter = new PrefilterMetrics();
+    private final ConsensusMetrics consensus = new ConsensusMetrics();
+
+    /**
+     * See {@link StartupMetrics#launched(long, boolean)}.
+     */
+    public void launched(long launchNanos, boolean prewarmed) {
+        startup.launched(launchNanos, prewarmed);
+    }
+
+    /**
+     * Camera was (re)started, time to first result is measured from here.
+     */
+    public void cameraStarted(long nowNanos) {
+        startup.cameraStarted(nowNanos);
+        frames.cameraStarted();
+        acquire.cameraStarted();
+    }
+
+    /**
+     * See {@link StartupMetrics#viewAttached(long, boolean)}.
+     */
+    public void viewAttached(long nowNanos, boolean cameraOpen) {
+        startup.viewAttached(nowNanos, cameraOpen);
+    }
+
+    /**
+     * A frame arrived from the camera, whether it will be decoded or not.
+     */
+    public void frameArrived(long nowNanos) {
+        startup.frameArrived(nowNanos);
+        frames.frameArrived(nowNanos);
+    }
+
+    public void frameDropped() {
+        decode.frameDropped();
+    }
+
+    public void frameDecoded(long latencyNanos, long nowNanos) {
+        decode.frameDecoded(latencyNanos, nowNanos);
+        tiers.frameDecoded(latencyNanos, nowNanos);
+    }
+
+    /**
+     * See {@link PrefilterMetrics#framePrefiltered(long, boolean, boolean, boolean)}.
+     */
+    public void framePrefiltered(long filterNanos, boolean present, boolean decoded, boolean found) {
+        prefilter.framePrefiltered(filterNanos, present, decoded, found);
+    }
+
+    /**
+     * See {@link ConsensusMetrics#readConfirmed(long)}.
+     */
+    public void readConfirmed(long delayNanos) {
+        consensus.readConfirmed(delayNanos);
+    }
+
+    public void readUnconfirmed() {
+        consensus.readUnconfirmed();
+    }
+
+    public void analysisTierChanged(int tier, long nowNanos) {
+        tiers.analysisTierChanged(tier, nowNanos);
+    }
+
+    /**
+     * Number of frames decoded at the same time changed. Decode throughput and the per tier decode
+     * rates start over, so they can be compared between worker counts. Startup, frame, overlay,
+     * presence filter and consensus numbers do not depend on it and are kept.
+     */
+    public void workersChanged(int workers) {
+        decode.workersChanged(workers);
+        tiers.reset();
+    }
+
+    /**
+     * See {@link AcquireMetrics#frameSearched(boolean, long)}.
+     */
+    public void frameSearched(boolean found, long nowNanos) {
+        acquire.frameSearched(found, nowNanos);
+    }
+
+    /**
+     * See {@link OverlayMetrics#overlayDrawn(long, long)}.
+     */
+    public void overlayDrawn(long drawNanos, long nowNanos) {
+        overlay.overlayDrawn(drawNanos, nowNanos);
+    }
+
+    public void resultPublished(long nowNanos) {
+        startup.resultPublished(nowNanos);
+        decode.resultPublished(nowNanos);
+    }
+
+    /**
+     * Discard everything but the launch.
+     */
+    public void reset() {
+        startup.reset();
+        frames.reset();
+        decode.reset();
+        acquire.reset();
+        overlay.reset();
+        tiers.reset();
+        prefilter.reset();
+        consensus.reset();
+    }
+
+    @NonNull
+    public Snapshot snapshot() {
+        return snapshot(System.nanoTime());
+    }
+
+    @NonNull
+    public Snapshot snapshot(long nowNanos) {
+        return new Snapshot(startup.snapshot(), frames.snapshot(), decode.snapshot(nowNanos), acquire.snapshot(),
+                overlay.snapshot(), tiers.snapshot(nowNanos), prefilter.snapshot(decode.averageDecodeNanos()),
+                consensus.snapshot());
+    }
+
+    /**
+     * Metrics at one point in time, a snapshot of every recorder.
+     */
+    public static class Snapshot {
+        public final StartupMetrics.Snapshot startup;
+        public final FrameMetrics.Snapshot frames;
+        public final DecodeMetrics.Snapshot decode;
+        public final AcquireMetrics.Snapshot acquire;
+        public final OverlayMetrics.Snapshot overlay;
+        public final TierMetrics.Snapshot tiers;
+        public final PrefilterMetrics.Snapshot prefilter;
+        public final ConsensusMetrics.Snapshot consensus;
+
+        Snapshot(StartupMetrics.Snapshot startup, FrameMetrics.Snapshot frames, DecodeMetrics.Snapshot decode,
+                 AcquireMetrics.Snapshot acquire, OverlayMetrics.Snapshot overlay, TierMetrics.Snapshot tiers,
+                 PrefilterMetrics.Snapshot prefilter, ConsensusMetrics.Snapshot consensus) {
+            this.startup = startup;
+            this.frames = frames;
+            this.decode = decode;
+            this.acquire = acquire;
+            this.overlay = overlay;
+            this.tiers = tiers;
+            this.prefilter = prefilter;
+            this.consensus = consensus;
+        }
+
+        /**
+         * Flat JSON object, as ingested by the fleet dashboards.
+         */
+        @NonNull
+        public String toJson() {
+            MetricsJson json = new MetricsJson();
+            frames.writeJson(json);
+            decode.writeJson(json);
+            startup.writeJson(json);
+            acquire.writeJson(json);
+            overlay.writeJson(json);
+            tiers.writeJson(json);
+            prefilter.writeJson(json);
+            consensus.writeJson(json);
+            return json.toString();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.camera.fastscanner.objects;
+
+/**
+ * The scan window the operator sees on the {@link com.camera.fastscanner.fragment.OverlayView},
+ * and the mapping of it into the coordinates of the analysis buffer.
+ * <p>
+ * The window is written from the UI thread and read from the analysis thread, hence the locking.
+ */
+public class ScanWindow {
+
+    /**
+     * Preview is scaled to fill the view and centre cropped (PreviewView FILL_CENTER).
+     */
+    public static final int SCALE_FILL = 0;
+    /**
+     * Preview is scaled to fit inside the view (PreviewView FIT_CENTER).
+     */
+    public static final int SCALE_FIT = 1;
+
+    private int viewWidth;
+    private int viewHeight;
+    private int left;
+    private int top;
+    private int right;
+    private int bottom;
+    private int scaleType = SCALE_FILL;
+
+    /**
+     * Update the window, in view pixels. Can be called at any time while analysis is running.
+     */
+    public synchronized void setViewWindow(int viewWidth, int viewHeight, int left, int top, int right, int bottom) {
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public synchronized void setScaleType(int scaleType) {
+        this.scaleType = scaleType;
+    }
+
+    /**
+     * Remove the window, frames are then analysed in full.
+     */
+    public synchronized void clear() {
+        viewWidth = 0;
+        viewHeight = 0;
+    }
+
+    /**
+     * Map the window into buffer coordinates of an analysis frame.
+     *
+     * @param imageWidth  width of the buffer as delivered by the camera (not rotated)
+     * @param imageHeight height of the buffer as delivered by the camera (not rotated)
+     * @param rotation    rotation in degrees needed to display the buffer upright
+     * @param out         receives left, top, right, bottom. Values are even so the crop lines up
+     *                    with the subsampled chroma planes.
+     * @return false if there is no window, or it does not cover any part of the frame.
+     */
+    public synchronized boolean mapToImage(int imageWidth, int imageHeight, int rotation, int[] out) {
+        if (viewWidth <= 0 || viewHeight <= 0 || right <= left || bottom <= top) {
+            return false;
+        }
+
+        boolean swapped = rotation == 90 || rotation == 270;
+        float uprightWidth = swapped ? imageHeight : imageWidth;
+        float uprightHeight = swapped ? imageWidth : imageHeight;
+
+        float scale = scaleType == SCALE_FIT
+                ? Math.min(viewWidth / uprightWidth, viewHeight / uprightHeight)
+                : Math.max(viewWidth / uprightWidth, viewHeight / uprightHeight);
+        float dx = (viewWidth - uprightWidth * scale) / 2F;
+        float dy = (viewHeight - uprightHeight * scale) / 2F;
+
+        // Window in the upright image
+        float u0 = (left - dx) / scale;
+        float v0 = (top - dy) / scale;
+        float u1 = (right - dx) / scale;
+        float v1 = (bottom - dy) / scale;
+
+        // Undo the display rotation to get back into the buffer
+        float x0, y0, x1, y1;
+        switch (rotation) {
+            case 90:
+                x0 = v0;
+                y0 = imageHeight - u1;
+                x1 = v1;
+                y1 = imageHeight - u0;
+                break;
+            case 180:
+                x0 = imageWidth - u1;
+                y0 = imageHeight - v1;
+                x1 = imageWidth - u0;
+                y1 = imageHeight - v0;
+                break;
+            case 270:
+                x0 = imageWidth - v1;
+                y0 = u0;
+                x1 = imageWidth - v0;
+                y1 = u1;
+                break;
+            default:
+                x0 = u0;
+                y0 = v0;
+                x1 = u1;
+                y1 = v1;
+                break;
+        }
+
+        int l = clamp((int) Math.floor(x0), imageWidth) & ~1;
+        int t = clamp((int) Math.floor(y0), imageHeight) & ~1;
+        int r = clamp((int) Math.ceil(x1), imageWidth) & ~1;
+        int b = clamp((int) Math.ceil(y1), imageHeight) & ~1;
+        if (r <= l || b <= t) {
+            return false;
+        }
+        out[0] = l;
+        out[1] = t;
+        out[2] = r;
+        out[3] = b;
+        return true;
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+}
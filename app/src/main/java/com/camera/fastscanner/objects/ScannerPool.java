@@ -0,0 +1,84 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
+import com.google.mlkit.vision.barcode.BarcodeScanning;
+import com.google.mlkit.vision.common.InputImage;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Holds a single long-lived {@link BarcodeScanner} for the lifetime of its owner, so that the
+ * detector is set up once instead of once per analysed frame.
+ */
+public class ScannerPool {
+
+    // Smallest image worth sending through the detector to load it
+    private static final int WARM_UP_SIZE = 32;
+
+    private final BarcodeScannerOptions mOptions;
+    private BarcodeScanner mScanner;
+    private int mInstantiations;
+    private boolean mClosed;
+
+    public ScannerPool(@NonNull BarcodeScannerOptions options) {
+        mOptions = options;
+    }
+
+    /**
+     * Returns the shared client, creating it on first use.
+     *
+     * @return the client, or null if the pool has already been closed.
+     */
+    @Nullable
+    public synchronized BarcodeScanner acquire() {
+        if (mClosed) {
+            return null;
+        }
+        if (mScanner == null) {
+            mScanner = BarcodeScanning.getClient(mOptions);
+            mInstantiations++;
+        }
+        return mScanner;
+    }
+
+    /**
+     * Number of times a client had to be created during this session. Anything above 1 means the
+     * detector was torn down and rebuilt.
+     */
+    public synchronized int getInstantiationCount() {
+        return mInstantiations;
+    }
+
+    /**
+     * Load the detector and its model by running a blank image through a throwaway client, so the
+     * first real frame does not pay for it. Blocks until done.
+     */
+    @WorkerThread
+    public static void warmUp(@NonNull BarcodeScannerOptions options) {
+        BarcodeScanner scanner = BarcodeScanning.getClient(options);
+        byte[] blank = new byte[WARM_UP_SIZE * WARM_UP_SIZE * 3 / 2];
+        try {
+            Tasks.await(scanner.process(InputImage.fromByteArray(blank, WARM_UP_SIZE, WARM_UP_SIZE, 0,
+                    InputImage.IMAGE_FORMAT_NV21)));
+        } catch (ExecutionException | InterruptedException e) {
+            // Not fatal, the first frame just takes longer
+            e.printStackTrace();
+        } finally {
+            scanner.close();
+        }
+    }
+
+    public synchronized void close() {
+        mClosed = true;
+        if (mScanner != null) {
+            mScanner.close();
+            mScanner = null;
+        }
+    }
+}
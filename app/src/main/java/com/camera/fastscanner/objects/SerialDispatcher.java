@@ -0,0 +1,106 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+
+/**
+ * Hands items to a consumer in the order they were added, one call at a time, without holding a
+ * lock during the call.
+ * <p>
+ * Any thread may {@link #add(Object)} and then {@link #dispatch()}. If another thread is sending
+ * already, dispatch returns at once and that thread sends the new items too, which keeps them in
+ * order. A consumer that throws does not stop the items after it: the exception goes to the
+ * {@link FailureHandler} and sending goes on.
+ *
+ * @param <T> whatever is sent
+ */
+public class SerialDispatcher<T> {
+
+    public interface Consumer<T> {
+        void accept(@NonNull T item);
+    }
+
+    public interface FailureHandler {
+        void failed(@NonNull RuntimeException e);
+    }
+
+    private final Consumer<T> consumer;
+    private final FailureHandler failureHandler;
+    private final ArrayDeque<T> queue = new ArrayDeque<>();
+    // Whether a thread is in the sending loop
+    private boolean dispatching;
+    private long dispatchNanos;
+    private long failures;
+
+    public SerialDispatcher(@NonNull Consumer<T> consumer, @NonNull FailureHandler failureHandler) {
+        this.consumer = consumer;
+        this.failureHandler = failureHandler;
+    }
+
+    public synchronized void add(@NonNull T item) {
+        queue.add(item);
+    }
+
+    /**
+     * Send everything queued, unless another thread is at it. Call without holding locks the
+     * consumer might need.
+     */
+    public void dispatch() {
+        T item;
+        synchronized (this) {
+            if (dispatching || (item = queue.poll()) == null) {
+                return;
+            }
+            dispatching = true;
+        }
+        boolean finished = false;
+        try {
+            while (item != null) {
+                long start = System.nanoTime();
+                try {
+                    consumer.accept(item);
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        failures++;
+                    }
+                    failureHandler.failed(e);
+                }
+                synchronized (this) {
+                    dispatchNanos += System.nanoTime() - start;
+                    item = queue.poll();
+                    dispatching = item != null;
+                }
+            }
+            finished = true;
+        } finally {
+            if (!finished) {
+                // An Error, or the failure handler threw. Whatever is left goes with the next call
+                synchronized (this) {
+                    dispatching = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Items waiting to be sent.
+     */
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Time spent in the consumer so far.
+     */
+    public synchronized long getDispatchNanos() {
+        return dispatchNanos;
+    }
+
+    /**
+     * Calls of the consumer that threw.
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+}
@@ -0,0 +1,122 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Time to the first result, from application launch and from the camera (re)starting, and the time
+ * from attaching a view to its first camera frame.
+ */
+public class StartupMetrics {
+
+    private long launchNanos = -1;
+    private boolean prewarmed;
+    private long launchToFirstResultNanos = -1;
+    private long cameraStartNanos = -1;
+    private long firstResultNanos = -1;
+    // View attached and waiting for its first frame, and whether the camera was open already
+    private long attachNanos = -1;
+    private boolean attachWarm;
+    private long coldAttachToFrameNanos = -1;
+    private long warmAttachToFrameNanos = -1;
+
+    /**
+     * When the application was launched, the first result of the process is measured from here.
+     *
+     * @param prewarmed whether camera and decoder were warmed up at launch
+     */
+    public synchronized void launched(long launchNanos, boolean prewarmed) {
+        this.launchNanos = launchNanos;
+        this.prewarmed = prewarmed;
+    }
+
+    /**
+     * Camera was (re)started, time to first result is measured from here.
+     */
+    public synchronized void cameraStarted(long nowNanos) {
+        cameraStartNanos = nowNanos;
+        firstResultNanos = -1;
+    }
+
+    /**
+     * A view was attached to the camera. The time to the next frame is recorded separately for a
+     * camera that had to be opened (cold) and one that stayed open while the view was recreated,
+     * e.g. on rotation (warm).
+     */
+    public synchronized void viewAttached(long nowNanos, boolean cameraOpen) {
+        attachNanos = nowNanos;
+        attachWarm = cameraOpen;
+    }
+
+    public synchronized void frameArrived(long nowNanos) {
+        if (attachNanos < 0) {
+            return;
+        }
+        if (attachWarm) {
+            warmAttachToFrameNanos = nowNanos - attachNanos;
+        } else {
+            coldAttachToFrameNanos = nowNanos - attachNanos;
+        }
+        attachNanos = -1;
+    }
+
+    public synchronized void resultPublished(long nowNanos) {
+        if (firstResultNanos < 0 && cameraStartNanos >= 0) {
+            firstResultNanos = nowNanos - cameraStartNanos;
+        }
+        if (launchToFirstResultNanos < 0 && launchNanos > 0) {
+            launchToFirstResultNanos = nowNanos - launchNanos;
+        }
+    }
+
+    /**
+     * Forget the camera start and attach times. The launch is kept, it happens once per process.
+     */
+    public synchronized void reset() {
+        cameraStartNanos = -1;
+        firstResultNanos = -1;
+        attachNanos = -1;
+        coldAttachToFrameNanos = -1;
+        warmAttachToFrameNanos = -1;
+    }
+
+    @NonNull
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(micros(firstResultNanos), micros(launchToFirstResultNanos), prewarmed,
+                micros(coldAttachToFrameNanos), micros(warmAttachToFrameNanos));
+    }
+
+    private static long micros(long nanos) {
+        return nanos < 0 ? -1 : nanos / 1000;
+    }
+
+    /**
+     * Times are in microseconds, -1 until measured.
+     */
+    public static class Snapshot {
+        // Since the camera started, and from application launch to the first result of the process
+        public final long timeToFirstResultMicros;
+        public final long launchToFirstResultMicros;
+        public final boolean prewarmed;
+        // Latest time from attaching a view to the first frame, with the camera opened for it and
+        // with the camera kept open
+        public final long coldAttachToFrameMicros;
+        public final long warmAttachToFrameMicros;
+
+        Snapshot(long timeToFirstResultMicros, long launchToFirstResultMicros, boolean prewarmed,
+                 long coldAttachToFrameMicros, long warmAttachToFrameMicros) {
+            this.timeToFirstResultMicros = timeToFirstResultMicros;
+            this.launchToFirstResultMicros = launchToFirstResultMicros;
+            this.prewarmed = prewarmed;
+            this.coldAttachToFrameMicros = coldAttachToFrameMicros;
+            this.warmAttachToFrameMicros = warmAttachToFrameMicros;
+        }
+
+        public void writeJson(@NonNull MetricsJson json) {
+            json.put("timeToFirstResultUs", timeToFirstResultMicros)
+                    .put("launchToFirstResultUs", launchToFirstResultMicros)
+                    .put("prewarmed", prewarmed)
+                    .put("coldAttachToFrameUs", coldAttachToFrameMicros)
+                    .put("warmAttachToFrameUs", warmAttachToFrameMicros);
+        }
+    }
+}
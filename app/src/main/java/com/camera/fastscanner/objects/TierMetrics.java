@@ -0,0 +1,107 @@
+package com.camera.fastscanner.objects;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decode latency and rate for every analysis resolution tier, see {@link ResolutionPolicy}. The
+ * decode rate of a tier is over the time it was in use.
+ */
+public class TierMetrics {
+
+    // Tiers recorded separately, higher ones are not recorded
+    public static final int MAX_TIERS = 4;
+    private static final long SECOND_NANOS = 1_000_000_000L;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[MAX_TIERS];
+    private final long[] decodes = new long[MAX_TIERS];
+    private final long[] tierNanos = new long[MAX_TIERS];
+    // Current tier, -1 while CameraX picks the resolution, and since when it is used
+    private int tier = -1;
+    private long sinceNanos = -1;
+
+    public TierMetrics() {
+        for (int i = 0; i < MAX_TIERS; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * The analysis resolution moved to another tier, decodes are recorded for it from now on.
+     */
+    public synchronized void analysisTierChanged(int tier, long nowNanos) {
+        if (this.tier >= 0 && sinceNanos >= 0) {
+            tierNanos[this.tier] += nowNanos - sinceNanos;
+        }
+        this.tier = tier < MAX_TIERS ? tier : -1;
+        sinceNanos = nowNanos;
+    }
+
+    public synchronized void frameDecoded(long latencyNanos, long nowNanos) {
+        if (tier < 0) {
+            return;
+        }
+        if (sinceNanos < 0) {
+            sinceNanos = nowNanos;
+        }
+        latencies[tier].recordNanos(latencyNanos);
+        decodes[tier]++;
+    }
+
+    /**
+     * Forget the decodes, the current tier stays and counts again from its next decode.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < MAX_TIERS; i++) {
+            latencies[i].clear();
+            decodes[i] = 0;
+            tierNanos[i] = 0;
+        }
+        sinceNanos = -1;
+    }
+
+    @NonNull
+    public synchronized Snapshot snapshot(long nowNanos) {
+        long[] p50 = new long[MAX_TIERS];
+        long[] p99 = new long[MAX_TIERS];
+        double[] rate = new double[MAX_TIERS];
+        for (int i = 0; i < MAX_TIERS; i++) {
+            p50[i] = latencies[i].percentileMicros(0.5);
+            p99[i] = latencies[i].percentileMicros(0.99);
+            long nanos = tierNanos[i] + (i == tier && sinceNanos >= 0 ? nowNanos - sinceNanos : 0);
+            rate[i] = nanos > 0 ? decodes[i] * (double) SECOND_NANOS / nanos : 0;
+        }
+        return new Snapshot(tier, decodes.clone(), p50, p99, rate);
+    }
+
+    /**
+     * Per tier the frames decoded, their latency in microseconds and the decodes per second while
+     * the tier was in use.
+     */
+    public static class Snapshot {
+        // Tier in use, -1 for the CameraX default
+        public final int analysisTier;
+        public final long[] tierDecodes;
+        public final long[] tierDecodeP50Micros;
+        public final long[] tierDecodeP99Micros;
+        public final double[] tierDecodesPerSecond;
+
+        Snapshot(int analysisTier, long[] tierDecodes, long[] tierDecodeP50Micros, long[] tierDecodeP99Micros,
+                 double[] tierDecodesPerSecond) {
+            this.analysisTier = analysisTier;
+            this.tierDecodes = tierDecodes;
+            this.tierDecodeP50Micros = tierDecodeP50Micros;
+            this.tierDecodeP99Micros = tierDecodeP99Micros;
+            this.tierDecodesPerSecond = tierDecodesPerSecond;
+        }
+
+        public void writeJson(@NonNull MetricsJson json) {
+            json.put("analysisTier", analysisTier);
+            for (int i = 0; i < tierDecodes.length; i++) {
+                json.put("tier" + i + "Decodes", tierDecodes[i])
+                        .put("tier" + i + "DecodeP50Us", tierDecodeP50Micros[i])
+                        .put("tier" + i + "DecodeP99Us", tierDecodeP99Micros[i])
+                        .put("tier" + i + "DecodesPerSecond", tierDecodesPerSecond[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.camera.fastscanner.viewmodel;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A value for LiveData that must be acted on once, e.g. a scan that shows a message. LiveData
+ * hands its last value to every new observer, a recreated view would act on it again otherwise.
+ */
+public class Event<T> {
+
+    private final T content;
+    private boolean handled;
+
+    public Event(@NonNull T content) {
+        this.content = content;
+    }
+
+    /**
+     * @return the content the first time, null afterwards.
+     */
+    @Nullable
+    public synchronized T getContentIfNotHandled() {
+        if (handled) {
+            return null;
+        }
+        handled = true;
+        return content;
+    }
+
+    /**
+     * The content, whether it was handled or not.
+     */
+    @NonNull
+    public T peekContent() {
+        return content;
+    }
+}
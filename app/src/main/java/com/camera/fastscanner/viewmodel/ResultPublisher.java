@@ -0,0 +1,45 @@
+package com.camera.fastscanner.viewmodel;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.camera.fastscanner.decoder.DecodedBarcode;
+import com.camera.fastscanner.history.ScanHistory;
+import com.camera.fastscanner.objects.DedupCache;
+import com.camera.fastscanner.objects.ScanMetrics;
+
+/**
+ * What happens to every decoded code on its way to the UI: a code published moments ago is
+ * dropped, anything else goes into the scan history and the metrics.
+ * <p>
+ * Not thread-safe, {@link ScanViewModel} uses it on the main thread.
+ */
+public class ResultPublisher {
+
+    private final DedupCache recentResults;
+    private final ScanHistory scanHistory;
+    private final ScanMetrics scanMetrics;
+
+    public ResultPublisher(@NonNull DedupCache recentResults, @NonNull ScanHistory scanHistory,
+                           @NonNull ScanMetrics scanMetrics) {
+        this.recentResults = recentResults;
+        this.scanHistory = scanHistory;
+        this.scanMetrics = scanMetrics;
+    }
+
+    /**
+     * @param nowMillis monotonic time for the duplicate window
+     * @return the text to show, or null if observers already have the code.
+     */
+    @Nullable
+    public String publish(@NonNull DecodedBarcode barcode, long nowMillis) {
+        if (recentResults.isDuplicate(DedupCache.key(barcode), nowMillis)) {
+            return null;
+        }
+        String value = barcode.getRawValue();
+        String display = barcode.getDisplayValue();
+        scanHistory.append(value != null ? value : "", barcode.getFormat());
+        scanMetrics.resultPublished(System.nanoTime());
+        return display != null ? display : value != null ? value : "";
+    }
+}
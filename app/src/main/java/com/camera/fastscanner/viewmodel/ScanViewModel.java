@@ -1,23 +1,90 @@
 package com.camera.fastscanner.viewmodel;
 
 import android.app.Application;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
+import com.camera.fastscanner.AppClass;
+import com.camera.fastscanner.R;
+import com.camera.fastscanner.decoder.BatchDecoder;
+import com.camera.fastscanner.decoder.DecodedBarcode;
+import com.camera.fastscanner.decoder.DecoderEngine;
+import com.camera.fastscanner.decoder.MlKitDecoderEngine;
+import com.camera.fastscanner.decoder.ScanBatch;
+import com.camera.fastscanner.decoder.ZxingDecoderEngine;
+import com.camera.fastscanner.exception.NoCameraException;
+import com.camera.fastscanner.history.ScanHistory;
+import com.camera.fastscanner.objects.CameraSession;
 import com.camera.fastscanner.objects.CodeAnalyser;
+import com.camera.fastscanner.objects.ConsensusMetrics;
+import com.camera.fastscanner.objects.DecodeMetrics;
+import com.camera.fastscanner.objects.DedupCache;
+import com.camera.fastscanner.objects.FrameScheduler;
+import com.camera.fastscanner.objects.ReadConsensus;
+import com.camera.fastscanner.objects.ResultRing;
+import com.camera.fastscanner.objects.PrefilterMetrics;
+import com.camera.fastscanner.objects.ScanMetrics;
+import com.camera.fastscanner.objects.ScanWindow;
+import com.camera.fastscanner.objects.ScannerPool;
 import com.google.mlkit.common.MlKitException;
+import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
 import com.google.mlkit.vision.barcode.common.Barcode;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ScanViewModel extends AndroidViewModel {
 
+    // Published results may stay this long in memory before they are synced to disk
+    private static final long HISTORY_SYNC_MS = 1000;
+    private static final long HISTORY_RETENTION_MS = 90L * 24 * 60 * 60 * 1000;
+    // Distinct codes remembered for duplicate suppression
+    private static final int RECENT_RESULTS = 64;
+    // Results kept for subscribers that fall behind
+    private static final int RESULT_RING_SIZE = 256;
+
+    private final int scanFormats;
+    private final ScannerPool scannerPool;
+    // ML Kit reports decodes here, results must not go out on the main thread
+    private final ExecutorService decodeCallbacks = Executors.newSingleThreadExecutor();
+    private final ScanWindow scanWindow;
     private final CodeAnalyser codeAnalyser;
+    private final FrameScheduler frameScheduler;
+    private final ScanMetrics scanMetrics = new ScanMetrics();
+    private final ReadConsensus readConsensus = new ReadConsensus(scanMetrics);
+    private boolean readConsensusEnabled = false;
+    private int consensusReads = ReadConsensus.DEFAULT_READS;
     private final MutableLiveData<Boolean> modelDownloaded;
-    private final MutableLiveData<String> scanResult;
+    private final MutableLiveData<Event<String>> scanResult;
+    private final MutableLiveData<ScanBatch> scanBatch = new MutableLiveData<>();
+    private int expectedCount = 0;
+    private final Map<Long, DecodedBarcode> collected = new LinkedHashMap<>();
+    private boolean continuousMode = true;
+    private final DedupCache recentResults = new DedupCache(RECENT_RESULTS, 2000);
+    private BatchDecoder.Job batchJob;
+    private final ScanHistory scanHistory;
+    private final ResultPublisher resultPublisher;
+    // Results fan out from here, the LiveData below are fed by one subscriber on the main thread
+    private final ResultRing<ScanBatch> resultRing = new ResultRing<>(RESULT_RING_SIZE);
+    private final ResultRing.Subscriber<ScanBatch> uiResults;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean uiDrainPosted = new AtomicBoolean();
+    private final Runnable uiDrain = this::drainUiResults;
+    private CameraSession cameraSession;
 
     public ScanViewModel(@NonNull Application application) {
         super(application);
@@ -27,10 +94,28 @@ public class ScanViewModel extends AndroidViewModel {
 
         scanResult = new MutableLiveData<>();
 
+        scanHistory = new ScanHistory(new File(application.getFilesDir(), "scan_history.log"),
+                System.currentTimeMillis(), HISTORY_SYNC_MS);
+        scanHistory.compact(System.currentTimeMillis() - HISTORY_RETENTION_MS);
+        resultPublisher = new ResultPublisher(recentResults, scanHistory, scanMetrics);
+
+        scanFormats = scanFormats(application);
+        scannerPool = new ScannerPool(scannerOptions(scanFormats));
+
+        uiResults = resultRing.subscribe(ResultRing.DROP_OLDEST, () -> {
+            if (uiDrainPosted.compareAndSet(false, true)) {
+                mainHandler.post(uiDrain);
+            }
+        });
+
+        scanWindow = new ScanWindow();
+
         codeAnalyser = new CodeAnalyser(
-                barcodes -> {
-                    if (barcodes.size() > 0) {
-                        scanBarcode(barcodes);
+                () -> new MlKitDecoderEngine(scannerPool, decodeCallbacks),
+                scanWindow,
+                batch -> {
+                    if (!batch.isEmpty()) {
+                        resultRing.publish(batch);
                     }
                 },
                 (e) -> {
@@ -40,27 +125,347 @@ public class ScanViewModel extends AndroidViewModel {
                     }
                 }
         );
+        frameScheduler = new FrameScheduler(codeAnalyser, scanMetrics);
+
+        boolean prewarmed = application instanceof AppClass && ((AppClass) application).isPrewarmed();
+        scanMetrics.launched(AppClass.getLaunchNanos(), prewarmed);
+    }
+
+    /**
+     * The formats to scan for, set in {@code R.array.scan_formats}. Only the formats actually used
+     * should be there, every extra format costs detector time. An empty list scans for all.
+     *
+     * @return {@code Barcode.FORMAT_*} values or-ed together
+     */
+    public static int scanFormats(@NonNull Context context) {
+        int formats = 0;
+        for (int format : context.getResources().getIntArray(R.array.scan_formats)) {
+            formats |= format;
+        }
+        return formats != 0 ? formats : Barcode.FORMAT_ALL_FORMATS;
+    }
+
+    /**
+     * The ML Kit configuration used for scanning, also used to warm up the decoder at launch.
+     *
+     * @param formats see {@link #scanFormats(Context)}
+     */
+    public static BarcodeScannerOptions scannerOptions(int formats) {
+        return new BarcodeScannerOptions.Builder()
+                .setBarcodeFormats(formats)
+                .build();
+    }
+
+    /**
+     * The formats scanned for, see {@link #scanFormats(Context)}.
+     */
+    public int getScanFormats() {
+        return scanFormats;
     }
 
     public CodeAnalyser getCodeAnalyser() {
         return codeAnalyser;
     }
 
-    public MutableLiveData<String> getScanResult() {
+    /**
+     * The analyzer to set on the ImageAnalysis use case, it feeds the {@link CodeAnalyser}.
+     */
+    public FrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
+    /**
+     * The camera, opened on first use and kept until this ViewModel is cleared, so recreated views
+     * attach to a running camera. The analysis options only apply to the first call.
+     */
+    public CameraSession openCameraSession(boolean blockProducer, int queueDepth) throws NoCameraException {
+        if (cameraSession == null) {
+            cameraSession = new CameraSession(getApplication(), frameScheduler, scanMetrics,
+                    blockProducer, queueDepth);
+        }
+        return cameraSession;
+    }
+
+    /**
+     * Call when the camera is (re)started, time to first result is measured from here.
+     */
+    public void cameraStarted() {
+        scanMetrics.cameraStarted(System.nanoTime());
+        codeAnalyser.resetFocus();
+    }
+
+    /**
+     * Current scan metrics, {@link ScanMetrics.Snapshot#toJson()} gives the dashboard format.
+     */
+    public ScanMetrics.Snapshot getMetricsSnapshot() {
+        return scanMetrics.snapshot();
+    }
+
+    public ScanWindow getScanWindow() {
+        return scanWindow;
+    }
+
+    /**
+     * For views that report into the metrics, e.g. the overlay.
+     */
+    public ScanMetrics getScanMetrics() {
+        return scanMetrics;
+    }
+
+    /**
+     * Decode with ML Kit (the default) or with the pure Java ZXing engine, e.g. to compare the two
+     * on the same device. Takes effect from the next frame.
+     */
+    public void useReferenceDecoder(boolean reference) {
+        setDecoderEngine(reference
+                ? () -> new ZxingDecoderEngine(scanFormats)
+                : () -> new MlKitDecoderEngine(scannerPool, decodeCallbacks));
+    }
+
+    /**
+     * Every analysis worker makes its own engine with the factory.
+     */
+    public void setDecoderEngine(@NonNull DecoderEngine.Factory engineFactory) {
+        codeAnalyser.setEngine(engineFactory);
+    }
+
+    /**
+     * Decode this many camera frames at the same time, 1 by default. ML Kit clients are shared
+     * between the workers, so with ML Kit more workers mostly overlap preparing frames with
+     * detection. The ZXing engine decodes on the workers themselves and scales with the cores.
+     * Compare {@link DecodeMetrics.Snapshot#decodesPerSecond} between worker counts.
+     */
+    public void setAnalysisWorkers(int workers) {
+        frameScheduler.setWorkers(workers);
+    }
+
+    /**
+     * Every published result, kept across restarts.
+     */
+    public ScanHistory getScanHistory() {
+        return scanHistory;
+    }
+
+    /**
+     * How many ML Kit clients were created during this scan session, should stay at 1.
+     */
+    public int getScannerInstantiations() {
+        return scannerPool.getInstantiationCount();
+    }
+
+    /**
+     * For dim and low-contrast scenes: stretch the contrast of every frame and retry frames
+     * without result with inverted luminance.
+     */
+    public void setLowLightEnhancement(boolean enabled) {
+        codeAnalyser.setEnhancement(enabled, enabled);
+    }
+
+    /**
+     * Skip decoding frames with nothing like a code in them, to save battery while the scanner
+     * points at nothing. What it saves and misses is in the {@link PrefilterMetrics.Snapshot}.
+     */
+    public void setPresenceFilter(boolean enabled) {
+        codeAnalyser.setPresenceFilter(enabled);
+    }
+
+    /**
+     * Only publish a value once several frames read the same at the same place, to keep misreads
+     * of damaged 1D codes out. QR and Data Matrix codes are still published on the first read.
+     * The latency this adds is in the {@link ConsensusMetrics.Snapshot}. Applying the same setting again
+     * keeps the reads counted so far.
+     *
+     * @param reads agreeing reads needed for formats without a strong check, see
+     *              {@link #getReadConsensus()} to set it per format
+     */
+    public void setReadConsensus(boolean enabled, int reads) {
+        if (enabled == readConsensusEnabled && reads == consensusReads) {
+            // Unchanged, e.g. the view was recreated
+            return;
+        }
+        readConsensusEnabled = enabled;
+        consensusReads = reads;
+        readConsensus.setDefaultReads(reads);
+        codeAnalyser.setReadConsensus(enabled ? readConsensus : null);
+    }
+
+    public ReadConsensus getReadConsensus() {
+        return readConsensus;
+    }
+
+    /**
+     * Fraction of frames that were only decoded around already tracked codes.
+     */
+    public double getTrackedFraction() {
+        return codeAnalyser.getTracker().getTrackedFraction();
+    }
+
+    /**
+     * Every new result once, a recreated view does not get the last one again.
+     */
+    public LiveData<Event<String>> getScanResult() {
         return scanResult;
     }
 
+    /**
+     * In continuous mode the camera stays bound between reads and results keep coming. In either
+     * mode the same value is not published again until its cool-down has passed.
+     */
+    public void setContinuousMode(boolean continuous, long cooldownMillis) {
+        this.continuousMode = continuous;
+        recentResults.setWindowMillis(cooldownMillis);
+        recentResults.clear();
+    }
+
+    public boolean isContinuousMode() {
+        return continuousMode;
+    }
+
+    /**
+     * Every code of every frame, one update per frame. See {@link #setExpectedCount(int)}.
+     */
+    public LiveData<ScanBatch> getScanBatch() {
+        return scanBatch;
+    }
+
+    /**
+     * Collect distinct codes over several frames and publish them as one batch once this many
+     * have been seen, e.g. all labels on a pallet. 0 publishes every frame on its own.
+     */
+    public void setExpectedCount(int expectedCount) {
+        this.expectedCount = expectedCount;
+        collected.clear();
+    }
+
+    /**
+     * Decode stored images with the live scanner's client and options. Starting a new run cancels
+     * the previous one.
+     */
+    public BatchDecoder.Job decodeImages(@NonNull List<Uri> images, @NonNull BatchDecoder.Listener listener) {
+        cancelBatch();
+        batchJob = new BatchDecoder(getApplication().getContentResolver(), scannerPool)
+                .decode(images, batchListener(listener));
+        return batchJob;
+    }
+
+    /**
+     * Same as {@link #decodeImages(List, BatchDecoder.Listener)} for every image in a folder.
+     */
+    public BatchDecoder.Job decodeDirectory(@NonNull File directory, @NonNull BatchDecoder.Listener listener) {
+        cancelBatch();
+        batchJob = new BatchDecoder(getApplication().getContentResolver(), scannerPool)
+                .decodeDirectory(directory, batchListener(listener));
+        return batchJob;
+    }
+
+    public void cancelBatch() {
+        if (batchJob != null) {
+            batchJob.cancel();
+            batchJob = null;
+        }
+    }
+
+    /**
+     * A missing model is reported the same way as during live scanning.
+     */
+    private BatchDecoder.Listener batchListener(BatchDecoder.Listener listener) {
+        return new BatchDecoder.Listener() {
+            @Override
+            public void imageDecoded(@NonNull Uri image, @NonNull ScanBatch batch) {
+                listener.imageDecoded(image, batch);
+            }
+
+            @Override
+            public void imageFailed(@NonNull Uri image, @NonNull Exception e) {
+                if (e.getCause() instanceof MlKitException) {
+                    // Barcode not downloaded.
+                    modelDownloaded.setValue(false);
+                }
+                listener.imageFailed(image, e);
+            }
+
+            @Override
+            public void progress(int done, int total) {
+                listener.progress(done, total);
+            }
+
+            @Override
+            public void finished(boolean cancelled) {
+                listener.finished(cancelled);
+            }
+        };
+    }
+
     public LiveData<Boolean> getModelDownloaded() {
         return modelDownloaded;
     }
 
-    public void scanBarcode(List<Barcode> barcodes) {
-        for (Barcode barcode : barcodes) {
+    /**
+     * Results for consumers that do not need the UI, e.g. forwarding to a serial port. Every
+     * batch with at least one accepted code, in capture order and before duplicates are suppressed, read
+     * on whatever thread the caller likes. Unsubscribe when done, a {@link ResultRing#BLOCK}
+     * subscriber that stops reading stalls the scanner.
+     *
+     * @param overflow {@link ResultRing#DROP_OLDEST} or {@link ResultRing#BLOCK}
+     */
+    @NonNull
+    public ResultRing.Subscriber<ScanBatch> subscribeResults(int overflow) {
+        return resultRing.subscribe(overflow, null);
+    }
+
+    /**
+     * Main thread: hand everything published since the last time to the LiveData.
+     */
+    private void drainUiResults() {
+        uiDrainPosted.set(false);
+        ScanBatch batch;
+        while ((batch = uiResults.poll()) != null) {
+            scanBarcode(batch);
+        }
+    }
+
+    public void scanBarcode(ScanBatch batch) {
+        publishBatch(batch);
+
+        for (DecodedBarcode barcode : batch.getBarcodes()) {
+            String text = resultPublisher.publish(barcode, SystemClock.elapsedRealtime());
+            // Null if seen moments ago, observers already have it.
+            if (text != null) {
+                scanResult.setValue(new Event<>(text));
+            }
+        }
+    }
+
+    private void publishBatch(ScanBatch batch) {
+        if (expectedCount <= 0) {
+            scanBatch.setValue(batch);
+            return;
+        }
+        for (DecodedBarcode barcode : batch.getBarcodes()) {
+            long key = DedupCache.key(barcode);
+            if (!collected.containsKey(key)) {
+                collected.put(key, barcode);
+            }
+        }
+        if (collected.size() >= expectedCount) {
+            scanBatch.setValue(new ScanBatch(batch.getTimestamp(), new ArrayList<>(collected.values())));
+            collected.clear();
+        }
+    }
 
-            scanResult.setValue(barcode.getDisplayValue());
-            break;
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        cancelBatch();
+        if (cameraSession != null) {
+            cameraSession.close();
         }
-        String result = scanResult.getValue();
-        scanResult.setValue(result);
+        uiResults.unsubscribe();
+        resultRing.close();
+        mainHandler.removeCallbacks(uiDrain);
+        scanHistory.close();
+        codeAnalyser.close();
+        decodeCallbacks.shutdown();
+        scannerPool.close();
     }
 }
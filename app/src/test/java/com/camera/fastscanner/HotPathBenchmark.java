@@ -0,0 +1,608 @@
+package com.camera.fastscanner;
+
+import com.camera.fastscanner.decoder.DecodedBarcode;
+import com.camera.fastscanner.decoder.DecoderEngine;
+import com.camera.fastscanner.decoder.LumaEnhancer;
+import com.camera.fastscanner.decoder.LumaFrame;
+import com.camera.fastscanner.decoder.MlKitDecoderEngine;
+import com.camera.fastscanner.decoder.PresenceFilter;
+import com.camera.fastscanner.decoder.TestFrames;
+import com.camera.fastscanner.decoder.ZxingDecoderEngine;
+import com.camera.fastscanner.history.ScanHistory;
+import com.camera.fastscanner.history.ScanRecord;
+import com.camera.fastscanner.objects.DedupCache;
+import com.camera.fastscanner.objects.FrameCropper;
+import com.camera.fastscanner.objects.FrameReorderer;
+import com.camera.fastscanner.objects.ScanMetrics;
+import com.camera.fastscanner.objects.ScannerPool;
+import com.camera.fastscanner.viewmodel.ResultPublisher;
+import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Timings of the per-frame stages that run on the JVM, on synthetic frames at the analysis sizes
+ * in use: cropping the YUV planes to NV21, contrast stretching, the presence filter, wrapping a
+ * frame for ML Kit, the ZXing decode, duplicate suppression, publishing a result (duplicate check,
+ * scan history and metrics as {@link ResultPublisher} does for the view model) and appending to
+ * the scan history. Every stage reports operations per second, p50 and p99 latency and bytes
+ * allocated per operation. ML Kit detection and the LiveData hand-off to the UI need a device and
+ * are not covered. Items per minute are
+ * compared for continuous scanning and a camera restart per scan, decode throughput for 1, 2 and 4
+ * workers, and the time from process start to the first decode with and without prewarming.
+ * <p>
+ * Skipped in normal test runs, run with {@code ./gradlew testDebugUnitTest -Pbenchmark}.
+ */
+public class HotPathBenchmark {
+
+    private static final int[][] SIZES = {{640, 480}, {1280, 720}, {1920, 1080}};
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 1000;
+    // Decodes take milliseconds, fewer of them
+    private static final int DECODE_ITERATIONS = 200;
+    // Camera frame interval at 30 fps
+    private static final double FRAME_MS = 1000 / 30.0;
+    // Stub decode time, longer than a frame so that one worker cannot keep up
+    private static final long STUB_DECODE_MS = 80;
+    // Time to bring the next item in front of the camera
+    private static final long HANDLING_MS = 300;
+
+    private interface Op {
+        void run(int iteration);
+    }
+
+    @Test
+    public void cropToNv21() {
+        assumeBenchmark();
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            // Semi-planar chroma as most cameras deliver it, V one byte after U
+            ByteBuffer y = ByteBuffer.wrap(TestFrames.blank(width, height, 128), 0, width * height).slice();
+            ByteBuffer uv = ByteBuffer.allocate(width * height / 2);
+            ByteBuffer u = uv.duplicate();
+            ByteBuffer v = ((ByteBuffer) uv.duplicate().position(1)).slice();
+            int[] full = {0, 0, width, height};
+            // The overlay window, about the middle two thirds
+            int[] window = {width / 6 & ~1, height / 6 & ~1, width * 5 / 6 & ~1, height * 5 / 6 & ~1};
+            byte[] nv21 = new byte[width * height * 3 / 2];
+            measure("crop full " + width + "x" + height, WARMUP, ITERATIONS,
+                    i -> FrameCropper.copyNv21(y, width, u, v, width, 2, full, nv21));
+            measure("crop window " + width + "x" + height, WARMUP, ITERATIONS,
+                    i -> FrameCropper.copyNv21(y, width, u, v, width, 2, window, nv21));
+        }
+    }
+
+    @Test
+    public void stretchAndFilter() {
+        assumeBenchmark();
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            byte[] dim = TestFrames.blank(width, height, 90);
+            TestFrames.draw(dim, width, height, TestFrames.code128("PALLET-0042"), 2, 70, 110);
+            TestFrames.noise(dim, width, height, 2, 1);
+            byte[] work = dim.clone();
+            LumaFrame frame = new LumaFrame().set(work, width, height, width, 90, 0, true);
+            LumaEnhancer enhancer = new LumaEnhancer();
+            PresenceFilter filter = new PresenceFilter();
+            measure("stretch " + width + "x" + height, WARMUP, ITERATIONS, i -> {
+                System.arraycopy(dim, 0, work, 0, width * height);
+                enhancer.stretch(frame);
+            });
+            measure("presence " + width + "x" + height, WARMUP, ITERATIONS, i -> filter.check(frame));
+        }
+    }
+
+    /**
+     * The InputImage ML Kit gets for every frame: a luminance-only frame is packed into NV21 with
+     * neutral chroma first, an NV21 frame is wrapped as it is.
+     */
+    @Test
+    public void mlKitInput() {
+        assumeBenchmark();
+        MlKitDecoderEngine engine = new MlKitDecoderEngine(
+                new ScannerPool(new BarcodeScannerOptions.Builder().build()), Runnable::run);
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            // Rows padded as camera buffers often are
+            int stride = width + 64;
+            LumaFrame luma = new LumaFrame().set(new byte[stride * height], width, height, stride, 90, 0, false);
+            LumaFrame nv21 = new LumaFrame().set(new byte[width * height * 3 / 2], width, height, width, 90, 0, true);
+            measure("mlkit input luma " + width + "x" + height, WARMUP, ITERATIONS, i -> engine.toInputImage(luma));
+            measure("mlkit input nv21 " + width + "x" + height, WARMUP, ITERATIONS, i -> engine.toInputImage(nv21));
+        }
+    }
+
+    @Test
+    public void zxingDecode() {
+        assumeBenchmark();
+        DecoderEngine engine = new ZxingDecoderEngine(Barcode.FORMAT_CODE_128 | Barcode.FORMAT_QR_CODE);
+        int[] found = new int[1];
+        DecoderEngine.Callback callback = new DecoderEngine.Callback() {
+            @Override
+            public void decoded(List<DecodedBarcode> barcodes) {
+                found[0] += barcodes.size();
+            }
+
+            @Override
+            public void failed(Exception e) {
+                throw new AssertionError(e);
+            }
+        };
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            byte[] code128 = TestFrames.blank(width, height, 200);
+            TestFrames.draw(code128, width, height, TestFrames.code128("PALLET-0042"), 2, 30, 200);
+            byte[] qr = TestFrames.blank(width, height, 200);
+            TestFrames.draw(qr, width, height, TestFrames.qr("https://example.com/item/42"), 4, 30, 200);
+            LumaFrame frame = new LumaFrame();
+
+            found[0] = 0;
+            frame.set(code128, width, height, width, 0, 0, true);
+            measure("zxing code128 " + width + "x" + height, 20, DECODE_ITERATIONS,
+                    i -> engine.decode(frame, callback));
+            assertEquals(20 + DECODE_ITERATIONS, found[0]);
+
+            found[0] = 0;
+            frame.set(qr, width, height, width, 90, 0, true);
+            measure("zxing qr " + width + "x" + height, 20, DECODE_ITERATIONS,
+                    i -> engine.decode(frame, callback));
+            assertEquals(20 + DECODE_ITERATIONS, found[0]);
+        }
+    }
+
+    @Test
+    public void dedupLookup() {
+        assumeBenchmark();
+        DedupCache cache = new DedupCache(64, 2000);
+        long[] keys = new long[256];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = DedupCache.key("CODE-" + i, Barcode.FORMAT_CODE_128);
+        }
+        measure("dedup lookup", 10_000, 100_000, i -> cache.isDuplicate(keys[i & 0xff], i / 10));
+    }
+
+    /**
+     * What the view model does for every decoded code before it reaches the UI: a new code goes
+     * through the duplicate check into the history and the metrics, a repeated one stops at the
+     * duplicate check.
+     */
+    @Test
+    public void publishResult() throws Exception {
+        assumeBenchmark();
+        File dir = Files.createTempDirectory("publish").toFile();
+        File file = new File(dir, "scan_history.log");
+        ScanHistory history = new ScanHistory(file, 1, 1000);
+        try {
+            ResultPublisher publisher = new ResultPublisher(new DedupCache(64, 2000), history, new ScanMetrics());
+            DecodedBarcode[] barcodes = new DecodedBarcode[4096];
+            for (int i = 0; i < barcodes.length; i++) {
+                String value = "PALLET-" + i;
+                barcodes[i] = new DecodedBarcode(Barcode.FORMAT_CODE_128, value, value, null, 0, 0, 100, 20, null);
+            }
+            // A second apart, every code is new. Fewer than the history queue holds, so none is
+            // rejected however far the writer lags behind.
+            measure("publish new", 500, 3000, i -> assertNotNull(publisher.publish(barcodes[i], i * 1000L)));
+            // The same code every frame, as while it stays in view
+            long seen = 1_000_000_000L;
+            publisher.publish(barcodes[0], seen);
+            measure("publish duplicate", 10_000, 100_000,
+                    i -> assertNull(publisher.publish(barcodes[0], seen + (i & 0x3ff))));
+            while (history.getRecordCount() < 3501) {
+                Thread.sleep(1);
+            }
+        } finally {
+            history.close();
+            history.awaitClosed(5000);
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * Items read per minute with the camera kept running between reads (continuous mode) and with
+     * a camera restart after every read. The camera itself does not run on the JVM: frames come
+     * every {@link #FRAME_MS} on a simulated clock, every frame is really decoded and deduplicated,
+     * and a restart keeps frames away for a fixed time. Pass the camera start to first result
+     * time ScanMetrics reports on the device as {@code -Dbenchmark.restartMs} for its numbers.
+     */
+    @Test
+    public void itemsPerMinute() {
+        assumeBenchmark();
+        long restartMs = Long.getLong("benchmark.restartMs", 500);
+        int width = 640;
+        int height = 480;
+        DecoderEngine engine = new ZxingDecoderEngine(Barcode.FORMAT_CODE_128);
+        byte[][] items = new byte[8][];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = TestFrames.blank(width, height, 200);
+            TestFrames.draw(items[i], width, height, TestFrames.code128("PALLET-00" + i), 2, 30, 200);
+        }
+        byte[] empty = TestFrames.blank(width, height, 200);
+
+        double continuous = itemsPerMinute(engine, items, empty, width, height, -1);
+        double restarting = itemsPerMinute(engine, items, empty, width, height, restartMs);
+        System.out.println(String.format(Locale.US, "%-28s %12.1f items/min", "items continuous", continuous));
+        System.out.println(String.format(Locale.US, "%-28s %12.1f items/min  restart %d ms",
+                "items restart per scan", restarting, restartMs));
+        assertTrue(continuous > restarting);
+    }
+
+    /**
+     * Scan items one after the other for a simulated minute.
+     *
+     * @param restartMs time without frames after every read, -1 to keep the camera running
+     */
+    private static double itemsPerMinute(DecoderEngine engine, byte[][] items, byte[] empty,
+                                         int width, int height, long restartMs) {
+        DedupCache cache = new DedupCache(64, 2000);
+        LumaFrame frame = new LumaFrame();
+        List<DecodedBarcode> found = new ArrayList<>();
+        DecoderEngine.Callback callback = new DecoderEngine.Callback() {
+            @Override
+            public void decoded(List<DecodedBarcode> barcodes) {
+                found.addAll(barcodes);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                throw new AssertionError(e);
+            }
+        };
+        double clock = 0;
+        int read = 0;
+        while (clock < 60_000) {
+            byte[] item = items[read % items.length];
+            boolean published = false;
+            while (!published) {
+                clock += decodeFrame(engine, frame.set(item, width, height, width, 0, 0, false), callback);
+                for (DecodedBarcode barcode : found) {
+                    published |= !cache.isDuplicate(DedupCache.key(barcode), (long) clock);
+                }
+                found.clear();
+            }
+            read++;
+            if (restartMs >= 0) {
+                // The next item is brought up while the camera restarts
+                clock += Math.max(restartMs, HANDLING_MS);
+                continue;
+            }
+            // The item is still in view for a moment, then nothing while the next one comes
+            double handled = clock + HANDLING_MS;
+            for (int i = 0; i < 3; i++) {
+                clock += decodeFrame(engine, frame.set(item, width, height, width, 0, 0, false), callback);
+                for (DecodedBarcode barcode : found) {
+                    assertTrue(cache.isDuplicate(DedupCache.key(barcode), (long) clock));
+                }
+                found.clear();
+            }
+            while (clock < handled) {
+                clock += decodeFrame(engine, frame.set(empty, width, height, width, 0, 0, false), callback);
+            }
+        }
+        return read * 60_000 / clock;
+    }
+
+    /**
+     * @return milliseconds until the next frame is looked at, a slow decode misses frames.
+     */
+    private static double decodeFrame(DecoderEngine engine, LumaFrame frame, DecoderEngine.Callback callback) {
+        long start = System.nanoTime();
+        engine.decode(frame, callback);
+        double decodeMs = (System.nanoTime() - start) / 1e6;
+        return Math.ceil(decodeMs / FRAME_MS) * FRAME_MS;
+    }
+
+    /**
+     * Process start to first decode, with the decoder warmed up at launch next to the camera
+     * opening and without, as AppClass does with prewarm_scanner. Every run is a fresh JVM. The
+     * camera is not there, opening it takes {@code -Dbenchmark.cameraOpenMs}, 300 ms by default;
+     * the decoder is ZXing, whose first use pays for class loading and a cold JIT. On a device,
+     * ScanMetrics reports launch to first result together with whether it was prewarmed.
+     */
+    @Test
+    public void startupToFirstDecode() throws Exception {
+        assumeBenchmark();
+        long cameraOpenMs = Long.getLong("benchmark.cameraOpenMs", 300);
+        int width = 640;
+        int height = 480;
+        byte[] code = TestFrames.blank(width, height, 200);
+        TestFrames.draw(code, width, height, TestFrames.code128("PALLET-0042"), 2, 30, 200);
+        File frame = File.createTempFile("frame", ".y");
+        try {
+            Files.write(frame.toPath(), code);
+            for (boolean prewarm : new boolean[]{false, true}) {
+                long[] millis = new long[5];
+                for (int i = 0; i < millis.length; i++) {
+                    millis[i] = runStartupProbe(prewarm, cameraOpenMs, frame, width, height);
+                }
+                Arrays.sort(millis);
+                System.out.println(String.format(Locale.US, "%-28s %12d ms  camera %d ms",
+                        prewarm ? "start to decode prewarmed" : "start to decode cold",
+                        millis[millis.length / 2], cameraOpenMs));
+            }
+        } finally {
+            frame.delete();
+        }
+    }
+
+    private static long runStartupProbe(boolean prewarm, long cameraOpenMs, File frame, int width, int height)
+            throws Exception {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                StartupProbe.class.getName(), String.valueOf(prewarm), String.valueOf(cameraOpenMs),
+                frame.getPath(), String.valueOf(width), String.valueOf(height))
+                .redirectErrorStream(true)
+                .start();
+        String output;
+        try (InputStream in = process.getInputStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            output = bytes.toString("UTF-8").trim();
+        }
+        assertEquals(output, 0, process.waitFor());
+        return Long.parseLong(output);
+    }
+
+    /**
+     * Started in its own JVM by {@link #startupToFirstDecode()}, prints the milliseconds from
+     * process start to the first decoded frame.
+     */
+    public static class StartupProbe {
+
+        public static void main(String[] args) throws Exception {
+            boolean prewarm = Boolean.parseBoolean(args[0]);
+            long cameraOpenMs = Long.parseLong(args[1]);
+            int width = Integer.parseInt(args[3]);
+            int height = Integer.parseInt(args[4]);
+            if (prewarm) {
+                // Like ScannerPool.warmUp(): a throwaway decoder on a blank frame
+                Thread warmUp = new Thread(() -> decode(new byte[width * height], width, height));
+                warmUp.start();
+            }
+            // Camera opens and delivers its first frame
+            Thread.sleep(cameraOpenMs);
+            byte[] frame = Files.readAllBytes(new File(args[2]).toPath());
+            if (decode(frame, width, height) != 1) {
+                throw new AssertionError("first frame not decoded");
+            }
+            long millis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+            System.out.println(millis);
+        }
+
+        private static int decode(byte[] frame, int width, int height) {
+            int[] found = new int[1];
+            DecoderEngine engine = new ZxingDecoderEngine(Barcode.FORMAT_CODE_128 | Barcode.FORMAT_QR_CODE);
+            engine.decode(new LumaFrame().set(frame, width, height, width, 0, 0, false), new DecoderEngine.Callback() {
+                @Override
+                public void decoded(List<DecodedBarcode> barcodes) {
+                    found[0] = barcodes.size();
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+            engine.close();
+            return found[0];
+        }
+    }
+
+    /**
+     * Frames decoded per second and capture to delivery latency with 1, 2 and 4 workers, set up
+     * as CodeAnalyser does it: a 30 fps camera, at most one frame in flight per worker, the rest
+     * dropped, and results put back in capture order by a FrameReorderer. The decoder is a stub
+     * that takes {@link #STUB_DECODE_MS} per frame, once waiting, as for a detector running off
+     * the CPU, and once spinning, which only gains from workers with as many free cores.
+     */
+    @Test
+    public void workers() throws Exception {
+        assumeBenchmark();
+        for (boolean spin : new boolean[]{false, true}) {
+            for (int workers : new int[]{1, 2, 4}) {
+                runWorkers(workers, spin);
+            }
+        }
+    }
+
+    private static void runWorkers(int workers, boolean spin) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        Semaphore inFlight = new Semaphore(workers);
+        List<Long> latencies = new ArrayList<>();
+        FrameReorderer<long[]> reorderer = new FrameReorderer<>(workers, new FrameReorderer.Sink<long[]>() {
+            @Override
+            public void deliver(long[] captured) {
+                latencies.add(System.nanoTime() - captured[0]);
+            }
+
+            @Override
+            public void dropped(long[] captured) {
+            }
+        });
+        DecoderEngine engine = new StubDecoder(STUB_DECODE_MS, spin);
+        LumaFrame frame = new LumaFrame();
+        DecoderEngine.Callback ignore = new DecoderEngine.Callback() {
+            @Override
+            public void decoded(List<DecodedBarcode> barcodes) {
+            }
+
+            @Override
+            public void failed(Exception e) {
+                throw new AssertionError(e);
+            }
+        };
+
+        long frameNanos = (long) (FRAME_MS * 1e6);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(2);
+        int frames = 0;
+        int dropped = 0;
+        for (long next = start; next < end; next += frameNanos) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            frames++;
+            long captured = System.nanoTime();
+            reorderer.poll(captured / 1_000_000);
+            if (!inFlight.tryAcquire()) {
+                dropped++;
+                continue;
+            }
+            long sequence = reorderer.begin(captured / 1_000_000);
+            pool.execute(() -> {
+                engine.decode(frame, ignore);
+                reorderer.complete(sequence, new long[]{captured}, System.nanoTime() / 1_000_000);
+                inFlight.release();
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        long total = System.nanoTime() - start;
+
+        long[] sorted;
+        synchronized (reorderer) {
+            sorted = new long[latencies.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = latencies.get(i);
+            }
+        }
+        Arrays.sort(sorted);
+        System.out.println(String.format(Locale.US,
+                "%-28s %12.1f frames/s  p50 %9.1f ms  p99 %9.1f ms  %d of %d dropped  %d stale",
+                "workers " + workers + (spin ? " spinning" : " waiting"),
+                sorted.length * 1e9 / total, sorted[sorted.length / 2] / 1e6,
+                sorted[(int) Math.ceil(sorted.length * 0.99) - 1] / 1e6,
+                dropped, frames, reorderer.getStaleCount()));
+    }
+
+    /**
+     * Finds nothing, taking a fixed time per frame.
+     */
+    private static class StubDecoder implements DecoderEngine {
+
+        private final long decodeNanos;
+        private final boolean spin;
+
+        StubDecoder(long decodeMillis, boolean spin) {
+            this.decodeNanos = TimeUnit.MILLISECONDS.toNanos(decodeMillis);
+            this.spin = spin;
+        }
+
+        @Override
+        public void decode(LumaFrame frame, Callback callback) {
+            long end = System.nanoTime() + decodeNanos;
+            long now;
+            while ((now = System.nanoTime()) < end) {
+                if (!spin) {
+                    LockSupport.parkNanos(end - now);
+                }
+            }
+            callback.decoded(Collections.emptyList());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void historyAppend() throws Exception {
+        assumeBenchmark();
+        File dir = Files.createTempDirectory("history").toFile();
+        File file = new File(dir, "scan_history.log");
+        // Synced as often as the app does
+        ScanHistory history = new ScanHistory(file, 1, 1000);
+        try {
+            int warmup = 1000;
+            int records = 50_000;
+            long start = System.nanoTime();
+            measure("history append", warmup, records, i -> {
+                // A full queue rejects, wait for the writer as a steady stream of scans would
+                while (!history.append(new ScanRecord("PALLET-" + i, Barcode.FORMAT_CODE_128, i, 1))) {
+                    Thread.yield();
+                }
+            });
+            while (history.getRecordCount() < warmup + records) {
+                Thread.sleep(1);
+            }
+            double perSecond = (warmup + records) * 1e9 / (System.nanoTime() - start);
+            System.out.println(String.format(Locale.US, "%-28s %12.1f records/s written", "history sustained", perSecond));
+            assertTrue("history keeps up with " + perSecond + " records/s", perSecond > 1000);
+        } finally {
+            history.close();
+            history.awaitClosed(5000);
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    private static void assumeBenchmark() {
+        Assume.assumeTrue("run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+    }
+
+    /**
+     * Run an operation, timing every call, and print one line of results.
+     */
+    private static void measure(String name, int warmup, int iterations, Op op) {
+        for (int i = 0; i < warmup; i++) {
+            op.run(i);
+        }
+        long[] nanos = new long[iterations];
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long opStart = System.nanoTime();
+            op.run(warmup + i);
+            nanos[i] = System.nanoTime() - opStart;
+        }
+        long total = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        Arrays.sort(nanos);
+        System.out.println(String.format(Locale.US,
+                "%-28s %12.1f ops/s  p50 %9.1f us  p99 %9.1f us  %10s B/op",
+                name, iterations * 1e9 / total, nanos[iterations / 2] / 1e3,
+                nanos[(int) Math.ceil(iterations * 0.99) - 1] / 1e3,
+                allocated < 0 ? "n/a" : String.format(Locale.US, "%.1f", allocated / (double) iterations)));
+    }
+
+    /**
+     * Bytes allocated by this thread so far, -1 where the JVM does not tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,205 @@
+package com.camera.fastscanner.decoder;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchRunTest {
+
+    // Stands in for the main thread
+    private final ExecutorService callbacks = Executors.newSingleThreadExecutor();
+    private final Recorder recorder = new Recorder();
+
+    @After
+    public void tearDown() {
+        callbacks.shutdownNow();
+    }
+
+    @Test
+    public void everyItemIsReportedOnce() throws Exception {
+        AtomicInteger closed = new AtomicInteger();
+        BatchRun<String> run = new BatchRun<>(items(20), () -> new FakeWorker(closed), recorder, callbacks::execute);
+        run.start(4);
+
+        assertTrue(recorder.await());
+        assertEquals(20, recorder.decoded.size());
+        assertEquals(0, recorder.failed.size());
+        assertEquals(20, recorder.lastDone);
+        assertEquals(listOf(false), recorder.finished);
+        assertEquals(4, closed.get());
+    }
+
+    @Test
+    public void throwingDecodeFailsOnlyItsItem() throws Exception {
+        AtomicInteger closed = new AtomicInteger();
+        BatchRun<String> run = new BatchRun<>(items(10), () -> new FakeWorker(closed) {
+            @Override
+            public List<DecodedBarcode> decode(String item) throws Exception {
+                if (item.equals("IMAGE-3")) {
+                    throw new IllegalStateException("detector bug");
+                }
+                if (item.equals("IMAGE-6")) {
+                    throw new IOException("unreadable");
+                }
+                return super.decode(item);
+            }
+        }, recorder, callbacks::execute);
+        run.start(2);
+
+        assertTrue(recorder.await());
+        assertEquals(8, recorder.decoded.size());
+        assertEquals(2, recorder.failed.size());
+        assertTrue(recorder.failed.contains("IMAGE-3"));
+        assertTrue(recorder.failed.contains("IMAGE-6"));
+        assertEquals(10, recorder.lastDone);
+        assertEquals(listOf(false), recorder.finished);
+        assertEquals(2, closed.get());
+    }
+
+    @Test
+    public void errorInAWorkerStillFinishesTheRun() throws Exception {
+        AtomicInteger closed = new AtomicInteger();
+        BatchRun<String> run = new BatchRun<>(items(1), () -> new FakeWorker(closed) {
+            @Override
+            public List<DecodedBarcode> decode(String item) {
+                throw new OutOfMemoryError("bitmap too big");
+            }
+        }, recorder, callbacks::execute);
+        run.start(1);
+
+        assertTrue(recorder.await());
+        assertEquals(listOf(false), recorder.finished);
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void nothingIsReportedAfterCancel() throws Exception {
+        CountDownLatch decoding = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger closed = new AtomicInteger();
+        BatchRun<String> run = new BatchRun<>(items(10), () -> new FakeWorker(closed) {
+            @Override
+            public List<DecodedBarcode> decode(String item) throws Exception {
+                decoding.countDown();
+                release.await();
+                return super.decode(item);
+            }
+        }, recorder, callbacks::execute);
+        run.start(2);
+
+        assertTrue(decoding.await(5, TimeUnit.SECONDS));
+        // Cancelled on the callback thread, as the app does on the main thread
+        callbacks.submit(run::cancel).get();
+        release.countDown();
+
+        assertTrue(recorder.await());
+        assertTrue(run.isCancelled());
+        assertEquals(0, recorder.decoded.size());
+        assertEquals(0, recorder.lastDone);
+        assertEquals(listOf(true), recorder.finished);
+        assertEquals(2, closed.get());
+    }
+
+    @Test
+    public void emptyListFinishesAtOnce() throws Exception {
+        BatchRun<String> run = new BatchRun<>(Collections.emptyList(), () -> new FakeWorker(new AtomicInteger()),
+                recorder, callbacks::execute);
+        run.start(4);
+
+        assertTrue(recorder.await());
+        assertFalse(run.isCancelled());
+        assertEquals(listOf(false), recorder.finished);
+    }
+
+    private static List<String> items(int count) {
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add("IMAGE-" + i);
+        }
+        return items;
+    }
+
+    private static List<Boolean> listOf(Boolean value) {
+        List<Boolean> list = new ArrayList<>();
+        list.add(value);
+        return list;
+    }
+
+    /**
+     * Finds one code per item, its value the name of the item.
+     */
+    private static class FakeWorker implements BatchRun.Worker<String> {
+
+        private final AtomicInteger closed;
+
+        FakeWorker(AtomicInteger closed) {
+            this.closed = closed;
+        }
+
+        @Override
+        public List<DecodedBarcode> decode(String item) throws Exception {
+            return Collections.singletonList(new DecodedBarcode(1, item, item, null, 0, 0, 10, 10, null));
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Everything the listener was told, only touched on the callback thread.
+     */
+    private static class Recorder implements BatchRun.Listener<String> {
+
+        final List<String> decoded = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        final List<Boolean> finished = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        int lastDone;
+
+        @Override
+        public void imageDecoded(String image, ScanBatch batch) {
+            assertEquals(image, batch.getBarcodes().get(0).getRawValue());
+            decoded.add(image);
+        }
+
+        @Override
+        public void imageFailed(String image, Exception e) {
+            failed.add(image);
+        }
+
+        @Override
+        public void progress(int done, int total) {
+            lastDone = Math.max(lastDone, done);
+        }
+
+        @Override
+        public void finished(boolean cancelled) {
+            finished.add(cancelled);
+            done.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            if (!done.await(5, TimeUnit.SECONDS)) {
+                return false;
+            }
+            // Anything reported after finished would show up here
+            Thread.sleep(20);
+            return true;
+        }
+    }
+}
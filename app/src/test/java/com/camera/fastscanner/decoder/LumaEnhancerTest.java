@@ -0,0 +1,166 @@
+package com.camera.fastscanner.decoder;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LumaEnhancerTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final String VALUE = "PALLET-0042";
+
+    @Test
+    public void contrastyFrameIsLeftAlone() {
+        byte[] data = frame(30, 220, 2, 1);
+        byte[] original = data.clone();
+        LumaEnhancer enhancer = new LumaEnhancer();
+
+        assertFalse(enhancer.stretch(luma(data)));
+        assertArrayEquals(original, data);
+        assertEquals(0, enhancer.getStretchedFrames());
+    }
+
+    @Test
+    public void flatFrameIsLeftAlone() {
+        byte[] data = TestFrames.blank(WIDTH, HEIGHT, 90);
+        byte[] original = data.clone();
+
+        assertFalse(new LumaEnhancer().stretch(luma(data)));
+        assertArrayEquals(original, data);
+    }
+
+    @Test
+    public void lowContrastIsStretched() {
+        byte[] data = frame(80, 100, 1, 1);
+        byte[] original = data.clone();
+        LumaEnhancer enhancer = new LumaEnhancer();
+
+        assertTrue(enhancer.stretch(luma(data)));
+        assertEquals(1, enhancer.getStretchedFrames());
+        // Bars and gaps well apart now, the black point stays
+        long dark = 0;
+        long light = 0;
+        int darkPixels = 0;
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            if ((original[i] & 0xff) < 90) {
+                dark += data[i] & 0xff;
+                darkPixels++;
+            } else {
+                light += data[i] & 0xff;
+            }
+        }
+        dark /= darkPixels;
+        light /= WIDTH * HEIGHT - darkPixels;
+        assertTrue("dark " + dark, Math.abs(dark - 80) < 10);
+        assertTrue("light " + light, light - dark > 60);
+        // Chroma is not luminance
+        assertEquals(128, data[WIDTH * HEIGHT] & 0xff);
+    }
+
+    @Test
+    public void noiseLimitsTheGain() {
+        byte[] quiet = frame(80, 100, 1, 1);
+        byte[] noisy = frame(80, 100, 4, 1);
+        new LumaEnhancer().stretch(luma(quiet));
+        new LumaEnhancer().stretch(luma(noisy));
+
+        assertTrue(range(noisy) < range(quiet));
+    }
+
+    @Test
+    public void invertTwiceRestores() {
+        byte[] data = frame(80, 100, 2, 1);
+        byte[] original = data.clone();
+        LumaEnhancer enhancer = new LumaEnhancer();
+
+        enhancer.invert(luma(data));
+        assertEquals(255 - (original[0] & 0xff), data[0] & 0xff);
+        enhancer.invert(luma(data));
+        assertArrayEquals(original, data);
+    }
+
+    @Test
+    public void stretchingRaisesCode128DecodeRate() {
+        // Dim label under a warehouse light, 16 levels between bars and gaps
+        assertDecodeRateRaised(Barcode.FORMAT_CODE_128, 16);
+    }
+
+    @Test
+    public void stretchingRaisesQrDecodeRate() {
+        assertDecodeRateRaised(Barcode.FORMAT_QR_CODE, 12);
+    }
+
+    private static void assertDecodeRateRaised(int format, int contrast) {
+        ZxingDecoderEngine engine = new ZxingDecoderEngine(format);
+        LumaEnhancer enhancer = new LumaEnhancer();
+        int frames = 20;
+        int plain = 0;
+        int stretched = 0;
+        for (int seed = 0; seed < frames; seed++) {
+            byte[] data = TestFrames.blank(WIDTH, HEIGHT, 70 + contrast);
+            if (format == Barcode.FORMAT_QR_CODE) {
+                TestFrames.draw(data, WIDTH, HEIGHT, TestFrames.qr(VALUE), 4, 70, 70 + contrast);
+            } else {
+                TestFrames.draw(data, WIDTH, HEIGHT, TestFrames.code128(VALUE), 2, 70, 70 + contrast);
+            }
+            TestFrames.noise(data, WIDTH, HEIGHT, 1, seed);
+            if (decodes(engine, data)) {
+                plain++;
+            }
+            enhancer.stretch(luma(data));
+            if (decodes(engine, data)) {
+                stretched++;
+            }
+        }
+
+        assertTrue("plain " + plain + ", stretched " + stretched, stretched >= frames * 9 / 10);
+        assertTrue("plain " + plain + ", stretched " + stretched, stretched > plain);
+    }
+
+    private static byte[] frame(int dark, int light, double sigma, long seed) {
+        byte[] data = TestFrames.blank(WIDTH, HEIGHT, light);
+        TestFrames.draw(data, WIDTH, HEIGHT, TestFrames.code128(VALUE), 2, dark, light);
+        TestFrames.noise(data, WIDTH, HEIGHT, sigma, seed);
+        return data;
+    }
+
+    private static LumaFrame luma(byte[] data) {
+        return new LumaFrame().set(data, WIDTH, HEIGHT, WIDTH, 0, 0, true);
+    }
+
+    private static int range(byte[] data) {
+        int min = 255;
+        int max = 0;
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            min = Math.min(min, data[i] & 0xff);
+            max = Math.max(max, data[i] & 0xff);
+        }
+        return max - min;
+    }
+
+    private static boolean decodes(DecoderEngine engine, byte[] data) {
+        boolean[] found = new boolean[1];
+        engine.decode(luma(data), new DecoderEngine.Callback() {
+            @Override
+            public void decoded(List<DecodedBarcode> barcodes) {
+                for (DecodedBarcode barcode : barcodes) {
+                    found[0] |= VALUE.equals(barcode.getRawValue());
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        return found[0];
+    }
+}
@@ -0,0 +1,98 @@
+package com.camera.fastscanner.decoder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PresenceFilterTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private final PresenceFilter filter = new PresenceFilter();
+
+    @Test
+    public void blankFrameHasNoCode() {
+        assertFalse(check(TestFrames.blank(WIDTH, HEIGHT, 128)));
+    }
+
+    @Test
+    public void sensorNoiseHasNoCode() {
+        // Weak noise stays below the gradient energy a block needs
+        byte[] frame = TestFrames.blank(WIDTH, HEIGHT, 128);
+        TestFrames.noise(frame, WIDTH, HEIGHT, 8, 1);
+        assertFalse(check(frame));
+    }
+
+    @Test
+    public void strongNoiseIsNotCoherent() {
+        // Enough gradient energy, but in every direction. A rare block lines up by chance.
+        int present = 0;
+        for (int seed = 0; seed < 20; seed++) {
+            byte[] frame = TestFrames.blank(WIDTH, HEIGHT, 128);
+            TestFrames.noise(frame, WIDTH, HEIGHT, 16, seed);
+            if (check(frame)) {
+                present++;
+            }
+        }
+        assertTrue("noise frames taken for codes: " + present, present <= 1);
+    }
+
+    @Test
+    public void softShadingHasNoCode() {
+        // Lines up perfectly, but far too weak
+        byte[] frame = TestFrames.blank(WIDTH, HEIGHT, 128);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                frame[y * WIDTH + x] = (byte) (x * 255 / WIDTH);
+            }
+        }
+        assertFalse(check(frame));
+    }
+
+    @Test
+    public void barsArePresent() {
+        byte[] frame = TestFrames.blank(WIDTH, HEIGHT, 200);
+        TestFrames.draw(frame, WIDTH, HEIGHT, TestFrames.code128("PALLET-0042"), 2, 30, 200);
+        assertTrue(check(frame));
+    }
+
+    @Test
+    public void modulesArePresent() {
+        byte[] frame = TestFrames.blank(WIDTH, HEIGHT, 200);
+        TestFrames.draw(frame, WIDTH, HEIGHT, TestFrames.qr("https://example.com/item/42"), 4, 30, 200);
+        assertTrue(check(frame));
+    }
+
+    @Test
+    public void smallCodeIsPresent() {
+        // About 60 pixels across
+        byte[] frame = TestFrames.blank(WIDTH, HEIGHT, 200);
+        TestFrames.draw(frame, WIDTH, HEIGHT, TestFrames.qr("https://example.com/item/42"), 2, 30, 200);
+        assertTrue(check(frame));
+    }
+
+    @Test
+    public void codeUnderNoiseIsPresent() {
+        byte[] frame = TestFrames.blank(WIDTH, HEIGHT, 200);
+        TestFrames.draw(frame, WIDTH, HEIGHT, TestFrames.code128("PALLET-0042"), 2, 30, 200);
+        TestFrames.noise(frame, WIDTH, HEIGHT, 12, 2);
+        assertTrue(check(frame));
+    }
+
+    @Test
+    public void countsWhatItChecked() {
+        check(TestFrames.blank(WIDTH, HEIGHT, 128));
+        byte[] code = TestFrames.blank(WIDTH, HEIGHT, 200);
+        TestFrames.draw(code, WIDTH, HEIGHT, TestFrames.qr("https://example.com/item/42"), 4, 30, 200);
+        check(code);
+        assertEquals(2, filter.getChecked());
+        assertEquals(1, filter.getPresent());
+    }
+
+    private boolean check(byte[] frame) {
+        return filter.check(new LumaFrame().set(frame, WIDTH, HEIGHT, WIDTH, 0, 0, true));
+    }
+}
@@ -0,0 +1,80 @@
+package com.camera.fastscanner.decoder;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Synthetic camera frames for tests and benchmarks: NV21 buffers with codes drawn into the luma.
+ */
+public final class TestFrames {
+
+    private TestFrames() {
+    }
+
+    /**
+     * A grey NV21 frame with neutral chroma.
+     */
+    public static byte[] blank(int width, int height, int grey) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        Arrays.fill(nv21, 0, width * height, (byte) grey);
+        Arrays.fill(nv21, width * height, nv21.length, (byte) 128);
+        return nv21;
+    }
+
+    public static BitMatrix code128(String value) {
+        return encode(value, BarcodeFormat.CODE_128);
+    }
+
+    public static BitMatrix qr(String value) {
+        return encode(value, BarcodeFormat.QR_CODE);
+    }
+
+    private static BitMatrix encode(String value, BarcodeFormat format) {
+        try {
+            // Smallest size, every module one pixel, scaled when drawn
+            return new MultiFormatWriter().encode(value, format, 0, 0);
+        } catch (WriterException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Draw a code centred into the luma of a frame, with a quiet zone of light pixels around it.
+     *
+     * @param scale pixels per module
+     * @param dark  luma of the bars or modules
+     * @param light luma of the gaps and the quiet zone
+     */
+    public static void draw(byte[] luma, int width, int height, BitMatrix code, int scale, int dark, int light) {
+        int codeWidth = code.getWidth() * scale;
+        // 1D codes come one module high
+        int codeHeight = code.getHeight() == 1 ? codeWidth / 3 : code.getHeight() * scale;
+        int left = (width - codeWidth) / 2;
+        int top = (height - codeHeight) / 2;
+        int quiet = 10 * scale;
+        for (int y = Math.max(0, top - quiet); y < Math.min(height, top + codeHeight + quiet); y++) {
+            for (int x = Math.max(0, left - quiet); x < Math.min(width, left + codeWidth + quiet); x++) {
+                boolean inside = x >= left && x < left + codeWidth && y >= top && y < top + codeHeight;
+                boolean set = inside && code.get((x - left) / scale,
+                        code.getHeight() == 1 ? 0 : (y - top) / scale);
+                luma[y * width + x] = (byte) (set ? dark : light);
+            }
+        }
+    }
+
+    /**
+     * Add gaussian sensor noise to the luma, the same for the same seed.
+     */
+    public static void noise(byte[] luma, int width, int height, double sigma, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < width * height; i++) {
+            int value = (luma[i] & 0xff) + (int) Math.round(random.nextGaussian() * sigma);
+            luma[i] = (byte) Math.max(0, Math.min(255, value));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.camera.fastscanner.decoder;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+import com.google.zxing.common.BitMatrix;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZxingDecoderEngineTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int FORMATS = Barcode.FORMAT_CODE_128 | Barcode.FORMAT_QR_CODE;
+
+    @Test
+    public void decodesQrCode() {
+        String value = "https://example.com/item/42";
+        BitMatrix code = TestFrames.qr(value);
+        byte[] data = TestFrames.blank(WIDTH, HEIGHT, 200);
+        TestFrames.draw(data, WIDTH, HEIGHT, code, 4, 30, 200);
+
+        List<DecodedBarcode> barcodes = decode(new ZxingDecoderEngine(FORMATS), data, 0);
+        assertEquals(1, barcodes.size());
+        DecodedBarcode barcode = barcodes.get(0);
+        assertEquals(Barcode.FORMAT_QR_CODE, barcode.getFormat());
+        assertEquals(value, barcode.getRawValue());
+        assertEquals(value, new String(barcode.getRawBytes(), Charset.forName("UTF-8")));
+        // Finder pattern centres, inside the drawn code
+        int size = code.getWidth() * 4;
+        assertInside(barcode, (WIDTH - size) / 2, (HEIGHT - size) / 2, (WIDTH + size) / 2, (HEIGHT + size) / 2);
+    }
+
+    @Test
+    public void decodesCode128WithBoxOfSomeHeight() {
+        String value = "PALLET-0042";
+        BitMatrix code = TestFrames.code128(value);
+        byte[] data = TestFrames.blank(WIDTH, HEIGHT, 200);
+        TestFrames.draw(data, WIDTH, HEIGHT, code, 2, 30, 200);
+
+        List<DecodedBarcode> barcodes = decode(new ZxingDecoderEngine(FORMATS), data, 0);
+        assertEquals(1, barcodes.size());
+        DecodedBarcode barcode = barcodes.get(0);
+        assertEquals(Barcode.FORMAT_CODE_128, barcode.getFormat());
+        assertEquals(value, barcode.getRawValue());
+        // ZXing only reports the scan line, the box must still have an area to be tracked
+        int width = barcode.getRight() - barcode.getLeft();
+        int height = barcode.getBottom() - barcode.getTop();
+        // From the middle of the start pattern to the middle of the stop pattern, the encoder adds
+        // ten modules of quiet zone on either side
+        assertTrue("width " + width, width > (code.getWidth() - 20) * 2 * 3 / 4);
+        assertTrue("height " + height, height >= width / 4 - 1);
+        assertInside(barcode, 0, 0, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void boxIsInUprightCoordinates() {
+        byte[] data = TestFrames.blank(WIDTH, HEIGHT, 200);
+        TestFrames.draw(data, WIDTH, HEIGHT, TestFrames.qr("ROTATED"), 4, 30, 200);
+
+        List<DecodedBarcode> barcodes = decode(new ZxingDecoderEngine(FORMATS), data, 90);
+        assertEquals(1, barcodes.size());
+        assertEquals("ROTATED", barcodes.get(0).getRawValue());
+        // Upright the frame is HEIGHT wide and WIDTH high
+        assertInside(barcodes.get(0), 0, 0, HEIGHT, WIDTH);
+    }
+
+    @Test
+    public void onlyRequestedFormatsAreDecoded() {
+        byte[] data = TestFrames.blank(WIDTH, HEIGHT, 200);
+        TestFrames.draw(data, WIDTH, HEIGHT, TestFrames.code128("PALLET-0042"), 2, 30, 200);
+
+        assertTrue(decode(new ZxingDecoderEngine(Barcode.FORMAT_QR_CODE), data, 0).isEmpty());
+    }
+
+    @Test
+    public void emptyFrameDecodesToNothing() {
+        byte[] data = TestFrames.blank(WIDTH, HEIGHT, 200);
+        TestFrames.noise(data, WIDTH, HEIGHT, 3, 1);
+        ZxingDecoderEngine engine = new ZxingDecoderEngine(FORMATS);
+
+        assertTrue(decode(engine, data, 0).isEmpty());
+        // And the engine is fine for the next frame
+        TestFrames.draw(data, WIDTH, HEIGHT, TestFrames.qr("NEXT"), 4, 30, 200);
+        assertEquals("NEXT", decode(engine, data, 0).get(0).getRawValue());
+    }
+
+    @Test
+    public void brokenFrameIsReportedAsFailure() {
+        // Shorter than the frame claims to be
+        byte[] data = new byte[WIDTH * HEIGHT / 2];
+        Exception[] failure = new Exception[1];
+        new ZxingDecoderEngine(FORMATS).decode(new LumaFrame().set(data, WIDTH, HEIGHT, WIDTH, 0, 0, false),
+                new DecoderEngine.Callback() {
+                    @Override
+                    public void decoded(List<DecodedBarcode> barcodes) {
+                        throw new AssertionError("decoded " + barcodes);
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        failure[0] = e;
+                    }
+                });
+
+        assertTrue(String.valueOf(failure[0]), failure[0] instanceof RuntimeException);
+    }
+
+    private static void assertInside(DecodedBarcode barcode, int left, int top, int right, int bottom) {
+        String box = barcode.getLeft() + "," + barcode.getTop() + "," + barcode.getRight() + "," + barcode.getBottom();
+        assertTrue(box, barcode.getLeft() >= left && barcode.getTop() >= top);
+        assertTrue(box, barcode.getRight() <= right && barcode.getBottom() <= bottom);
+        assertTrue(box, barcode.getLeft() < barcode.getRight() && barcode.getTop() < barcode.getBottom());
+    }
+
+    private static List<DecodedBarcode> decode(DecoderEngine engine, byte[] data, int rotation) {
+        Object[] result = new Object[1];
+        engine.decode(new LumaFrame().set(data, WIDTH, HEIGHT, WIDTH, rotation, 0, true), new DecoderEngine.Callback() {
+            @Override
+            public void decoded(List<DecodedBarcode> barcodes) {
+                result[0] = barcodes;
+            }
+
+            @Override
+            public void failed(Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        assertNotNull("no callback", result[0]);
+        @SuppressWarnings("unchecked")
+        List<DecodedBarcode> barcodes = (List<DecodedBarcode>) result[0];
+        return barcodes;
+    }
+}
@@ -0,0 +1,336 @@
+package com.camera.fastscanner.history;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanHistoryTest {
+
+    private static final int FORMAT = 1;
+    private static final long SESSION = 7;
+
+    private File dir;
+    private File file;
+    private final List<ScanHistory> opened = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("history").toFile();
+        file = new File(dir, "scan_history.log");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        for (ScanHistory history : opened) {
+            history.close();
+            history.awaitClosed(5000);
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                File[] children = f.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        child.delete();
+                    }
+                }
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void recordsComeBackInOrder() throws Exception {
+        ScanHistory history = open();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(history.append(record("CODE-" + i, 1000 + i)));
+        }
+        awaitRecords(history, 10);
+
+        ScanHistory.Page page = history.read(0, Long.MAX_VALUE, 100);
+        assertEquals(10, page.getRecords().size());
+        assertFalse(page.hasNext());
+        for (int i = 0; i < 10; i++) {
+            ScanRecord record = page.getRecords().get(i);
+            assertEquals("CODE-" + i, record.getValue());
+            assertEquals(FORMAT, record.getFormat());
+            assertEquals(1000 + i, record.getTimestampMillis());
+            assertEquals(SESSION, record.getSession());
+        }
+    }
+
+    @Test
+    public void appendStampsSessionAndTime() throws Exception {
+        ScanHistory history = open();
+        long before = System.currentTimeMillis();
+        assertTrue(history.append("CODE", FORMAT));
+        awaitRecords(history, 1);
+        long after = System.currentTimeMillis();
+
+        ScanRecord record = history.read(0, Long.MAX_VALUE, 10).getRecords().get(0);
+        assertEquals("CODE", record.getValue());
+        assertEquals(SESSION, record.getSession());
+        assertTrue(record.getTimestampMillis() >= before && record.getTimestampMillis() <= after);
+    }
+
+    @Test
+    public void closedHistoryRejectsAppends() throws Exception {
+        ScanHistory history = open();
+        history.append(record("A", 100));
+        history.close();
+        assertTrue(history.awaitClosed(5000));
+
+        assertFalse(history.append(record("B", 200)));
+        assertEquals(1, history.getRejectedCount());
+        assertEquals(listOf("A"), readAll(history, history.read(0, 1000, 10)));
+    }
+
+    @Test
+    public void recordsSurviveReopening() throws Exception {
+        ScanHistory first = open();
+        first.append(record("A", 100));
+        first.append(record("B", 200));
+        first.close();
+        assertTrue(first.awaitClosed(5000));
+
+        ScanHistory second = open();
+        second.append(record("C", 300));
+        awaitRecords(second, 3);
+        assertEquals(listOf("A", "B", "C"), readAll(second, second.read(0, 1000, 2)));
+    }
+
+    @Test
+    public void tornRecordAtTheEndIsCutOff() throws Exception {
+        ScanHistory first = open();
+        first.append(record("A", 100));
+        first.append(record("B", 200));
+        first.close();
+        assertTrue(first.awaitClosed(5000));
+        long intact = file.length();
+
+        // A record cut short by a crash: its length promises more than is there
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(ByteBuffer.allocate(12).putInt(100).putLong(300).array());
+        }
+        ScanHistory second = open();
+        awaitOpened(second);
+        assertEquals(2, second.getRecordCount());
+        assertEquals(intact, file.length());
+
+        second.append(record("C", 400));
+        awaitRecords(second, 3);
+        assertEquals(listOf("A", "B", "C"), readAll(second, second.read(0, 1000, 10)));
+    }
+
+    @Test
+    public void damagedRecordEndsTheLog() throws Exception {
+        ScanHistory first = open();
+        first.append(record("A", 100));
+        first.append(record("B", 200));
+        first.close();
+        assertTrue(first.awaitClosed(5000));
+
+        // Flip a byte of the last value, its CRC no longer matches
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.seek(raw.length() - 5);
+            int b = raw.read();
+            raw.seek(raw.length() - 5);
+            raw.write(b ^ 0xff);
+        }
+        ScanHistory second = open();
+        awaitOpened(second);
+        assertEquals(listOf("A"), readAll(second, second.read(0, 1000, 10)));
+    }
+
+    @Test
+    public void compactionDropsOldRecords() throws Exception {
+        ScanHistory history = open();
+        for (int i = 0; i < 600; i++) {
+            history.append(record("CODE-" + i, i));
+        }
+        awaitRecords(history, 600);
+        long before = file.length();
+
+        history.compact(400);
+        awaitRecords(history, 200);
+        assertTrue(file.length() < before);
+        assertFalse(new File(dir, file.getName() + ".compact").exists());
+        List<String> values = readAll(history, history.read(0, Long.MAX_VALUE, 64));
+        assertEquals(200, values.size());
+        assertEquals("CODE-400", values.get(0));
+        assertEquals("CODE-599", values.get(199));
+
+        // Compacting again with nothing to drop leaves the file alone
+        history.compact(400);
+        history.append(record("LATER", 1000));
+        awaitRecords(history, 201);
+        assertEquals(0, history.getFailedCompactions());
+    }
+
+    @Test
+    public void pagesCoverTheRangeOnce() throws Exception {
+        ScanHistory history = open();
+        // More than one index block
+        for (int i = 0; i < 1000; i++) {
+            history.append(record("CODE-" + i, i));
+        }
+        awaitRecords(history, 1000);
+
+        List<String> values = readAll(history, history.read(100, 900, 64));
+        assertEquals(800, values.size());
+        for (int i = 0; i < 800; i++) {
+            assertEquals("CODE-" + (100 + i), values.get(i));
+        }
+    }
+
+    @Test
+    public void clockGoingBackwardsLosesNothing() throws Exception {
+        ScanHistory history = open();
+        history.append(record("A", 100));
+        history.append(record("B", 300));
+        // Clock set back
+        history.append(record("C", 200));
+        awaitRecords(history, 3);
+
+        assertEquals(listOf("A", "C"), readAll(history, history.read(0, 250, 10)));
+        assertEquals(listOf("B", "C"), readAll(history, history.read(150, 400, 10)));
+    }
+
+    @Test
+    public void pagingContinuesAcrossCompactionWithinOneMillisecond() throws Exception {
+        ScanHistory history = open();
+        history.append(record("OLD-0", 500));
+        history.append(record("OLD-1", 500));
+        // Ten scans within the same millisecond
+        for (int i = 0; i < 10; i++) {
+            history.append(record("NEW-" + i, 1000));
+        }
+        awaitRecords(history, 12);
+
+        ScanHistory.Page first = history.read(0, Long.MAX_VALUE, 4);
+        assertEquals("NEW-1", first.getRecords().get(3).getValue());
+        history.compact(1000);
+        awaitRecords(history, 10);
+
+        List<String> rest = readAll(history, history.readNext(first));
+        assertEquals(8, rest.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals("NEW-" + (i + 2), rest.get(i));
+        }
+    }
+
+    @Test
+    public void failedCompactionKeepsTheOldFile() throws Exception {
+        // Nothing can be written where the compacted file goes
+        File blocked = new File(dir, file.getName() + ".compact");
+        assertTrue(blocked.mkdir());
+        assertTrue(new File(blocked, "keep").createNewFile());
+
+        ScanHistory history = open();
+        history.append(record("OLD", 500));
+        history.append(record("NEW", 1000));
+        awaitRecords(history, 2);
+        history.compact(1000);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (history.getFailedCompactions() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+
+        history.append(record("LATER", 2000));
+        awaitRecords(history, 3);
+        assertEquals(listOf("OLD", "NEW", "LATER"), readAll(history, history.read(0, Long.MAX_VALUE, 10)));
+    }
+
+    @Test
+    public void versionOneFileIsConverted() throws Exception {
+        // Header, then length, timestamp, session, format, value and CRC, without sequence
+        ByteBuffer v1 = ByteBuffer.allocate(1024);
+        v1.putInt(0x53434e48).putInt(1);
+        for (int i = 0; i < 3; i++) {
+            byte[] value = ("OLD-" + i).getBytes("UTF-8");
+            int start = v1.position();
+            v1.putInt(8 + 8 + 4 + 4 + value.length).putLong(100 + i).putLong(3).putInt(FORMAT).put(value);
+            CRC32 crc = new CRC32();
+            crc.update(v1.array(), start + 4, v1.position() - start - 4);
+            v1.putInt((int) crc.getValue());
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(v1.array(), 0, v1.position());
+        }
+
+        ScanHistory history = open();
+        history.append(record("NEW", 200));
+        awaitRecords(history, 4);
+
+        assertEquals(listOf("OLD-0", "OLD-1", "OLD-2", "NEW"), readAll(history, history.read(0, 1000, 2)));
+        assertEquals(3, history.read(0, 150, 10).getRecords().get(0).getSession());
+    }
+
+    /**
+     * Records of an existing file are counted once it is opened, wait for that.
+     */
+    private static void awaitOpened(ScanHistory history) throws IOException {
+        history.read(0, 1, 1);
+    }
+
+    private ScanHistory open() {
+        ScanHistory history = new ScanHistory(file, SESSION, 0);
+        opened.add(history);
+        return history;
+    }
+
+    private static ScanRecord record(String value, long timestamp) {
+        return new ScanRecord(value, FORMAT, timestamp, SESSION);
+    }
+
+    /**
+     * Values of this page and all following ones.
+     */
+    private static List<String> readAll(ScanHistory history, ScanHistory.Page page) throws IOException {
+        List<String> values = new ArrayList<>();
+        while (true) {
+            for (ScanRecord record : page.getRecords()) {
+                values.add(record.getValue());
+            }
+            if (!page.hasNext()) {
+                return values;
+            }
+            page = history.readNext(page);
+        }
+    }
+
+    private static List<String> listOf(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    /**
+     * The writer and compaction run on their own thread, wait for them to get there.
+     */
+    private static void awaitRecords(ScanHistory history, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (history.getRecordCount() != count) {
+            assertTrue("records " + history.getRecordCount(), System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.camera.fastscanner.objects;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BarcodeTrackerTest {
+
+    // 30 fps
+    private static final long FRAME = 33_333_333L;
+    private static final int[] BOUNDS = {0, 0, 1280, 720};
+
+    @Test
+    public void searchesEverythingWithoutTracks() {
+        BarcodeTracker tracker = new BarcodeTracker();
+        int[] region = new int[4];
+
+        assertFalse(tracker.nextRegion(0, BOUNDS, region));
+        tracker.update(0, new int[0], 0);
+        assertFalse(tracker.nextRegion(FRAME, BOUNDS, region));
+        assertEquals(0, tracker.getTrackCount());
+    }
+
+    @Test
+    public void regionCoversStillCodeWithMargin() {
+        BarcodeTracker tracker = new BarcodeTracker();
+        int[] region = new int[4];
+        tracker.update(0, new int[]{300, 200, 400, 260}, 1);
+
+        assertTrue(tracker.nextRegion(FRAME, BOUNDS, region));
+        // Half the box size on every side
+        assertContains(region, 250, 170, 450, 290);
+        assertAlignedInside(region);
+    }
+
+    @Test
+    public void regionFollowsMovingCode() {
+        BarcodeTracker tracker = new BarcodeTracker();
+        int[] region = new int[4];
+        // 40 pixels to the right every frame
+        for (int i = 0; i < 5; i++) {
+            tracker.update(i * FRAME, new int[]{100 + 40 * i, 300, 200 + 40 * i, 360}, 1);
+        }
+
+        // Decoded three frames later, as with several workers
+        assertTrue(tracker.nextRegion(7 * FRAME, BOUNDS, region));
+        // The code is expected around 380..480, well right of where it was last seen
+        assertContains(region, 380, 300, 480, 360);
+        assertTrue(region[0] > 100 + 40 * 4 - 50);
+        assertAlignedInside(region);
+    }
+
+    @Test
+    public void lostTrackForcesFullSearch() {
+        BarcodeTracker tracker = new BarcodeTracker();
+        int[] region = new int[4];
+        int[] two = {100, 100, 200, 160, 800, 400, 900, 460};
+        tracker.update(0, two, 2);
+        assertEquals(2, tracker.getTrackCount());
+
+        // Only the first one seen again
+        tracker.update(FRAME, two, 1);
+        assertEquals(1, tracker.getTrackCount());
+        assertFalse(tracker.nextRegion(2 * FRAME, BOUNDS, region));
+
+        tracker.update(2 * FRAME, two, 1);
+        assertTrue(tracker.nextRegion(3 * FRAME, BOUNDS, region));
+        assertContains(region, 100, 100, 200, 160);
+    }
+
+    @Test
+    public void searchesEverythingPeriodically() {
+        BarcodeTracker tracker = new BarcodeTracker();
+        int[] region = new int[4];
+        int[] box = {600, 300, 700, 360};
+        int full = 0;
+        for (int i = 0; i < 10 * BarcodeTracker.FULL_SEARCH_INTERVAL; i++) {
+            tracker.update(i * FRAME, box, 1);
+            if (!tracker.nextRegion((i + 1) * FRAME, BOUNDS, region)) {
+                full++;
+            }
+        }
+
+        assertEquals(10, full);
+        assertEquals(0.9, tracker.getTrackedFraction(), 1e-9);
+    }
+
+    @Test
+    public void searchesEverythingWhenPredictedOutside() {
+        BarcodeTracker tracker = new BarcodeTracker();
+        int[] region = new int[4];
+        // Leaving to the right at 200 pixels per frame
+        tracker.update(0, new int[]{1000, 300, 1100, 360}, 1);
+        tracker.update(FRAME, new int[]{1200, 300, 1300, 360}, 1);
+
+        assertFalse(tracker.nextRegion(4 * FRAME, BOUNDS, region));
+    }
+
+    @Test
+    public void regionIsClampedToBounds() {
+        BarcodeTracker tracker = new BarcodeTracker();
+        int[] region = new int[4];
+        // Larger than the search area once the margin is added
+        tracker.update(0, new int[]{100, 50, 1200, 700}, 1);
+
+        assertTrue(tracker.nextRegion(FRAME, BOUNDS, region));
+        assertEquals(0, region[0]);
+        assertEquals(0, region[1]);
+        assertEquals(1280, region[2]);
+        assertEquals(720, region[3]);
+    }
+
+    @Test
+    public void keepsAtMostEightTracks() {
+        BarcodeTracker tracker = new BarcodeTracker();
+        int[] boxes = new int[12 * 4];
+        for (int i = 0; i < 12; i++) {
+            boxes[i * 4] = i * 100;
+            boxes[i * 4 + 1] = 300;
+            boxes[i * 4 + 2] = i * 100 + 20;
+            boxes[i * 4 + 3] = 320;
+        }
+        tracker.update(0, boxes, 12);
+
+        assertEquals(8, tracker.getTrackCount());
+    }
+
+    @Test
+    public void resetForgetsTracks() {
+        BarcodeTracker tracker = new BarcodeTracker();
+        int[] region = new int[4];
+        tracker.update(0, new int[]{300, 200, 400, 260}, 1);
+        tracker.reset();
+
+        assertEquals(0, tracker.getTrackCount());
+        assertFalse(tracker.nextRegion(FRAME, BOUNDS, region));
+    }
+
+    private static void assertContains(int[] region, int left, int top, int right, int bottom) {
+        assertTrue("left " + region[0], region[0] <= left);
+        assertTrue("top " + region[1], region[1] <= top);
+        assertTrue("right " + region[2], region[2] >= right);
+        assertTrue("bottom " + region[3], region[3] >= bottom);
+    }
+
+    private static void assertAlignedInside(int[] region) {
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, region[i] & 1);
+        }
+        assertTrue(region[0] >= BOUNDS[0] && region[2] <= BOUNDS[2]);
+        assertTrue(region[1] >= BOUNDS[1] && region[3] <= BOUNDS[3]);
+        assertEquals(0, (region[2] - region[0]) % 64);
+        assertEquals(0, (region[3] - region[1]) % 64);
+    }
+}
@@ -0,0 +1,104 @@
+package com.camera.fastscanner.objects;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DedupCacheTest {
+
+    private static final int FORMAT = 1;
+
+    @Test
+    public void repeatWithinWindowIsDuplicate() {
+        DedupCache cache = new DedupCache(4, 1000);
+        long key = DedupCache.key("PALLET-1", FORMAT);
+
+        assertFalse(cache.isDuplicate(key, 0));
+        assertTrue(cache.isDuplicate(key, 10));
+        assertTrue(cache.isDuplicate(key, 999));
+    }
+
+    @Test
+    public void repeatAfterWindowIsPublishedAgain() {
+        DedupCache cache = new DedupCache(4, 1000);
+        long key = DedupCache.key("PALLET-1", FORMAT);
+
+        assertFalse(cache.isDuplicate(key, 0));
+        assertFalse(cache.isDuplicate(key, 1000));
+        // The window starts over from the second publication
+        assertTrue(cache.isDuplicate(key, 1500));
+        assertFalse(cache.isDuplicate(key, 2000));
+    }
+
+    @Test
+    public void leastRecentlySeenIsEvicted() {
+        DedupCache cache = new DedupCache(3, 10_000);
+        long a = DedupCache.key("A", FORMAT);
+        long b = DedupCache.key("B", FORMAT);
+        long c = DedupCache.key("C", FORMAT);
+        long d = DedupCache.key("D", FORMAT);
+
+        cache.isDuplicate(a, 0);
+        cache.isDuplicate(b, 1);
+        cache.isDuplicate(c, 2);
+        // Seeing A again makes B the least recently seen
+        assertTrue(cache.isDuplicate(a, 3));
+        assertFalse(cache.isDuplicate(d, 4));
+        assertEquals(3, cache.size());
+
+        assertTrue(cache.isDuplicate(a, 5));
+        assertTrue(cache.isDuplicate(c, 6));
+        assertTrue(cache.isDuplicate(d, 7));
+        // B was evicted, it is new again
+        assertFalse(cache.isDuplicate(b, 8));
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        DedupCache cache = new DedupCache(4, 1000);
+        long key = DedupCache.key("A", FORMAT);
+        cache.isDuplicate(key, 0);
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertFalse(cache.isDuplicate(key, 1));
+    }
+
+    @Test
+    public void formatIsPartOfTheKey() {
+        assertNotEquals(DedupCache.key("12345", 1), DedupCache.key("12345", 2));
+        assertEquals(DedupCache.key(new byte[]{'A', 'B'}, FORMAT), DedupCache.key("AB", FORMAT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new DedupCache(0, 1000);
+    }
+
+    @Test
+    public void keepsUpWithTenThousandLookupsPerSecond() {
+        DedupCache cache = new DedupCache(64, 2000);
+        long[] keys = new long[256];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = DedupCache.key("CODE-" + i, FORMAT);
+        }
+        int lookups = 100_000;
+        // Warm up, then ten seconds worth of lookups at 10k per second
+        for (int i = 0; i < lookups; i++) {
+            cache.isDuplicate(keys[i % keys.length], i / 10);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            cache.isDuplicate(keys[(i * 7) % keys.length], i / 10);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Has to take well under the ten seconds it covers, a hundredth leaves room for slow CI
+        assertTrue("100k lookups took " + elapsed / 1_000_000 + " ms", elapsed < 100_000_000L);
+        assertEquals(64, cache.size());
+    }
+}
@@ -0,0 +1,106 @@
+package com.camera.fastscanner.objects;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameCropperTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    // Rows are padded as many cameras do
+    private static final int ROW_STRIDE = 80;
+
+    @Test
+    public void copiesWindowFromSemiPlanarFrame() {
+        ByteBuffer y = luma();
+        // V U interleaved in one buffer, V one byte ahead
+        ByteBuffer uv = ByteBuffer.allocate(ROW_STRIDE * HEIGHT / 2);
+        for (int row = 0; row < HEIGHT / 2; row++) {
+            for (int col = 0; col < WIDTH / 2; col++) {
+                uv.put(row * ROW_STRIDE + col * 2, u(col, row));
+                uv.put(row * ROW_STRIDE + col * 2 + 1, v(col, row));
+            }
+        }
+        ByteBuffer u = uv.duplicate();
+        ByteBuffer v = ((ByteBuffer) uv.duplicate().position(1)).slice();
+
+        assertCrop(y, u, v, ROW_STRIDE, 2);
+    }
+
+    @Test
+    public void copiesWindowFromPlanarFrame() {
+        ByteBuffer y = luma();
+        int uvRowStride = ROW_STRIDE / 2;
+        ByteBuffer u = ByteBuffer.allocate(uvRowStride * HEIGHT / 2);
+        ByteBuffer v = ByteBuffer.allocate(uvRowStride * HEIGHT / 2);
+        for (int row = 0; row < HEIGHT / 2; row++) {
+            for (int col = 0; col < WIDTH / 2; col++) {
+                u.put(row * uvRowStride + col, u(col, row));
+                v.put(row * uvRowStride + col, v(col, row));
+            }
+        }
+
+        assertCrop(y, u, v, uvRowStride, 1);
+    }
+
+    @Test
+    public void fullFrameCropIsWholeFrame() {
+        ByteBuffer y = luma();
+        ByteBuffer u = ByteBuffer.allocate(ROW_STRIDE * HEIGHT / 2);
+        ByteBuffer v = ByteBuffer.allocate(ROW_STRIDE * HEIGHT / 2);
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+
+        FrameCropper.copyNv21(y, ROW_STRIDE, u, v, ROW_STRIDE / 2, 1, new int[]{0, 0, WIDTH, HEIGHT}, nv21);
+        assertEquals(y(WIDTH - 1, HEIGHT - 1), nv21[WIDTH * HEIGHT - 1]);
+    }
+
+    private static void assertCrop(ByteBuffer y, ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride) {
+        int[] crop = {10, 6, 42, 30};
+        int width = crop[2] - crop[0];
+        int height = crop[3] - crop[1];
+        byte[] nv21 = new byte[width * height * 3 / 2];
+
+        FrameCropper.copyNv21(y, ROW_STRIDE, u, v, uvRowStride, uvPixelStride, crop, nv21);
+
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                assertEquals(y(crop[0] + col, crop[1] + row), nv21[row * width + col]);
+            }
+        }
+        int chroma = width * height;
+        for (int row = 0; row < height / 2; row++) {
+            for (int col = 0; col < width / 2; col++) {
+                int at = chroma + row * width + col * 2;
+                assertEquals(v(crop[0] / 2 + col, crop[1] / 2 + row), nv21[at]);
+                assertEquals(u(crop[0] / 2 + col, crop[1] / 2 + row), nv21[at + 1]);
+            }
+        }
+        // Left as it was for the next reader of the plane
+        assertEquals(0, y.position());
+    }
+
+    private static ByteBuffer luma() {
+        ByteBuffer y = ByteBuffer.allocate(ROW_STRIDE * HEIGHT);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                y.put(row * ROW_STRIDE + col, y(col, row));
+            }
+        }
+        return y;
+    }
+
+    private static byte y(int x, int y) {
+        return (byte) (x * 3 + y * 5);
+    }
+
+    private static byte u(int x, int y) {
+        return (byte) (x + y * 7 + 1);
+    }
+
+    private static byte v(int x, int y) {
+        return (byte) (x * 11 + y + 2);
+    }
+}
@@ -0,0 +1,95 @@
+package com.camera.fastscanner.objects;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameReordererTest {
+
+    private final List<String> delivered = new ArrayList<>();
+    private final List<String> dropped = new ArrayList<>();
+    private final FrameReorderer<String> reorderer = new FrameReorderer<>(4, new FrameReorderer.Sink<String>() {
+        @Override
+        public void deliver(String item) {
+            delivered.add(item);
+        }
+
+        @Override
+        public void dropped(String item) {
+            dropped.add(item);
+        }
+    });
+
+    @Test
+    public void framesComeOutInCaptureOrder() {
+        long first = reorderer.begin(0);
+        long second = reorderer.begin(0);
+        long third = reorderer.begin(0);
+
+        reorderer.complete(third, "C", 10);
+        reorderer.complete(first, "A", 11);
+        assertEquals(Arrays.asList("A"), delivered);
+        reorderer.complete(second, "B", 12);
+        assertEquals(Arrays.asList("A", "B", "C"), delivered);
+        assertTrue(dropped.isEmpty());
+    }
+
+    @Test
+    public void slowFrameIsSkippedAndDroppedWhenItComesBack() {
+        long slow = reorderer.begin(0);
+        long fast = reorderer.begin(0);
+        reorderer.complete(fast, "FAST", 10);
+
+        reorderer.poll(50);
+        assertTrue(delivered.isEmpty());
+        // Waited long enough for the older one
+        reorderer.poll(100);
+        assertEquals(Arrays.asList("FAST"), delivered);
+
+        reorderer.complete(slow, "SLOW", 120);
+        assertEquals(Arrays.asList("FAST"), delivered);
+        assertEquals(Arrays.asList("SLOW"), dropped);
+        assertEquals(1, reorderer.getStaleCount());
+    }
+
+    @Test
+    public void fullReordererGivesUpOnTheOldest() {
+        long[] sequences = new long[4];
+        for (int i = 0; i < 4; i++) {
+            sequences[i] = reorderer.begin(0);
+        }
+        for (int i = 1; i < 4; i++) {
+            reorderer.complete(sequences[i], "F" + i, 1);
+        }
+        assertTrue(delivered.isEmpty());
+
+        // A fifth frame has no room unless the first is given up on
+        long fifth = reorderer.begin(2);
+        assertEquals(Arrays.asList("F1", "F2", "F3"), delivered);
+        reorderer.complete(fifth, "F4", 3);
+        reorderer.complete(sequences[0], "F0", 4);
+        assertEquals(Arrays.asList("F1", "F2", "F3", "F4"), delivered);
+        assertEquals(Arrays.asList("F0"), dropped);
+    }
+
+    @Test
+    public void resetDropsHeldFrames() {
+        long first = reorderer.begin(0);
+        long second = reorderer.begin(0);
+        reorderer.complete(second, "HELD", 1);
+
+        reorderer.reset();
+        assertEquals(Arrays.asList("HELD"), dropped);
+        reorderer.complete(first, "LATE", 2);
+        assertEquals(Arrays.asList("HELD", "LATE"), dropped);
+
+        long next = reorderer.begin(3);
+        reorderer.complete(next, "NEW", 4);
+        assertEquals(Arrays.asList("NEW"), delivered);
+    }
+}
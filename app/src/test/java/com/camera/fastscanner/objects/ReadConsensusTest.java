@@ -0,0 +1,120 @@
+package com.camera.fastscanner.objects;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadConsensusTest {
+
+    private static final long MS = 1_000_000L;
+    private static final int CODE_128 = Barcode.FORMAT_CODE_128;
+    private static final long PALLET = DedupCache.key("PALLET-1", CODE_128);
+    private static final long MISREAD = DedupCache.key("PALLET-7", CODE_128);
+
+    private final ReadConsensus consensus = new ReadConsensus(new ScanMetrics());
+
+    @Test
+    public void qrIsAcceptedOnItsFirstRead() {
+        long key = DedupCache.key("https://example.com", Barcode.FORMAT_QR_CODE);
+        assertTrue(consensus.read(key, Barcode.FORMAT_QR_CODE, true, 100, 100, 50, 0));
+        assertEquals(1, consensus.getAcceptedValues());
+    }
+
+    @Test
+    public void linearCodeNeedsTwoReadsWithinTheWindow() {
+        assertFalse(read(PALLET, 100, 0));
+        assertTrue(read(PALLET, 102, 500 * MS));
+        assertEquals(1, consensus.getAcceptedValues());
+
+        // Passes straight away while its track lives
+        assertTrue(read(PALLET, 104, 900 * MS));
+        assertEquals(1, consensus.getAcceptedValues());
+    }
+
+    @Test
+    public void readsFurtherApartThanTheWindowDoNotAgree() {
+        assertFalse(read(PALLET, 100, 0));
+        // The track ended, its read was never confirmed
+        assertFalse(read(PALLET, 100, 1500 * MS));
+        assertEquals(1, consensus.getUnconfirmedValues());
+        assertTrue(read(PALLET, 100, 1900 * MS));
+    }
+
+    @Test
+    public void misreadAmongGoodReadsStaysUnconfirmed() {
+        assertFalse(read(PALLET, 100, 0));
+        assertFalse(read(MISREAD, 100, 33 * MS));
+        assertTrue(read(PALLET, 100, 66 * MS));
+
+        // Track ends, the misread goes with it
+        assertFalse(read(PALLET, 100, 2000 * MS));
+        assertEquals(1, consensus.getAcceptedValues());
+        assertEquals(1, consensus.getUnconfirmedValues());
+    }
+
+    @Test
+    public void codesApartDoNotAgreeWithEachOther() {
+        assertFalse(read(PALLET, 100, 0));
+        // Same value, but a different code further along the shelf
+        assertFalse(read(PALLET, 500, 100 * MS));
+        assertTrue(read(PALLET, 500, 200 * MS));
+    }
+
+    @Test
+    public void leastRecentlySeenTrackMakesRoom() {
+        // Eight tracks in use, one read each
+        for (int i = 0; i < 8; i++) {
+            assertFalse(read(PALLET, 100 + i * 200, i * MS));
+        }
+        assertFalse(read(MISREAD, 2000, 10 * MS));
+        // The first track went, with its read
+        assertEquals(1, consensus.getUnconfirmedValues());
+        // The second one is still there
+        assertTrue(read(PALLET, 300, 20 * MS));
+        assertFalse(read(PALLET, 100, 30 * MS));
+    }
+
+    @Test
+    public void valueSeenLeastRecentlyMakesRoomInATrack() {
+        for (int i = 0; i < 5; i++) {
+            read(DedupCache.key("PALLET-" + i, CODE_128), 100, i * MS);
+        }
+        assertEquals(1, consensus.getUnconfirmedValues());
+        // Its read is gone, the others are kept
+        assertFalse(read(DedupCache.key("PALLET-0", CODE_128), 100, 10 * MS));
+        assertTrue(read(DedupCache.key("PALLET-2", CODE_128), 100, 11 * MS));
+    }
+
+    @Test
+    public void codesWithoutABoxShareOneTrack() {
+        assertFalse(consensus.read(PALLET, CODE_128, false, 0, 0, 0, 0));
+        assertTrue(consensus.read(PALLET, CODE_128, false, 0, 0, 0, 100 * MS));
+    }
+
+    @Test
+    public void requiredReadsCanBeRaised() {
+        consensus.setRequiredReads(CODE_128, 3);
+        assertFalse(read(PALLET, 100, 0));
+        assertFalse(read(PALLET, 100, 100 * MS));
+        assertTrue(read(PALLET, 100, 200 * MS));
+        assertEquals(ReadConsensus.MAX_READS, clamp(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiredReadsAreSetPerFormat() {
+        consensus.setRequiredReads(CODE_128 | Barcode.FORMAT_EAN_13, 2);
+    }
+
+    private boolean read(long key, float x, long timestamp) {
+        return consensus.read(key, CODE_128, true, x, 100, 50, timestamp);
+    }
+
+    private int clamp(int reads) {
+        consensus.setRequiredReads(Barcode.FORMAT_EAN_13, reads);
+        return consensus.getRequiredReads(Barcode.FORMAT_EAN_13);
+    }
+}
@@ -0,0 +1,165 @@
+package com.camera.fastscanner.objects;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResultRingTest {
+
+    @Test
+    public void resultsArriveInOrder() {
+        ResultRing<Integer> ring = new ResultRing<>(8);
+        ResultRing.Subscriber<Integer> subscriber = ring.subscribe(ResultRing.DROP_OLDEST, null);
+        for (int i = 0; i < 5; i++) {
+            ring.publish(i);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), subscriber.poll());
+        }
+        assertNull(subscriber.poll());
+        assertEquals(0, subscriber.getDropped());
+    }
+
+    @Test
+    public void subscriberOnlySeesLaterResults() {
+        ResultRing<Integer> ring = new ResultRing<>(8);
+        ring.publish(1);
+        ResultRing.Subscriber<Integer> subscriber = ring.subscribe(ResultRing.DROP_OLDEST, null);
+        ring.publish(2);
+        assertEquals(Integer.valueOf(2), subscriber.poll());
+        assertNull(subscriber.poll());
+    }
+
+    @Test
+    public void lappedSubscriberDropsTheOldest() {
+        ResultRing<Integer> ring = new ResultRing<>(4);
+        ResultRing.Subscriber<Integer> slow = ring.subscribe(ResultRing.DROP_OLDEST, null);
+        ResultRing.Subscriber<Integer> fast = ring.subscribe(ResultRing.DROP_OLDEST, null);
+        for (int i = 0; i < 10; i++) {
+            ring.publish(i);
+            assertEquals(Integer.valueOf(i), fast.poll());
+        }
+        assertEquals(10, slow.getBacklog());
+
+        // Only the last four are still in the ring
+        for (int i = 6; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), slow.poll());
+        }
+        assertNull(slow.poll());
+        assertEquals(6, slow.getDropped());
+        assertEquals(0, fast.getDropped());
+    }
+
+    @Test
+    public void blockingSubscriberHoldsTheWriter() throws Exception {
+        ResultRing<Integer> ring = new ResultRing<>(4);
+        ResultRing.Subscriber<Integer> subscriber = ring.subscribe(ResultRing.BLOCK, null);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 6; i++) {
+                ring.publish(i);
+            }
+        });
+        writer.start();
+
+        awaitPublished(ring, 4);
+        Thread.sleep(50);
+        // Waits for the subscriber instead of overwriting
+        assertEquals(4, ring.getPublished());
+        assertTrue(writer.isAlive());
+
+        List<Integer> read = new ArrayList<>();
+        while (read.size() < 6) {
+            Integer item = subscriber.poll(5, TimeUnit.SECONDS);
+            assertTrue(item != null);
+            read.add(item);
+        }
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(Integer.valueOf(i), read.get(i));
+        }
+        assertEquals(0, subscriber.getDropped());
+    }
+
+    @Test
+    public void unsubscribingReleasesAWaitingWriter() throws Exception {
+        ResultRing<Integer> ring = new ResultRing<>(4);
+        ResultRing.Subscriber<Integer> subscriber = ring.subscribe(ResultRing.BLOCK, null);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 5; i++) {
+                ring.publish(i);
+            }
+        });
+        writer.start();
+        awaitPublished(ring, 4);
+        Thread.sleep(20);
+        assertTrue(writer.isAlive());
+
+        subscriber.unsubscribe();
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        assertEquals(5, ring.getPublished());
+    }
+
+    @Test
+    public void takeWaitsForAResultAndReturnsOnClose() throws Exception {
+        ResultRing<Integer> ring = new ResultRing<>(4);
+        ResultRing.Subscriber<Integer> subscriber = ring.subscribe(ResultRing.DROP_OLDEST, null);
+        List<Integer> taken = new ArrayList<>();
+        Thread reader = new Thread(() -> {
+            try {
+                Integer item;
+                while ((item = subscriber.take()) != null) {
+                    synchronized (taken) {
+                        taken.add(item);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        reader.start();
+
+        ring.publish(7);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            synchronized (taken) {
+                if (!taken.isEmpty()) {
+                    break;
+                }
+            }
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        ring.close();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        assertEquals(Integer.valueOf(7), taken.get(0));
+    }
+
+    @Test
+    public void onPublishRunsForEveryResult() {
+        ResultRing<Integer> ring = new ResultRing<>(4);
+        AtomicInteger woken = new AtomicInteger();
+        ring.subscribe(ResultRing.DROP_OLDEST, woken::incrementAndGet);
+        ring.publish(1);
+        ring.publish(2);
+        assertEquals(2, woken.get());
+    }
+
+    private static void awaitPublished(ResultRing<?> ring, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ring.getPublished() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
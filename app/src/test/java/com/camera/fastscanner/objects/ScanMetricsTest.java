@@ -0,0 +1,141 @@
+package com.camera.fastscanner.objects;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScanMetricsTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long START = 100_000 * MS;
+
+    // What the fleet dashboards read, besides the per tier fields
+    private static final List<String> DASHBOARD_KEYS = Arrays.asList(
+            "frames", "decodedFrames", "droppedFrames", "results", "timeToFirstResultUs",
+            "launchToFirstResultUs", "prewarmed", "resultsPerSecond", "workers", "decodesPerSecond",
+            "frameIntervalP50Us", "frameIntervalP99Us", "decodeP50Us", "decodeP90Us", "decodeP99Us",
+            "decodeMaxUs", "acquisitions", "acquireP50Us", "acquireP90Us", "overlayDraws",
+            "overlayDrawP50Us", "overlayDrawP99Us", "overlayFrameP50Us", "overlayFrameP99Us",
+            "coldAttachToFrameUs", "warmAttachToFrameUs", "analysisTier", "prefilteredFrames",
+            "skippedFrames", "prefilterP50Us", "prefilterP99Us", "sampledFrames", "missedReads",
+            "decodeMs", "prefilterMs", "savedDecodeMs", "confirmedReads", "confirmDelayP50Us",
+            "confirmDelayP99Us", "unconfirmedValues");
+
+    private final ScanMetrics metrics = new ScanMetrics();
+
+    @Test
+    public void jsonHasEveryDashboardKeyOnce() {
+        String json = metrics.snapshot(START).toJson();
+        assertTrue(json.startsWith("{") && json.endsWith("}"));
+
+        List<String> keys = new ArrayList<>();
+        Matcher matcher = Pattern.compile("\"(\\w+)\":").matcher(json);
+        while (matcher.find()) {
+            keys.add(matcher.group(1));
+        }
+        List<String> expected = new ArrayList<>(DASHBOARD_KEYS);
+        for (int i = 0; i < TierMetrics.MAX_TIERS; i++) {
+            expected.addAll(Arrays.asList("tier" + i + "Decodes", "tier" + i + "DecodeP50Us",
+                    "tier" + i + "DecodeP99Us", "tier" + i + "DecodesPerSecond"));
+        }
+        assertEquals(expected.size(), keys.size());
+        assertTrue(keys.containsAll(expected));
+    }
+
+    @Test
+    public void jsonCarriesTheRecordedValues() {
+        metrics.launched(START - 500 * MS, true);
+        metrics.cameraStarted(START);
+        metrics.frameArrived(START + 30 * MS);
+        metrics.frameDecoded(20 * MS, START + 50 * MS);
+        metrics.resultPublished(START + 50 * MS);
+
+        String json = metrics.snapshot(START + 60 * MS).toJson();
+        assertTrue(json, json.contains("\"frames\":1,"));
+        assertTrue(json, json.contains("\"decodedFrames\":1,"));
+        assertTrue(json, json.contains("\"timeToFirstResultUs\":50000,"));
+        assertTrue(json, json.contains("\"launchToFirstResultUs\":550000,"));
+        assertTrue(json, json.contains("\"prewarmed\":true,"));
+        assertTrue(json, json.contains("\"resultsPerSecond\":0.00,"));
+    }
+
+    @Test
+    public void workersChangedKeepsStartupTimings() {
+        metrics.launched(START - 500 * MS, false);
+        metrics.cameraStarted(START);
+        metrics.viewAttached(START, false);
+        metrics.frameArrived(START + 200 * MS);
+        metrics.frameArrived(START + 233 * MS);
+        metrics.resultPublished(START + 300 * MS);
+        metrics.overlayDrawn(2 * MS, START + 300 * MS);
+        metrics.readUnconfirmed();
+
+        metrics.workersChanged(2);
+
+        ScanMetrics.Snapshot snapshot = metrics.snapshot(START + 400 * MS);
+        assertEquals(300_000, snapshot.startup.timeToFirstResultMicros);
+        assertEquals(800_000, snapshot.startup.launchToFirstResultMicros);
+        assertEquals(200_000, snapshot.startup.coldAttachToFrameMicros);
+        assertEquals(2, snapshot.frames.frames);
+        assertEquals(1, snapshot.overlay.overlayDraws);
+        assertEquals(1, snapshot.consensus.unconfirmedValues);
+    }
+
+    @Test
+    public void workersChangedStartsThroughputOver() {
+        metrics.analysisTierChanged(1, START);
+        for (int i = 0; i < 10; i++) {
+            metrics.frameDecoded(40 * MS, START + i * 50 * MS);
+        }
+        metrics.frameDropped();
+        metrics.resultPublished(START + 500 * MS);
+
+        metrics.workersChanged(4);
+        metrics.frameDecoded(10 * MS, START + 600 * MS);
+
+        ScanMetrics.Snapshot snapshot = metrics.snapshot(START + 700 * MS);
+        assertEquals(4, snapshot.decode.workers);
+        assertEquals(1, snapshot.decode.decodedFrames);
+        assertEquals(0, snapshot.decode.droppedFrames);
+        assertEquals(0, snapshot.decode.results);
+        assertEquals(10, snapshot.decode.decodeMillis);
+        assertEquals(1, snapshot.tiers.analysisTier);
+        assertEquals(1, snapshot.tiers.tierDecodes[1]);
+    }
+
+    @Test
+    public void skippedFramesAreCountedAtTheAverageDecode() {
+        metrics.frameDecoded(30 * MS, START);
+        metrics.frameDecoded(50 * MS, START);
+        metrics.framePrefiltered(MS, false, false, false);
+        metrics.framePrefiltered(MS, false, false, false);
+        metrics.framePrefiltered(MS, false, true, true);
+
+        PrefilterMetrics.Snapshot snapshot = metrics.snapshot(START).prefilter;
+        assertEquals(2, snapshot.skippedFrames);
+        assertEquals(1, snapshot.sampledFrames);
+        assertEquals(1, snapshot.missedReads);
+        assertEquals(80, snapshot.savedDecodeMillis);
+    }
+
+    @Test
+    public void percentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.recordNanos(i * MS);
+        }
+        assertEquals(100, histogram.getTotal());
+        long p50 = histogram.percentileMicros(0.5);
+        assertTrue(String.valueOf(p50), p50 >= 50_000 && p50 < 50_000 * 1.0625);
+        long max = histogram.percentileMicros(1.0);
+        assertTrue(String.valueOf(max), max >= 100_000 && max < 100_000 * 1.0625);
+        assertEquals(0, new LatencyHistogram().percentileMicros(0.5));
+    }
+}
@@ -0,0 +1,91 @@
+package com.camera.fastscanner.objects;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanWindowTest {
+
+    @Test
+    public void noWindowMeansFullFrame() {
+        ScanWindow window = new ScanWindow();
+        int[] crop = new int[4];
+
+        assertFalse(window.mapToImage(1280, 720, 90, crop));
+        window.setViewWindow(1080, 1920, 140, 660, 940, 1260);
+        window.clear();
+        assertFalse(window.mapToImage(1280, 720, 90, crop));
+    }
+
+    @Test
+    public void portraitWindowMapsIntoLandscapeBuffer() {
+        // Phone held upright, the sensor delivers landscape frames rotated by 90
+        ScanWindow window = new ScanWindow();
+        window.setViewWindow(1080, 1920, 140, 660, 940, 1260);
+        int[] crop = new int[4];
+
+        assertTrue(window.mapToImage(1280, 720, 90, crop));
+        assertArrayEquals(new int[]{440, 92, 840, 626}, crop);
+        // Less than a quarter of the pixels left to decode
+        double fraction = (crop[2] - crop[0]) * (crop[3] - crop[1]) / (1280.0 * 720);
+        assertTrue("fraction " + fraction, fraction < 0.25);
+    }
+
+    @Test
+    public void everyRotationCoversTheSameArea() {
+        ScanWindow window = new ScanWindow();
+        window.setViewWindow(1080, 1920, 140, 660, 940, 1260);
+        int[] upright = new int[4];
+        int[] upsideDown = new int[4];
+        window.mapToImage(1280, 720, 90, upright);
+        window.mapToImage(1280, 720, 270, upsideDown);
+
+        assertEquals(upright[2] - upright[0], upsideDown[2] - upsideDown[0]);
+        assertEquals(upright[3] - upright[1], upsideDown[3] - upsideDown[1]);
+        // Mirrored through the centre of the buffer
+        assertEquals(1280 - upright[2], upsideDown[0]);
+    }
+
+    @Test
+    public void coordinatesAreEvenAndInsideFrame() {
+        ScanWindow window = new ScanWindow();
+        int[] crop = new int[4];
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (int offset = 0; offset < 40; offset += 7) {
+                window.setViewWindow(1080, 1920, offset - 20, 301 + offset, 1101 - offset, 917 + offset);
+                assertTrue(window.mapToImage(640, 480, rotation, crop));
+                for (int i = 0; i < 4; i++) {
+                    assertEquals(0, crop[i] & 1);
+                }
+                assertTrue(crop[0] >= 0 && crop[2] <= 640 && crop[0] < crop[2]);
+                assertTrue(crop[1] >= 0 && crop[3] <= 480 && crop[1] < crop[3]);
+            }
+        }
+    }
+
+    @Test
+    public void windowOverLetterboxCoversNothing() {
+        // 4:3 frame fitted into a 9:16 view leaves bars above and below
+        ScanWindow window = new ScanWindow();
+        window.setScaleType(ScanWindow.SCALE_FIT);
+        window.setViewWindow(1080, 1920, 100, 0, 980, 300);
+        int[] crop = new int[4];
+
+        assertFalse(window.mapToImage(640, 480, 0, crop));
+    }
+
+    @Test
+    public void fitScalesToTheSmallerSide() {
+        ScanWindow window = new ScanWindow();
+        window.setScaleType(ScanWindow.SCALE_FIT);
+        // Frame shown at 1080x810, from y 555 to 1365
+        window.setViewWindow(1080, 1920, 0, 555, 1080, 1365);
+        int[] crop = new int[4];
+
+        assertTrue(window.mapToImage(640, 480, 0, crop));
+        assertArrayEquals(new int[]{0, 0, 640, 480}, crop);
+    }
+}
@@ -0,0 +1,121 @@
+package com.camera.fastscanner.objects;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SerialDispatcherTest {
+
+    @Test
+    public void sendsInOrder() {
+        List<Integer> sent = new ArrayList<>();
+        SerialDispatcher<Integer> dispatcher = new SerialDispatcher<>(sent::add, e -> fail(e.toString()));
+        for (int i = 0; i < 5; i++) {
+            dispatcher.add(i);
+        }
+        dispatcher.dispatch();
+
+        assertEquals(5, sent.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, (int) sent.get(i));
+        }
+        assertEquals(0, dispatcher.getQueued());
+    }
+
+    @Test
+    public void throwingConsumerDoesNotStopLaterItems() {
+        List<Integer> sent = new ArrayList<>();
+        List<RuntimeException> failures = new ArrayList<>();
+        SerialDispatcher<Integer> dispatcher = new SerialDispatcher<>(item -> {
+            if (item == 1) {
+                throw new IllegalStateException("consumer broke");
+            }
+            sent.add(item);
+        }, failures::add);
+        for (int i = 0; i < 4; i++) {
+            dispatcher.add(i);
+        }
+        dispatcher.dispatch();
+
+        assertEquals(3, sent.size());
+        assertEquals(3, (int) sent.get(2));
+        assertEquals(1, failures.size());
+        assertEquals("consumer broke", failures.get(0).getMessage());
+        assertEquals(1, dispatcher.getFailures());
+
+        // And still sends afterwards
+        dispatcher.add(4);
+        dispatcher.dispatch();
+        assertEquals(4, (int) sent.get(3));
+    }
+
+    @Test
+    public void errorLeavesTheRestForTheNextCall() {
+        List<Integer> sent = new ArrayList<>();
+        SerialDispatcher<Integer> dispatcher = new SerialDispatcher<>(item -> {
+            if (item == 1) {
+                throw new AssertionError("fatal");
+            }
+            sent.add(item);
+        }, e -> fail(e.toString()));
+        for (int i = 0; i < 4; i++) {
+            dispatcher.add(i);
+        }
+        try {
+            dispatcher.dispatch();
+            fail("error swallowed");
+        } catch (AssertionError e) {
+            assertEquals("fatal", e.getMessage());
+        }
+        assertEquals(1, sent.size());
+        assertEquals(2, dispatcher.getQueued());
+
+        dispatcher.dispatch();
+        assertEquals(3, sent.size());
+        assertEquals(3, (int) sent.get(2));
+    }
+
+    @Test
+    public void oneCallAtATimeFromManyThreads() throws InterruptedException {
+        int threads = 4;
+        int perThread = 5000;
+        AtomicInteger inside = new AtomicInteger();
+        List<Integer> sent = Collections.synchronizedList(new ArrayList<>());
+        SerialDispatcher<Integer> dispatcher = new SerialDispatcher<>(item -> {
+            assertEquals(1, inside.incrementAndGet());
+            sent.add(item);
+            inside.decrementAndGet();
+        }, e -> fail(e.toString()));
+        Object order = new Object();
+        int[] next = new int[1];
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    // Added in one global order, as delivered() does under the slot lock
+                    synchronized (order) {
+                        dispatcher.add(next[0]++);
+                    }
+                    dispatcher.dispatch();
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        dispatcher.dispatch();
+
+        assertEquals(threads * perThread, sent.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals(i, (int) sent.get(i));
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.camera.fastscanner.viewmodel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EventTest {
+
+    @Test
+    public void contentIsHandedOutOnce() {
+        Event<String> event = new Event<>("PALLET-0042");
+        assertEquals("PALLET-0042", event.getContentIfNotHandled());
+        // Observer of a recreated view
+        assertNull(event.getContentIfNotHandled());
+        assertEquals("PALLET-0042", event.peekContent());
+    }
+}